@@ -7,10 +7,10 @@ import io.github.jbellis.brokk.analyzer.ProjectFile;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import scala.Tuple2;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -84,19 +84,9 @@ public class AnalyzerUtil {
     public static List<CodeUnit> combinedPagerankFor(IAnalyzer analyzer, Map<String, Double> weightedSeeds) {
         logger.trace("Computing pagerank for {}", weightedSeeds);
 
-        // do forward and reverse pagerank passes
-        var forwardResults = analyzer.getPagerank(weightedSeeds, 3 * Context.MAX_AUTO_CONTEXT_FILES, false);
-        var reverseResults = analyzer.getPagerank(weightedSeeds, 3 * Context.MAX_AUTO_CONTEXT_FILES, true);
-
-        // combine results by summing scores
-        var combinedScores = new HashMap<CodeUnit, Double>();
-        forwardResults.forEach(pair -> combinedScores.put(pair._1(), pair._2()));
-        reverseResults.forEach(pair -> combinedScores.merge(pair._1(), pair._2(), Double::sum));
-
-        // sort by combined score
-        var result = combinedScores.entrySet().stream()
-                .sorted(Map.Entry.<CodeUnit, Double>comparingByValue().reversed())
-                .map(Map.Entry::getKey)
+        // forward and reverse passes, with scores summed and sorted by the analyzer
+        var result = analyzer.getBidirectionalPagerank(weightedSeeds, 3 * Context.MAX_AUTO_CONTEXT_FILES).stream()
+                .map(Tuple2::_1)
                 // isClassInProject filtering is implicitly handled by getPagerank returning CodeUnits
                 .toList();
 
@@ -3,6 +3,8 @@ package io.github.jbellis.brokk;
 import io.github.jbellis.brokk.Project.CpgRefresh;
 import io.github.jbellis.brokk.agents.BuildAgent;
 import io.github.jbellis.brokk.analyzer.*;
+import io.methvin.watcher.DirectoryChangeEvent;
+import io.methvin.watcher.DirectoryWatcher;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -10,12 +12,26 @@ import javax.swing.*;
 import java.awt.KeyboardFocusManager; // Keep specific AWT imports if used elsewhere for UI
 import java.io.IOException;
 import java.nio.file.*;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class AnalyzerWrapper implements AutoCloseable {
@@ -24,6 +40,9 @@ public class AnalyzerWrapper implements AutoCloseable {
     private static final long DEBOUNCE_DELAY_MS = 500;
     private static final long POLL_TIMEOUT_FOCUSED_MS = 100;
     private static final long POLL_TIMEOUT_UNFOCUSED_MS = 1000;
+    // Per-language delegates build concurrently, bounded because CPG builds are memory-hungry and
+    // tree-sitter builds already parallelize across files internally
+    private static final int MAX_CONCURRENT_LANGUAGE_BUILDS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
     private final AnalyzerListener listener; // can be null if no one is listening
     private final Path root;
@@ -34,10 +53,34 @@ public class AnalyzerWrapper implements AutoCloseable {
     private volatile boolean paused = false;
 
     private volatile Future<IAnalyzer> future;
-    private volatile IAnalyzer currentAnalyzer = null;
+    private final AtomicReference<Snapshot> current = new AtomicReference<>(); // null until the first analyzer is ready
     private volatile boolean rebuildInProgress = false;
     private volatile boolean externalRebuildRequested = false;
     private volatile boolean rebuildPending = false;
+    private final Set<ProjectFile> pendingChanges = new HashSet<>(); // guarded by this
+
+    // Filled by the recursive directory watcher, drained in debounced batches by the DirectoryWatcher thread
+    private final BlockingQueue<FileChangeEvent> events = new LinkedBlockingQueue<>();
+    private final ExecutorService watcherExecutor = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "DirectoryWatcherEvents");
+        t.setDaemon(true);
+        return t;
+    });
+    private Set<Path> trackedPaths; // absolute; null when it must be reloaded. Confined to the DirectoryWatcher thread
+
+    private final ExecutorService languageBuildExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_LANGUAGE_BUILDS, r -> {
+        var t = new Thread(r, "AnalyzerBuild");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * An analyzer and the generation it was published as. Every build, rebuild or incremental update publishes a
+     * new generation, even when an update hands back the same analyzer object, so results computed from an
+     * analyzer can be cached under the generation they were computed for. Published analyzers are never mutated.
+     */
+    public record Snapshot(IAnalyzer analyzer, long generation) {
+    }
 
     public AnalyzerWrapper(Project project, ContextManager.TaskRunner runner, AnalyzerListener listener) {
         this.project = project;
@@ -48,6 +91,10 @@ public class AnalyzerWrapper implements AutoCloseable {
         // build the initial Analyzer
         future = runner.submit("Initializing code intelligence", () -> {
             var an = loadOrCreateAnalyzer();
+            if (!an.isFullyIndexed()) {
+                logger.debug("Initial analyzer is ready and still indexing in the background");
+                return an;
+            }
             // Safe check for getAllDeclarations as it might not be supported by all (e.g. DisabledAnalyzer)
             java.util.List<CodeUnit> codeUnits;
             try {
@@ -71,24 +118,26 @@ public class AnalyzerWrapper implements AutoCloseable {
             throw new RuntimeException(e);
         }
 
-        logger.debug("Setting up WatchService for {}", root);
-        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
-            // Recursively register all directories except .brokk
-            registerAllDirectories(root, watchService);
-
-            // Watche for events, debounces them, and handles them
+        logger.debug("Starting recursive directory watcher for {}", root);
+        DirectoryWatcher watcher = null;
+        try {
+            watcher = DirectoryWatcher.builder()
+                    .path(root)
+                    .fileHashing(false) // hashing reads every file up front; we only need to know which paths changed
+                    .listener(this::enqueue)
+                    .build();
+            watcher.watchAsync(watcherExecutor);
+
+            // Wait for events, debounce them, and handle them
             while (running) {
-                // Wait if paused
-                while (paused) {
-                    Thread.onSpinWait();
-                }
+                awaitResumed();
 
                 // Choose a short or long poll depending on focus
                 long pollTimeout = isApplicationFocused() ? POLL_TIMEOUT_FOCUSED_MS : POLL_TIMEOUT_UNFOCUSED_MS;
-                WatchKey key = watchService.poll(pollTimeout, TimeUnit.MILLISECONDS);
+                var first = events.poll(pollTimeout, TimeUnit.MILLISECONDS);
 
                 // If no event arrived within the poll window, check for external rebuild requests
-                if (key == null) {
+                if (first == null) {
                     if (externalRebuildRequested && !rebuildInProgress) {
                         logger.debug("External rebuild requested");
                         rebuild();
@@ -96,17 +145,17 @@ public class AnalyzerWrapper implements AutoCloseable {
                     continue;
                 }
 
-                // We got an event, collect it and any others within the debounce window
+                // We got an event, coalesce it with any others within the debounce window
                 var batch = new HashSet<FileChangeEvent>();
-                collectEventsFromKey(key, watchService, batch);
-
+                batch.add(first);
                 long deadline = System.currentTimeMillis() + DEBOUNCE_DELAY_MS;
                 while (true) {
+                    events.drainTo(batch);
                     long remaining = deadline - System.currentTimeMillis();
                     if (remaining <= 0) break;
-                    WatchKey nextKey = watchService.poll(remaining, TimeUnit.MILLISECONDS);
-                    if (nextKey == null) break;
-                    collectEventsFromKey(nextKey, watchService, batch);
+                    var next = events.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) break;
+                    batch.add(next);
                 }
 
                 // Process the batch
@@ -114,12 +163,49 @@ public class AnalyzerWrapper implements AutoCloseable {
             }
         }
         catch (IOException e) {
-            logger.error("Error setting up watch service", e);
+            logger.error("Error setting up directory watcher", e);
         }
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            logger.warn("FileWatchService thread interrupted; shutting down");
+            logger.warn("DirectoryWatcher thread interrupted; shutting down");
+        }
+        finally {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    logger.debug("Error closing directory watcher", e);
+                }
+            }
+            watcherExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues a change reported by the directory watcher for the next batch, skipping our own files.
+     * Runs on the watcher's thread, so it does no other work.
+     */
+    private void enqueue(DirectoryChangeEvent event) {
+        var type = switch (event.eventType()) {
+            case CREATE -> EventType.CREATE;
+            case MODIFY -> EventType.MODIFY;
+            case DELETE -> EventType.DELETE;
+            default -> EventType.OVERFLOW;
+        };
+        var path = event.path();
+        if (type == EventType.OVERFLOW || path == null) {
+            logger.debug("Overflow event: {}", path);
+            events.add(new FileChangeEvent(EventType.OVERFLOW, root, true));
+            return;
         }
+
+        // Skip .brokk or log file paths
+        if (path.toString().contains("${sys:logfile.path}") || path.startsWith(root.resolve(".brokk"))) {
+            return;
+        }
+
+        logger.trace("Directory event: {} on {}", type, path);
+        events.add(new FileChangeEvent(type, path, event.isDirectory()));
     }
 
     /**
@@ -129,55 +215,52 @@ public class AnalyzerWrapper implements AutoCloseable {
         logger.trace("Events batch: {}", batch);
 
         // 1) Possibly refresh Git
-        boolean needsGitRefresh = batch.stream().anyMatch(event -> {
-            Path gitDir = root.resolve(".git");
-            return event.path.startsWith(gitDir)
-                    && (event.type == EventType.CREATE
-                    || event.type == EventType.DELETE
-                    || event.type == EventType.MODIFY);
-        });
+        Path gitDir = root.resolve(".git");
+        boolean needsGitRefresh = batch.stream().anyMatch(event -> event.path.startsWith(gitDir)
+                && (event.type == EventType.CREATE
+                || event.type == EventType.DELETE
+                || event.type == EventType.MODIFY));
         if (needsGitRefresh) {
             logger.debug("Refreshing git due to changes in .git directory");
             listener.onRepoChange();
             listener.onTrackedFileChange(); // not 100% sure this is necessary
+            trackedPaths = null; // the index may have changed which files are tracked
         }
 
-        // 2) Check if any *tracked* files changed
-        Set<Path> trackedPaths = project.getRepo().getTrackedFiles().stream()
-                .map(ProjectFile::absPath)
-                .collect(Collectors.toSet());
-        boolean trackedPathsChanged = batch.stream()
-                .anyMatch(event -> trackedPaths.contains(event.path));
+        // Events were dropped, so we cannot tell what changed
+        if (batch.stream().anyMatch(event -> event.type == EventType.OVERFLOW)) {
+            trackedPaths = null;
+            listener.onTrackedFileChange();
+            if (project.getAnalyzerRefresh() == CpgRefresh.AUTO) {
+                logger.debug("Directory watcher overflowed; rebuilding analyzer");
+                rebuild();
+            }
+            return;
+        }
 
-        if (trackedPathsChanged) {
+        // 2) Check if any *tracked* files changed
+        var changedPaths = trackedPathsChanged(batch);
+        if (!changedPaths.isEmpty()) {
             // call listener (refreshes git panel)
             listener.onTrackedFileChange();
 
             // update the analyzer if we're configured to do so
             // Only rebuild if the changed files are of a type relevant to the project's configured languages
             Set<Language> projectLanguages = project.getAnalyzerLanguages();
-            boolean relevantFileChanged = batch.stream().anyMatch(event -> {
-                if (!trackedPaths.contains(event.path)) return false;
-                String extension = com.google.common.io.Files.getFileExtension(event.path.toString());
-                Language langOfFile = Language.fromExtension(extension);
-                return langOfFile != Language.NONE && projectLanguages.contains(langOfFile);
-            });
-
-            if (relevantFileChanged) {
+            var changedFiles = changedPaths.stream()
+                    .filter(path -> {
+                        String ext = com.google.common.io.Files.getFileExtension(path.toString());
+                        Language lang = Language.fromExtension(ext);
+                        return lang != Language.NONE && projectLanguages.contains(lang);
+                    })
+                    .map(path -> new ProjectFile(root, root.relativize(path)))
+                    .collect(Collectors.toSet());
+
+            if (!changedFiles.isEmpty()) {
                 if (project.getAnalyzerRefresh() == CpgRefresh.AUTO) {
-                    logger.debug("Rebuilding analyzer due to changes in tracked files relevant to configured languages: {}",
-                                 batch.stream()
-                                         .filter(e -> trackedPaths.contains(e.path))
-                                         .filter(e -> {
-                                             String ext = com.google.common.io.Files.getFileExtension(e.path.toString());
-                                             Language lang = Language.fromExtension(ext);
-                                             return projectLanguages.contains(lang);
-                                         })
-                                         .distinct()
-                                         .map(e -> e.path.toString())
-                                         .collect(Collectors.joining(", "))
-                    );
-                    rebuild();
+                    logger.debug("Updating analyzer due to changes in tracked files relevant to configured languages: {}",
+                                 changedFiles.stream().map(ProjectFile::toString).collect(Collectors.joining(", ")));
+                    update(changedFiles);
                 }
             } else {
                 logger.trace("No tracked files relevant to configured languages changed; skipping analyzer rebuild");
@@ -187,6 +270,46 @@ public class AnalyzerWrapper implements AutoCloseable {
         }
     }
 
+    /**
+     * The paths in the batch that are, or just stopped being, tracked files. Without git every file is tracked,
+     * so creations and deletions are applied to the cached set here instead of walking the tree again; with git
+     * the set only changes through the index, which invalidates the cache in handleBatch.
+     */
+    private Set<Path> trackedPathsChanged(Set<FileChangeEvent> batch) {
+        var tracked = trackedPaths();
+        boolean everyFileTracked = !project.hasGit();
+        var changed = new HashSet<Path>();
+        for (var event : batch) {
+            if (tracked.contains(event.path)) {
+                changed.add(event.path);
+                if (everyFileTracked && event.type == EventType.DELETE) {
+                    tracked.remove(event.path);
+                }
+            } else if (everyFileTracked && event.type == EventType.CREATE && Files.isRegularFile(event.path)) {
+                tracked.add(event.path);
+                changed.add(event.path);
+            } else if (everyFileTracked && event.type == EventType.DELETE && event.directory) {
+                // the watcher may not report each file of a deleted tree
+                tracked.removeIf(path -> {
+                    if (!path.startsWith(event.path)) return false;
+                    changed.add(path);
+                    return true;
+                });
+            }
+        }
+        return changed;
+    }
+
+    /** The absolute paths of the tracked files, loaded from the repo only when the cached set was invalidated. */
+    private Set<Path> trackedPaths() {
+        if (trackedPaths == null) {
+            trackedPaths = project.getRepo().getTrackedFiles().stream()
+                    .map(ProjectFile::absPath)
+                    .collect(Collectors.toCollection(HashSet::new));
+        }
+        return trackedPaths;
+    }
+
     /**
      * Synchronously load or create an Analyzer:
      *   1) If the cpg file is up to date, reuse it;
@@ -206,9 +329,10 @@ public class AnalyzerWrapper implements AutoCloseable {
         logger.debug("Loading/creating analyzer for languages: {}", projectLangs.stream().map(Language::name).collect(Collectors.joining(", ")));
 
         if (projectLangs.isEmpty() || (projectLangs.size() == 1 && projectLangs.contains(Language.NONE))) {
-            currentAnalyzer = new DisabledAnalyzer();
+            var disabled = new DisabledAnalyzer();
+            publish(disabled);
             if (isInitialLoad) startWatcher(); // Watcher for git, etc.
-            return currentAnalyzer;
+            return disabled;
         }
 
         BuildAgent.BuildDetails fetchedBuildDetails = project.awaitBuildDetails();
@@ -225,58 +349,43 @@ public class AnalyzerWrapper implements AutoCloseable {
             Language lang = projectLangs.iterator().next();
             assert lang != Language.NONE;
 
-            Path cpgPath = lang.isCpg() ? lang.getCpgPath(project) : null;
             long startTime = System.currentTimeMillis();
-
-            if (isInitialLoad && project.getAnalyzerRefresh() == CpgRefresh.UNSET) {
-                logger.debug("First startup for language {}: timing Analyzer creation", lang.name());
-                resultAnalyzer = lang.createAnalyzer(project);
-            } else {
-                resultAnalyzer = loadSingleCachedAnalyzerForLanguage(lang, cpgPath);
-                if (resultAnalyzer == null) {
-                    logger.debug("Creating {} analyzer for {}", lang.name(), project.getRoot());
-                    resultAnalyzer = lang.createAnalyzer(project);
-                }
-            }
+            resultAnalyzer = createDelegate(lang, isInitialLoad);
             totalCreationTimeMs = System.currentTimeMillis() - startTime;
             if (!resultAnalyzer.isEmpty()) {
                 allEmpty = false;
-                try { totalDeclarations = resultAnalyzer.getAllDeclarations().size(); }
-                catch (UnsupportedOperationException e) { /* some analyzers might not support it */ }
+                totalDeclarations = countDeclarations(resultAnalyzer);
             }
         } else { // Multi-language
-            java.util.Map<Language, IAnalyzer> delegateAnalyzers = new java.util.HashMap<>();
-            long longestLangCreationTimeMs = 0;
-
-            for (Language lang : projectLangs) {
-                if (lang == Language.NONE) continue;
-                Path cpgPath = lang.isCpg() ? lang.getCpgPath(project) : null;
-                IAnalyzer delegate = null;
+            // Partial analyzers are published only while there is no analyzer at all, i.e. during the first build.
+            // A rebuild keeps the previous, complete analyzer published until every language is ready, since a
+            // partial one would briefly lose the symbols of the languages still building.
+            boolean publishPartial = current.get() == null;
+            var longestLangCreationTimeMs = new AtomicLong();
+            var delegateAnalyzers = buildDelegates(projectLangs, lang -> {
                 long langStartTime = System.currentTimeMillis();
-
-                if (isInitialLoad && project.getAnalyzerRefresh() == CpgRefresh.UNSET) {
-                     delegate = lang.createAnalyzer(project);
-                } else {
-                    delegate = loadSingleCachedAnalyzerForLanguage(lang, cpgPath);
-                    if (delegate == null) {
-                        logger.debug("Creating {} analyzer for {}", lang.name(), project.getRoot());
-                        delegate = lang.createAnalyzer(project);
-                    }
-                }
+                var delegate = createDelegate(lang, isInitialLoad);
                 long langCreationTime = System.currentTimeMillis() - langStartTime;
-                longestLangCreationTimeMs = Math.max(longestLangCreationTimeMs, langCreationTime);
-                delegateAnalyzers.put(lang, delegate);
+                longestLangCreationTimeMs.accumulateAndGet(langCreationTime, Math::max);
+                logger.debug("{} analyzer ready after {} ms", lang.name(), langCreationTime);
+                return delegate;
+            }, languageBuildExecutor, partial -> {
+                if (publishPartial) {
+                    publish(new MultiAnalyzer(partial));
+                }
+            });
 
+            for (var delegate : delegateAnalyzers.values()) {
                 if (!delegate.isEmpty()) {
                     allEmpty = false;
-                    try { totalDeclarations += delegate.getAllDeclarations().size(); }
-                    catch (UnsupportedOperationException e) { /* ignore */ }
+                    int count = countDeclarations(delegate);
+                    totalDeclarations = count < 0 || totalDeclarations < 0 ? -1 : totalDeclarations + count;
                 }
             }
             resultAnalyzer = new MultiAnalyzer(delegateAnalyzers);
-            totalCreationTimeMs = longestLangCreationTimeMs; // Use longest for multi-analyzer setup time heuristic
+            totalCreationTimeMs = longestLangCreationTimeMs.get(); // Delegates build concurrently, so the longest one dominates
         }
-        currentAnalyzer = resultAnalyzer;
+        publish(resultAnalyzer);
         logger.debug("Analyzer (re)build completed for languages: {}", projectLangs.stream().map(Language::name).collect(Collectors.joining(", ")));
 
         if (isInitialLoad && project.getAnalyzerRefresh() == CpgRefresh.UNSET) {
@@ -288,8 +397,59 @@ public class AnalyzerWrapper implements AutoCloseable {
         return resultAnalyzer;
     }
 
+    /**
+     * Builds the delegate for each language (except NONE) concurrently on the executor. As each one finishes,
+     * onReady receives an immutable copy of the delegates finished so far; calls to onReady are serialized and see
+     * ever larger maps, so an analyzer published from one never replaces a more complete one. If a build fails, its
+     * exception is rethrown once every build has finished.
+     */
+    static Map<Language, IAnalyzer> buildDelegates(Set<Language> languages,
+                                                   Function<Language, IAnalyzer> factory,
+                                                   Executor executor,
+                                                   Consumer<Map<Language, IAnalyzer>> onReady)
+    {
+        var delegates = new HashMap<Language, IAnalyzer>();
+        var builds = languages.stream()
+                .filter(lang -> lang != Language.NONE)
+                .map(lang -> CompletableFuture.runAsync(() -> {
+                    var delegate = factory.apply(lang);
+                    synchronized (delegates) {
+                        delegates.put(lang, delegate);
+                        onReady.accept(Map.copyOf(delegates));
+                    }
+                }, executor))
+                .toArray(CompletableFuture[]::new);
+        try {
+            CompletableFuture.allOf(builds).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) {
+                throw re;
+            }
+            throw e;
+        }
+        synchronized (delegates) {
+            return Map.copyOf(delegates);
+        }
+    }
+
+    /** Number of declarations, or -1 if the analyzer is still indexing and counting would wait for it to finish. */
+    private static int countDeclarations(IAnalyzer analyzer) {
+        if (!analyzer.isFullyIndexed()) {
+            return -1;
+        }
+        try {
+            return analyzer.getAllDeclarations().size();
+        } catch (UnsupportedOperationException e) {
+            return 0; // some analyzers might not support it
+        }
+    }
+
+    /** @param totalDeclarations -1 if not known because indexing continues in the background */
     private void handleFirstBuildRefreshSettings(int totalDeclarations, long durationMs, boolean isEmpty, Set<Language> languages) {
         String langNames = languages.stream().map(Language::name).collect(Collectors.joining("/"));
+        String found = totalDeclarations < 0
+                       ? "started (indexing continues in the background)"
+                       : "found %d declarations".formatted(totalDeclarations);
         String langExtensions = languages.stream()
             .flatMap(l -> l.getExtensions().stream())
             .distinct()
@@ -301,29 +461,29 @@ public class AnalyzerWrapper implements AutoCloseable {
         } else if (durationMs > 3 * 6000) {
             project.setAnalyzerRefresh(CpgRefresh.MANUAL);
             var msg = """
-            Code Intelligence for %s found %d declarations in %,d ms.
+            Code Intelligence for %s %s in %,d ms.
             Since this was slow, code intelligence will only refresh when explicitly requested via the Context menu.
             You can change this in the Settings -> Project dialog.
-            """.stripIndent().formatted(langNames, totalDeclarations, durationMs);
+            """.stripIndent().formatted(langNames, found, durationMs);
             listener.afterFirstBuild(msg);
             logger.info(msg);
         } else if (durationMs > 5000) {
             project.setAnalyzerRefresh(CpgRefresh.ON_RESTART);
             var msg = """
-            Code Intelligence for %s found %d declarations in %,d ms.
+            Code Intelligence for %s %s in %,d ms.
             Since this was slow, code intelligence will only refresh on restart, or when explicitly requested via the Context menu.
             You can change this in the Settings -> Project dialog.
-            """.stripIndent().formatted(langNames, totalDeclarations, durationMs);
+            """.stripIndent().formatted(langNames, found, durationMs);
             listener.afterFirstBuild(msg);
             logger.info(msg);
         } else {
             project.setAnalyzerRefresh(CpgRefresh.AUTO);
             var msg = """
-            Code Intelligence for %s found %d declarations in %,d ms.
+            Code Intelligence for %s %s in %,d ms.
             If this is fewer than expected, it's probably because Brokk only looks for %s files.
             If this is not a useful subset of your project, you can change it in the Settings -> Project
             dialog, or disable Code Intelligence by setting the language(s) to NONE.
-            """.stripIndent().formatted(langNames, totalDeclarations, durationMs, langExtensions, Language.NONE.name());
+            """.stripIndent().formatted(langNames, found, durationMs, langExtensions, Language.NONE.name());
             listener.afterFirstBuild(msg);
             logger.info(msg);
         }
@@ -331,11 +491,66 @@ public class AnalyzerWrapper implements AutoCloseable {
 
 
     public boolean isCpg() {
-        if (currentAnalyzer == null) return false;
-        return currentAnalyzer.isCpg();
+        var snapshot = current.get();
+        return snapshot != null && snapshot.analyzer().isCpg();
+    }
+
+    public boolean hasReferenceGraph() {
+        var snapshot = current.get();
+        return snapshot != null && snapshot.analyzer().hasReferenceGraph();
+    }
+
+    /** Publishes the analyzer as the next generation; callers holding an earlier snapshot keep using it. */
+    private void publish(IAnalyzer analyzer) {
+        var snapshot = current.updateAndGet(previous -> new Snapshot(analyzer, previous == null ? 1 : previous.generation() + 1));
+        logger.trace("Published analyzer generation {}", snapshot.generation());
+    }
+
+    /** Loads the language's cached analyzer if it is still current, otherwise builds it from scratch. */
+    private IAnalyzer createDelegate(Language lang, boolean isInitialLoad) {
+        if (isInitialLoad && project.getAnalyzerRefresh() == CpgRefresh.UNSET) {
+            logger.debug("First startup for language {}: timing Analyzer creation", lang.name());
+            return buildAnalyzer(lang);
+        }
+        Path cpgPath = lang.isCpg() ? lang.getCpgPath(project) : null;
+        var analyzer = loadSingleCachedAnalyzerForLanguage(lang, cpgPath);
+        if (analyzer == null) {
+            logger.debug("Creating {} analyzer for {}", lang.name(), project.getRoot());
+            analyzer = buildAnalyzer(lang);
+        }
+        return analyzer;
+    }
+
+    /**
+     * Builds the language's analyzer from scratch. For CPG languages the sources are stamped before the build
+     * and the manifest is saved next to the CPG, so that later loads can tell exactly which files changed.
+     */
+    private IAnalyzer buildAnalyzer(Language lang) {
+        if (!lang.isCpg()) {
+            return lang.createAnalyzer(project);
+        }
+        var manifest = CpgManifest.capture(root, trackedFilesFor(lang));
+        var analyzer = lang.createAnalyzer(project);
+        manifest.save(lang.getCpgPath(project));
+        return analyzer;
+    }
+
+    private List<ProjectFile> trackedFilesFor(Language lang) {
+        return project.getAllFiles().stream()
+                .filter(pf -> isOfLanguage(pf, lang))
+                .toList();
+    }
+
+    private static boolean isOfLanguage(ProjectFile pf, Language lang) {
+        String ext = com.google.common.io.Files.getFileExtension(pf.absPath().toString());
+        return lang.getExtensions().contains(ext);
     }
 
-    /** Load a cached analyzer for a single language if it is up to date; otherwise, or on any loading error, return null. */
+    /**
+     * Load a cached analyzer for a single language if none of its files changed since it was written.
+     * Returns null if there is no usable cache, if any file is stale, or if loading fails, so the caller rebuilds.
+     * Staleness is checked before loading: a CPG cannot be updated in place, so loading a stale one is wasted work.
+     */
     private IAnalyzer loadSingleCachedAnalyzerForLanguage(Language lang, Path analyzerPath) {
         if (analyzerPath == null || !Files.exists(analyzerPath)) {
             return null;
@@ -352,50 +567,37 @@ public class AnalyzerWrapper implements AutoCloseable {
             }
         }
 
-        var trackedFiles = project.getAllFiles().stream() // Filter for files relevant to this language
-            .filter(pf -> {
-                String ext = com.google.common.io.Files.getFileExtension(pf.absPath().toString());
-                return lang.getExtensions().contains(ext);
-            })
-            .toList();
-
+        var trackedFiles = trackedFilesFor(lang);
         if (trackedFiles.isEmpty() && lang.isCpg()) { // No files for this CPG language, cache might be irrelevant or stale
              logger.debug("No tracked files for language {}, considering cache {} stale.", lang.name(), analyzerPath);
              return null;
         }
 
-        long cpgMTime;
-        try {
-            cpgMTime = Files.getLastModifiedTime(analyzerPath).toMillis();
-        } catch (IOException e) {
-            logger.warn("Error reading analyzer file timestamp for {}: {}", analyzerPath, e.getMessage());
-            return null; // Cannot determine if cache is fresh
+        // Compare content rather than mtimes, so that e.g. a git checkout that rewrites identical files does not
+        // invalidate the CPG. A cache written before manifests existed cannot be checked and is rebuilt once.
+        var manifestOpt = CpgManifest.load(root, analyzerPath);
+        if (manifestOpt.isEmpty()) {
+            logger.debug("No source manifest for {} analyzer {}; considering it stale", lang.name(), analyzerPath);
+            return null;
         }
-
-        for (ProjectFile rf : trackedFiles) {
-            try {
-                if (!Files.exists(rf.absPath())) continue; // File might have been deleted
-                long fileMTime = Files.getLastModifiedTime(rf.absPath()).toMillis();
-                if (fileMTime > cpgMTime) {
-                    logger.debug("Tracked file {} for language {} is newer than its CPG {} ({} > {})",
-                                 rf.absPath(), lang.name(), analyzerPath, fileMTime, cpgMTime);
-                    return null; // Cache is stale
-                }
-            } catch (IOException e) {
-                logger.debug("Error reading timestamp for tracked file {} (language {}): {}", rf.absPath(), lang.name(), e.getMessage());
-                // If we can't check a file, assume cache might be stale to be safe
-                return null;
-            }
+        var manifest = manifestOpt.get();
+        var staleFiles = manifest.staleFiles(trackedFiles);
+        if (!staleFiles.isEmpty()) {
+            logger.debug("{} {} files changed since {} was written, e.g. {}; rebuilding it",
+                         staleFiles.size(), lang.name(), analyzerPath,
+                         staleFiles.stream().limit(10).map(ProjectFile::toString).collect(Collectors.joining(", ")));
+            return null;
         }
-
-        // Saved analyzer is up to date for this language
+        IAnalyzer analyzer;
         try {
-            logger.debug("Using up-to-date cached analyzer for {} from {}", lang.name(), analyzerPath);
-            return lang.loadAnalyzer(project);
+            analyzer = lang.loadAnalyzer(project);
         } catch (Throwable th) {
             logger.warn("Error loading cached {} analyzer from {}; falling back to full rebuild for this language: {}", lang.name(), analyzerPath, th.getMessage());
             return null;
         }
+        logger.debug("Using up-to-date cached analyzer for {} from {}", lang.name(), analyzerPath);
+        manifest.save(analyzerPath); // keep re-stamped mtimes so the next check does not rehash
+        return analyzer;
     }
 
     /**
@@ -411,31 +613,76 @@ public class AnalyzerWrapper implements AutoCloseable {
         }
 
         rebuildInProgress = true;
+        pendingChanges.clear(); // the full rebuild will see them
         logger.trace("Rebuilding analyzer (full)");
         future = runner.submit("Rebuilding code intelligence", () -> {
             try {
-                // This will reconstruct the analyzer (potentially MultiAnalyzer) based on current settings.
+                // This will reconstruct and publish the analyzer (potentially MultiAnalyzer) based on current settings.
                 IAnalyzer newAnalyzer = loadOrCreateAnalyzerInternal(false);
-                currentAnalyzer = newAnalyzer;
                 logger.debug("Analyzer (full rebuild) completed.");
                 return newAnalyzer;
             } finally {
-                synchronized (AnalyzerWrapper.this) {
-                    rebuildInProgress = false;
-                    if (rebuildPending) {
-                        rebuildPending = false;
-                        logger.trace("Rebuilding immediately after pending request");
-                        rebuild();
-                    } else {
-                        externalRebuildRequested = false;
-                    }
+                afterRefresh();
+            }
+        });
+    }
+
+    /**
+     * Re-analyze just the given files. Falls back to a full rebuild if the current analyzer cannot
+     * update incrementally (e.g. CPG-backed languages). Changes that arrive while another refresh is
+     * running are queued and applied once it finishes.
+     */
+    private synchronized void update(Set<ProjectFile> changedFiles) {
+        if (rebuildInProgress) {
+            pendingChanges.addAll(changedFiles);
+            return;
+        }
+        var snapshot = current.get();
+        if (snapshot == null) {
+            rebuild();
+            return;
+        }
+
+        rebuildInProgress = true;
+        logger.trace("Updating analyzer for {} changed files", changedFiles.size());
+        future = runner.submit("Updating code intelligence", () -> {
+            try {
+                IAnalyzer newAnalyzer;
+                try {
+                    newAnalyzer = snapshot.analyzer().update(changedFiles);
+                    publish(newAnalyzer);
+                    logger.debug("Analyzer (incremental update of {} files) completed.", changedFiles.size());
+                } catch (UnsupportedOperationException e) {
+                    logger.debug("Analyzer does not support incremental updates; rebuilding");
+                    newAnalyzer = loadOrCreateAnalyzerInternal(false);
                 }
+                return newAnalyzer;
+            } finally {
+                afterRefresh();
             }
         });
     }
 
+    /** Clears the in-progress flag and starts whatever work queued up while a rebuild or update was running. */
+    private synchronized void afterRefresh() {
+        rebuildInProgress = false;
+        if (rebuildPending) {
+            rebuildPending = false;
+            logger.trace("Rebuilding immediately after pending request");
+            rebuild();
+        } else if (!pendingChanges.isEmpty()) {
+            var changes = Set.copyOf(pendingChanges);
+            pendingChanges.clear();
+            logger.trace("Updating immediately for {} pending changes", changes.size());
+            update(changes);
+        } else {
+            externalRebuildRequested = false;
+        }
+    }
+
     /**
-     * Get the analyzer, showing a spinner UI while waiting if requested.
+     * Get the analyzer, showing a spinner UI while waiting if requested. Only the very first build blocks: during
+     * later rebuilds and updates this returns the previous analyzer until the new one is published.
      */
     public IAnalyzer get() throws InterruptedException {
         if (SwingUtilities.isEventDispatchThread()) {
@@ -446,8 +693,9 @@ public class AnalyzerWrapper implements AutoCloseable {
         }
 
         // If we already have an analyzer, just return it.
-        if (currentAnalyzer != null) {
-            return currentAnalyzer;
+        var snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot.analyzer();
         }
 
         // Otherwise, this must be the very first build (or a failed one).
@@ -460,12 +708,25 @@ public class AnalyzerWrapper implements AutoCloseable {
         }
     }
 
+    /**
+     * The current analyzer with its generation; like {@link #get()}, blocks only until the first analyzer is ready.
+     */
+    public Snapshot getSnapshot() throws InterruptedException {
+        var snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot;
+        }
+        get(); // the first build publishes before it completes
+        return current.get();
+    }
+
     /**
      * @return null if analyzer is not ready yet
      */
     public IAnalyzer getNonBlocking() {
-        if (currentAnalyzer != null) {
-            return currentAnalyzer;
+        var snapshot = current.get();
+        if (snapshot != null) {
+            return snapshot.analyzer();
         }
 
         try {
@@ -499,102 +760,12 @@ public class AnalyzerWrapper implements AutoCloseable {
         Thread watcherThread = new Thread(() -> beginWatching(root), "DirectoryWatcher");
         watcherThread.start();
     }
-    
-    private void collectEventsFromKey(WatchKey key, WatchService watchService, Set<FileChangeEvent> batch)
-    {
-        for (WatchEvent<?> event : key.pollEvents()) {
-            @SuppressWarnings("unchecked")
-            WatchEvent<Path> pathEvent = (WatchEvent<Path>) event;
-            Path relativePath = pathEvent.context();
-            Path parentDir = (Path) key.watchable();
-            Path absolutePath;
-            try {
-                absolutePath = parentDir.resolve(relativePath);
-            } catch (NullPointerException e) {
-                logger.warn(e);
-                continue;
-            }
-
-            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
-                logger.debug("Overflow event: {}", absolutePath);
-                continue;
-            }
 
-            // Skip .brokk or log file paths
-            String pathStr = absolutePath.toString();
-            if (pathStr.contains("${sys:logfile.path}") ||
-                absolutePath.startsWith(root.resolve(".brokk"))) {
-                continue;
-            }
-
-            WatchEvent.Kind<Path> kind = pathEvent.kind();
-            EventType eventType = switch (kind.name()) {
-                case "ENTRY_CREATE" -> EventType.CREATE;
-                case "ENTRY_DELETE" -> EventType.DELETE;
-                case "ENTRY_MODIFY" -> EventType.MODIFY;
-                default -> EventType.OVERFLOW;
-            };
-
-            logger.trace("Directory event: {} on {}", eventType, absolutePath);
-            batch.add(new FileChangeEvent(eventType, absolutePath));
-
-            // If it's a directory creation, register it so we can watch its children
-            if (eventType == EventType.CREATE && Files.isDirectory(absolutePath)) {
-                try {
-                    registerAllDirectories(absolutePath, watchService);
-                } catch (IOException ex) {
-                    logger.warn("Failed to register new directory for watching: {}", absolutePath, ex);
-                }
-            }
-        }
-
-        // If the key is no longer valid, we can't watch this path anymore
-        if (!key.reset()) {
-            logger.debug("Watch key no longer valid: {}", key.watchable());
-        }
-    }
-    
-    private void registerAllDirectories(Path start, WatchService watchService) throws IOException
-    {
-        if (!Files.isDirectory(start)) return;
-
-        // Skip .brokk itself
-        if (start.getFileName() != null && start.getFileName().toString().equals(".brokk")) {
-            return;
+    /** Blocks the watcher thread while paused; events keep queueing and are handled after resume. */
+    private synchronized void awaitResumed() throws InterruptedException {
+        while (paused && running) {
+            wait();
         }
-
-        for (int attempt = 1; attempt <= 3; attempt++) {
-            try (var walker = Files.walk(start)) {
-                walker.filter(Files::isDirectory)
-                        .filter(dir -> !dir.toString().contains(".brokk"))
-                        .forEach(dir -> {
-                            try {
-                                dir.register(watchService,
-                                             StandardWatchEventKinds.ENTRY_CREATE,
-                                             StandardWatchEventKinds.ENTRY_DELETE,
-                                             StandardWatchEventKinds.ENTRY_MODIFY);
-                            } catch (IOException e) {
-                                logger.warn("Failed to register directory for watching: {}", dir, e);
-                            }
-                        });
-                // Success: If the walk completes without exception, break the retry loop.
-                return;
-            } catch (IOException | java.io.UncheckedIOException e) {
-                // Determine the root cause, handling the case where the UncheckedIOException wraps another exception.
-                Throwable cause = (e instanceof java.io.UncheckedIOException uioe) ? uioe.getCause() : e;
-
-                // Retry only if it's a NoSuchFileException and we have attempts left.
-                if (cause instanceof java.nio.file.NoSuchFileException && attempt < 3) {
-                    logger.warn("Attempt {} failed to walk directory {} due to NoSuchFileException. Retrying in 10ms...", attempt, start, cause);
-                    try {
-                        Thread.sleep(10);
-                    } catch (InterruptedException ie) {
-                        throw new RuntimeException(e);
-                    }
-                }
-            }
-        } // End of retry loop
-        logger.debug("Failed to (completely) register directory `{}` for watching", start);
     }
 
     /** Pause the file watching service. */
@@ -607,12 +778,14 @@ public class AnalyzerWrapper implements AutoCloseable {
     public synchronized void resume() {
         logger.debug("Resuming file watcher");
         paused = false;
+        notifyAll();
     }
 
     @Override
     public void close() {
         running = false;
         resume(); // Ensure any waiting thread is woken up to exit
+        languageBuildExecutor.shutdownNow();
     }
 
     public record CodeWithSource(String code, Set<CodeUnit> sources) {
@@ -623,6 +796,6 @@ public class AnalyzerWrapper implements AutoCloseable {
         CREATE, MODIFY, DELETE, OVERFLOW
     }
     
-    private record FileChangeEvent(EventType type, Path path) {
+    private record FileChangeEvent(EventType type, Path path, boolean directory) {
     }
 }
@@ -13,42 +13,32 @@ import java.util.List;
 import java.util.function.Function;
 
 public class Completions {
+    /** At most this many symbol completions are returned for a non-empty pattern. */
+    static final int MAX_SYMBOL_COMPLETIONS = 500;
+
+    private static volatile SymbolCompleter symbolCompleter; // for the most recently completed analyzer
+
+    /**
+     * Declarations matching the input, best first; for empty input, every declaration in fqName order.
+     */
     public static List<CodeUnit> completeSymbols(String input, IAnalyzer analyzer) {
         String pattern = input.trim();
-        var allDefs = analyzer.searchDefinitions(".*").stream().toList();
+        var completer = symbolCompleterFor(analyzer.searchDefinitions(".*"));
 
-        // empty pattern -> alphabetic list
+        // empty pattern -> alphabetic list, with method overloads collapsed
         if (pattern.isEmpty()) {
-            return allDefs.stream()
-                    .distinct() // collapse method overloads
-                    .sorted(Comparator.comparing(CodeUnit::fqName))
-                    .toList();
+            return completer.all();
         }
+        return completer.complete(pattern, MAX_SYMBOL_COMPLETIONS);
+    }
 
-        var matcher = new FuzzyMatcher(pattern);
-        boolean hierarchicalQuery = pattern.indexOf('.') >= 0 || pattern.indexOf('$') >= 0;
-
-        // has a family resemblance to scoreShortAndLong but different enough that it doesn't fit
-        record Scored(CodeUnit cu, int score) {
+    private static SymbolCompleter symbolCompleterFor(List<CodeUnit> declarations) {
+        var completer = symbolCompleter;
+        if (completer == null || !completer.isFor(declarations)) {
+            completer = new SymbolCompleter(declarations);
+            symbolCompleter = completer;
         }
-        return allDefs.stream()
-                .map(cu -> {
-                    int score;
-                    if (hierarchicalQuery) {
-                        // query includes hierarchy separators -> match against full FQN
-                        score = matcher.score(cu.fqName());
-                    } else {
-                        // otherwise match ONLY the trailing symbol (class, method, field)
-                        score = matcher.score(cu.identifier());
-                    }
-                    return new Scored(cu, score);
-                })
-                .filter(sc -> sc.score() != Integer.MAX_VALUE)
-                .sorted(Comparator.<Scored>comparingInt(Scored::score)
-                                .thenComparing(sc -> sc.cu().fqName()))
-                .distinct()
-                .map(Scored::cu)
-                .toList();
+        return completer;
     }
 
     /**
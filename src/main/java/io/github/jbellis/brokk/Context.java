@@ -1,5 +1,6 @@
 package io.github.jbellis.brokk;
 
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Streams;
 import dev.langchain4j.data.message.ChatMessage;
 import io.github.jbellis.brokk.ContextFragment.HistoryFragment;
@@ -42,6 +43,9 @@ public class Context implements Serializable {
     private static final String WELCOME_BACK = "Welcome back";
     public static final String SUMMARIZING = "(Summarizing)";
 
+    // Token counts of task entries by identity, shared by all contexts
+    private static final Map<TaskEntry, Integer> taskEntryTokens = new MapMaker().weakKeys().makeMap();
+
     transient final IContextManager contextManager;
     final List<ContextFragment.ProjectPathFragment> editableFiles;
     final List<ContextFragment.PathFragment> readonlyFiles;
@@ -65,6 +69,11 @@ public class Context implements Serializable {
      */
     transient final int id;
 
+    /** The last auto-context built from this context, reused until the analyzer publishes a new generation */
+    private transient volatile AutoContextCache autoContextCache;
+
+    private record AutoContextCache(long generation, int topK, SkeletonFragment fragment) {}
+
     /**
      * Constructor for initial empty context
      */
@@ -265,10 +274,21 @@ public class Context implements Serializable {
      * 2) Compute PageRank with those classes as seeds, requesting up to 2*MAX_AUTO_CONTEXT_FILES
      * 3) Build a multiline skeleton text for the top autoContextFileCount results
      * 4) Return the new AutoContext instance
+     * The result is cached for the analyzer generation it was computed from, since a Context's fragments never change.
      */
     public SkeletonFragment buildAutoContext(int topK) throws InterruptedException {
-        IAnalyzer analyzer;
-        analyzer = contextManager.getAnalyzer();
+        var snapshot = contextManager.getAnalyzerSnapshot();
+        var cached = autoContextCache;
+        if (cached != null && cached.generation() == snapshot.generation() && cached.topK() == topK) {
+            return cached.fragment();
+        }
+
+        var fragment = buildAutoContext(snapshot.analyzer(), topK);
+        autoContextCache = new AutoContextCache(snapshot.generation(), topK, fragment);
+        return fragment;
+    }
+
+    private SkeletonFragment buildAutoContext(IAnalyzer analyzer, int topK) {
 
         // Collect ineligible classnames from fragments not eligible for auto-context
         var ineligibleSources = Streams.concat(editableFiles.stream(), readonlyFiles.stream(), virtualFragments.stream())
@@ -594,6 +614,19 @@ public class Context implements Serializable {
                            CompletableFuture.completedFuture("Compressed History"));
     }
 
+    /**
+     * Approximate tokens of the task history as a HistoryFragment formats it. Entries never change, so each is
+     * counted once and the count is reused by every later context that keeps it.
+     */
+    public int getTaskHistoryTokens() {
+        return taskHistory.stream()
+                .mapToInt(entry -> taskEntryTokens.computeIfAbsent(entry, e -> {
+                    var messages = e.isCompressed() ? List.<ChatMessage>of(Messages.customSystem(e.summary())) : e.log().messages();
+                    return Messages.getApproximateTokens(TaskEntry.formatMessages(messages));
+                }))
+                .sum();
+    }
+
     public ContextFragment.TaskFragment getParsedOutput() {
         return parsedOutput;
     }
@@ -626,6 +659,46 @@ public class Context implements Serializable {
         }
     }
 
+    /**
+     * Rebuilds a context from the parts that {@link ContextStore} persisted. Like a deserialized context, it gets
+     * a fresh id.
+     */
+    static Context restored(IContextManager contextManager,
+                            List<ContextFragment.ProjectPathFragment> editableFiles,
+                            List<ContextFragment.PathFragment> readonlyFiles,
+                            List<ContextFragment.VirtualFragment> virtualFragments,
+                            List<TaskEntry> taskHistory,
+                            Map<ProjectFile, String> originalContents,
+                            ContextFragment.TaskFragment parsedOutput,
+                            String action)
+    {
+        return new Context(newId(),
+                           contextManager,
+                           editableFiles,
+                           readonlyFiles,
+                           virtualFragments,
+                           taskHistory,
+                           originalContents,
+                           parsedOutput,
+                           CompletableFuture.completedFuture(action));
+    }
+
+    /**
+     * This context with the welcome-back output in place of its own, as the top context is shown after a restart.
+     * Retains the ID.
+     */
+    Context withWelcomeBack(String welcomeMessage) {
+        return new Context(id,
+                           contextManager,
+                           editableFiles,
+                           readonlyFiles,
+                           virtualFragments,
+                           taskHistory,
+                           originalContents,
+                           getWelcomeOutput(welcomeMessage),
+                           CompletableFuture.completedFuture(WELCOME_BACK));
+    }
+
     @Serial
     private void writeObject(java.io.ObjectOutputStream oos) throws IOException {
         // Write non-transient fields
@@ -31,6 +31,30 @@ public class ContextHistory {
         selectedContext = initialContext; // The first context is selected by default
     }
 
+    /**
+     * The history and redo stacks at one moment, oldest first, as the {@link SessionJournal} persists them
+     */
+    public record Stacks(List<Context> history, List<Context> redo) {
+    }
+
+    /**
+     * Replace the history and redo stacks with persisted ones, selecting the top context
+     */
+    public synchronized void restore(Stacks stacks) {
+        assert !stacks.history().isEmpty();
+        history = new ArrayList<>(stacks.history());
+        redoHistory.clear();
+        redoHistory.addAll(stacks.redo());
+        selectedContext = history.getLast();
+    }
+
+    /**
+     * Get both stacks, consistently with each other
+     */
+    public synchronized Stacks getStacks() {
+        return new Stacks(List.copyOf(history), List.copyOf(redoHistory));
+    }
+
     /**
      * Get the complete history list (read-only)
      */
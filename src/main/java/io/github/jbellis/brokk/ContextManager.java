@@ -35,6 +35,7 @@ import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Manages the current and previous context, along with other state like prompts and message history.
@@ -112,6 +113,7 @@ public class ContextManager implements IContextManager, AutoCloseable {
     // Context history for undo/redo functionality
     private final ContextHistory contextHistory;
     private final List<ContextListener> contextListeners = new CopyOnWriteArrayList<>();
+    private final WorkspaceRenderer workspaceRenderer = new WorkspaceRenderer();
 
     public ExecutorService getBackgroundTasks() {
         return backgroundTasks;
@@ -217,15 +219,19 @@ public class ContextManager implements IContextManager, AutoCloseable {
         };
 
         this.analyzerWrapper = new AnalyzerWrapper(project, this::submitBackgroundTask, analyzerListener);
+        addContextListener(this::prioritizeWorkspaceAnalysis);
 
         // Load saved context or create a new one
         submitBackgroundTask("Loading saved context", () -> {
             var welcomeMessage = buildWelcomeMessage(); // welcome message might change if git status changed
-            var initialContext = project.loadContext(this, welcomeMessage);
-            if (initialContext == null) {
-                initialContext = new Context(this, welcomeMessage);
+            var savedHistory = project.loadHistory(this, welcomeMessage);
+            if (savedHistory == null) {
+                contextHistory.setInitialContext(new Context(this, welcomeMessage));
+            } else {
+                contextHistory.restore(savedHistory);
             }
-            contextHistory.setInitialContext(initialContext);
+            var initialContext = contextHistory.topContext();
+            prioritizeWorkspaceAnalysis(initialContext);
             // If git was just initialized, Chrome components like GitPanel will be updated
             // by their own construction logic based on the new project.hasGit() state.
             // Explicit io.updateGitRepo() might not be needed here if Chrome rebuilds relevant parts.
@@ -328,10 +334,16 @@ public class ContextManager implements IContextManager, AutoCloseable {
     @Override
     public void replaceContext(Context context, Context replacement) {
         contextHistory.replaceContext(context, replacement);
+        saveHistory();
         io.updateContextHistoryTable();
         io.updateContextTable();
     }
 
+    /** Persists the undo and redo history in the background. */
+    private void saveHistory() {
+        project.saveHistory(contextHistory.getStacks());
+    }
+
     public Project getProject() {
         return project;
     }
@@ -623,7 +635,7 @@ public class ContextManager implements IContextManager, AutoCloseable {
             if (result.wasUndone()) {
                 var currentContext = contextHistory.topContext();
                 notifyContextListeners(currentContext);
-                project.saveContext(currentContext);
+                saveHistory();
                 io.systemOutput("Undid " + result.steps() + " step" + (result.steps() > 1 ? "s" : "") + "!");
             } else {
                 io.toolErrorRaw("no undo state available");
@@ -641,7 +653,7 @@ public class ContextManager implements IContextManager, AutoCloseable {
             if (result.wasUndone()) {
                 var currentContext = contextHistory.topContext();
                 notifyContextListeners(currentContext);
-                project.saveContext(currentContext);
+                saveHistory();
                 io.systemOutput("Undid " + result.steps() + " step" + (result.steps() > 1 ? "s" : "") + "!");
             } else {
                 io.toolErrorRaw("Context not found or already at that point");
@@ -658,7 +670,7 @@ public class ContextManager implements IContextManager, AutoCloseable {
             if (wasRedone) {
                 var currentContext = contextHistory.topContext();
                 notifyContextListeners(currentContext);
-                project.saveContext(currentContext);
+                saveHistory();
                 io.systemOutput("Redo!");
             } else {
                 io.toolErrorRaw("no redo state available");
@@ -1098,6 +1110,7 @@ public class ContextManager implements IContextManager, AutoCloseable {
     /**
      * Constructs the ChatMessage(s) representing the current workspace context (read-only and editable files/fragments).
      * Handles both text and image fragments, creating a multimodal UserMessage if necessary.
+     * Fragments are rendered through a cache, so only new fragments and changed files are read.
      *
      * @return A collection containing one UserMessage (potentially multimodal) and one AiMessage acknowledgment, or empty if no content.
      */
@@ -1106,43 +1119,28 @@ public class ContextManager implements IContextManager, AutoCloseable {
         var allContents = new ArrayList<Content>(); // Will hold TextContent and ImageContent
 
         // --- Process Read-Only Fragments (Files, Virtual, AutoContext) ---
+        // In order of creation, so that adding a fragment appends to the prompt and the provider can reuse
+        // its cached prefix. Editable files keep the context's order, least recently modified first
+        var readOnly = workspaceRenderer.render(c.getReadOnlyFragments()
+                                                        .sorted(Comparator.comparingInt(ContextFragment::id))
+                                                        .toList());
+        var editable = workspaceRenderer.render(c.getEditableFragments().toList());
+
         var readOnlyTextFragments = new StringBuilder();
         var readOnlyImageFragments = new ArrayList<ImageContent>();
-        c.getReadOnlyFragments()
-                .forEach(fragment -> {
-                    try {
-                        if (fragment.isText()) {
-                            // Handle text-based fragments
-                            String formatted = fragment.format();
-                            if (formatted != null && !formatted.isBlank()) {
-                                readOnlyTextFragments.append(formatted).append("\n\n");
-                            }
-                        } else if (fragment instanceof ContextFragment.ImageFileFragment ||
-                                fragment instanceof ContextFragment.PasteImageFragment) {
-                            // Handle image fragments - explicitly check for known image fragment types
-                            try {
-                                // Convert AWT Image to LangChain4j ImageContent
-                                var l4jImage = ImageUtil.toL4JImage(fragment.image()); // Assumes ImageUtil helper
-                                readOnlyImageFragments.add(ImageContent.from(l4jImage));
-                                // Add a placeholder in the text part for reference
-                                readOnlyTextFragments.append(fragment.format()).append("\n\n");
-                            } catch (IOException e) {
-                                logger.error("Failed to process image fragment for LLM message", e);
-                                removeBadFragment(fragment, e); // Remove problematic fragment
-                            }
-                        } else {
-                            // Handle non-text, non-image fragments (e.g., HistoryFragment, TaskFragment)
-                            // Just add their formatted representation as text
-                            String formatted = fragment.format();
-                            if (formatted != null && !formatted.isBlank()) {
-                                readOnlyTextFragments.append(formatted).append("\n\n");
-                            }
-                        }
-                    } catch (IOException e) {
-                        // General formatting error for non-image fragments
-                        removeBadFragment(fragment, e);
-                    }
-                });
+        for (var result : readOnly) {
+            if (result.error() != null) {
+                removeBadFragment(result.fragment(), result.error());
+                continue;
+            }
+            var rendered = result.rendered();
+            if (rendered.text() != null && !rendered.text().isBlank()) {
+                readOnlyTextFragments.append(rendered.text()).append("\n\n");
+            }
+            if (rendered.image() != null) {
+                readOnlyImageFragments.add(rendered.image());
+            }
+        }
 
         // Add the combined text content for read-only items if any exists
         String readOnlyText = readOnlyTextFragments.isEmpty() ? "" : """
@@ -1156,16 +1154,16 @@ public class ContextManager implements IContextManager, AutoCloseable {
 
         // --- Process Editable Fragments (Assumed Text-Only for now) ---
         var editableTextFragments = new StringBuilder();
-        c.getEditableFragments().forEach(fragment -> {
-            try {
-                String formatted = fragment.format();
-                if (formatted != null && !formatted.isBlank()) {
-                    editableTextFragments.append(formatted).append("\n\n");
-                }
-            } catch (IOException e) {
-                removeBadFragment(fragment, e);
+        for (var result : editable) {
+            if (result.error() != null) {
+                removeBadFragment(result.fragment(), result.error());
+                continue;
             }
-        });
+            var text = result.rendered().text();
+            if (text != null && !text.isBlank()) {
+                editableTextFragments.append(text).append("\n\n");
+            }
+        }
         String editableText = editableTextFragments.isEmpty() ? "" : """
                                                                      <editable>
                                                                      Here are EDITABLE files and code fragments.
@@ -1180,7 +1178,7 @@ public class ContextManager implements IContextManager, AutoCloseable {
 
         // optional: related classes
         String topClassesText = "";
-        if (includeRelatedClasses && getAnalyzerWrapper().isCpg()) {
+        if (includeRelatedClasses && getAnalyzerWrapper().hasReferenceGraph()) {
             var ac = topContext().buildAutoContext(10);
             String topClassesRaw = ac.text();
             if (!topClassesRaw.isBlank()) {
@@ -1306,14 +1304,14 @@ public class ContextManager implements IContextManager, AutoCloseable {
         }
 
         notifyContextListeners(newContext);
-        project.saveContext(newContext);
+        saveHistory();
         if (newContext.getTaskHistory().isEmpty()) {
             return newContext;
         }
 
-        var cf = new ContextFragment.HistoryFragment(newContext.getTaskHistory());
-        int tokenCount = Messages.getApproximateTokens(cf.format());
+        int tokenCount = newContext.getTaskHistoryTokens();
         if (tokenCount > 32 * 1024) {
+            var cf = new ContextFragment.HistoryFragment(newContext.getTaskHistory());
             // Show a dialog asking if we should compress the history
             SwingUtilities.invokeLater(() -> {
                 int choice = io.showConfirmDialog("""
@@ -1344,6 +1342,25 @@ public class ContextManager implements IContextManager, AutoCloseable {
         contextHistory.setSelectedContext(context);
     }
 
+    /** Lets a lazily-indexing analyzer parse the workspace files ahead of the rest of the project. */
+    private void prioritizeWorkspaceAnalysis(Context context) {
+        IAnalyzer analyzer;
+        try {
+            analyzer = analyzerWrapper.getNonBlocking();
+        } catch (RuntimeException e) {
+            return; // the failed build is reported by whoever waits for the analyzer
+        }
+        if (analyzer == null || analyzer.isFullyIndexed()) {
+            return;
+        }
+        var files = Stream.concat(context.editableFiles(), context.readonlyFiles())
+                .map(ContextFragment.PathFragment::file)
+                .filter(ProjectFile.class::isInstance)
+                .map(ProjectFile.class::cast)
+                .toList();
+        analyzer.prioritize(files);
+    }
+
     private void notifyContextListeners(Context context) {
         for (var listener : contextListeners) {
             listener.contextChanged(context);
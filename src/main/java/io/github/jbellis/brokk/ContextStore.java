@@ -0,0 +1,175 @@
+package io.github.jbellis.brokk;
+
+import com.google.common.collect.MapMaker;
+import io.github.jbellis.brokk.analyzer.ProjectFile;
+
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Stores contexts in a {@link FragmentStore}, the layer under the {@link SessionJournal}.
+ * <p>
+ * Fragments, task entries and original file contents are stored under their content hash, so each is written once
+ * no matter how many contexts refer to it. Each context is stored the same way, as a {@link ContextRecord} of
+ * hashes, and its hash is what the journal records.
+ */
+final class ContextStore {
+    private final FragmentStore store;
+
+    // the record and hash stored for each context, by identity
+    private final ConcurrentMap<Context, StoredContext> stored = new MapMaker().weakKeys().makeMap();
+    // contexts whose action was still being summarized when stored, by identity
+    private final ConcurrentMap<Context, Boolean> summarizing = new MapMaker().weakKeys().makeMap();
+
+    ContextStore(Path dir) {
+        this.store = new FragmentStore(dir);
+    }
+
+    /** A context as hashes of its parts. Null parsedOutput means the context had none. */
+    private record ContextRecord(List<String> editable,
+                                 List<String> readonly,
+                                 List<String> virtual,
+                                 List<String> tasks,
+                                 Map<ProjectFile, String> originalContents,
+                                 String parsedOutput,
+                                 String action) implements Serializable
+    {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        Set<String> references() {
+            var references = new HashSet<String>();
+            references.addAll(editable);
+            references.addAll(readonly);
+            references.addAll(virtual);
+            references.addAll(tasks);
+            references.addAll(originalContents.values());
+            if (parsedOutput != null) {
+                references.add(parsedOutput);
+            }
+            return references;
+        }
+    }
+
+    /** A stored context: its hash and the hashes of the objects its record refers to. */
+    record StoredContext(String hash, Set<String> references) {
+    }
+
+    /**
+     * Stores the context and everything it refers to that is not stored yet. A context whose action is still being
+     * summarized is stored with its action as it is now and not remembered; whenSummarized runs once the summary
+     * arrives, so the caller can store it again.
+     */
+    StoredContext put(Context context, Runnable whenSummarized) throws IOException {
+        var known = stored.get(context);
+        if (known != null) {
+            return known;
+        }
+
+        boolean actionDone = context.action.isDone(); // before reading it, so a summary arriving meanwhile is saved again
+        var originalContents = new HashMap<ProjectFile, String>();
+        for (var entry : context.originalContents.entrySet()) {
+            originalContents.put(entry.getKey(), store.put(entry.getValue()));
+        }
+        var record = new ContextRecord(putAll(context.editableFiles),
+                                       putAll(context.readonlyFiles),
+                                       putAll(context.virtualFragments),
+                                       putAll(context.getTaskHistory()),
+                                       originalContents,
+                                       context.parsedOutput == null ? null : store.put(context.parsedOutput),
+                                       context.getAction());
+        var storedContext = new StoredContext(store.put(record), record.references());
+        if (actionDone) {
+            stored.put(context, storedContext);
+        } else if (summarizing.putIfAbsent(context, true) == null) {
+            // for an action that cannot notify us, the next save stores it again
+            if (context.action instanceof CompletableFuture<String> action) {
+                action.whenComplete((result, error) -> {
+                    summarizing.remove(context);
+                    whenSummarized.run();
+                });
+            }
+        }
+        return storedContext;
+    }
+
+    private List<String> putAll(List<? extends Serializable> values) throws IOException {
+        var hashes = new ArrayList<String>(values.size());
+        for (var value : values) {
+            hashes.add(store.put(value));
+        }
+        return hashes;
+    }
+
+    /** Makes everything stored so far durable; see {@link FragmentStore#sync}. */
+    void sync() throws IOException {
+        store.sync();
+    }
+
+    /** Deletes every object that the given contexts do not reach. */
+    void retainOnly(Collection<StoredContext> contexts) throws IOException {
+        var live = new HashSet<String>();
+        for (var context : contexts) {
+            live.add(context.hash());
+            live.addAll(context.references());
+        }
+        store.retainOnly(live);
+        stored.values().removeIf(context -> !live.contains(context.hash()));
+    }
+
+    /**
+     * Returns a reader that loads each object once, so contexts that shared a fragment when stored share one
+     * instance again.
+     */
+    Reader reader(IContextManager contextManager) {
+        return new Reader(store.reader(), contextManager);
+    }
+
+    final class Reader {
+        private final FragmentStore.Reader objects;
+        private final IContextManager contextManager;
+
+        private Reader(FragmentStore.Reader objects, IContextManager contextManager) {
+            this.objects = objects;
+            this.contextManager = contextManager;
+        }
+
+        @SuppressWarnings("unchecked")
+        Context get(String hash) throws IOException {
+            var record = objects.get(hash, ContextRecord.class);
+            var originalContents = new HashMap<ProjectFile, String>();
+            for (var entry : record.originalContents().entrySet()) {
+                originalContents.put(entry.getKey(), objects.get(entry.getValue(), String.class));
+            }
+            var context = Context.restored(contextManager,
+                                           (List<ContextFragment.ProjectPathFragment>) getAll(record.editable()),
+                                           (List<ContextFragment.PathFragment>) getAll(record.readonly()),
+                                           (List<ContextFragment.VirtualFragment>) getAll(record.virtual()),
+                                           (List<TaskEntry>) getAll(record.tasks()),
+                                           originalContents,
+                                           record.parsedOutput() == null ? null : objects.get(record.parsedOutput(), ContextFragment.TaskFragment.class),
+                                           record.action());
+            stored.put(context, new StoredContext(hash, record.references()));
+            return context;
+        }
+
+        private List<?> getAll(List<String> hashes) throws IOException {
+            var values = new ArrayList<>(hashes.size());
+            for (var hash : hashes) {
+                values.add(objects.get(hash, Object.class));
+            }
+            return values;
+        }
+    }
+}
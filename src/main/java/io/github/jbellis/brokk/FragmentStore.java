@@ -0,0 +1,153 @@
+package io.github.jbellis.brokk;
+
+import com.google.common.collect.MapMaker;
+import io.github.jbellis.brokk.util.AtomicWrites;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Content-addressed store of Java-serialized objects: each object is written once, to a file named by the SHA-256
+ * of its serialized form, so that objects shared by many persisted contexts are stored once and referenced by hash.
+ * <p>
+ * The hash of each object stored or loaded is remembered by identity, so objects that did not change since the
+ * last save are not serialized again.
+ * <p>
+ * Each object is forced to disk before it is moved into place; the directories that gained entries are synced by
+ * {@link #sync}, which callers run before recording a reference to the objects anywhere else.
+ */
+final class FragmentStore {
+    private static final Logger logger = LogManager.getLogger(FragmentStore.class);
+
+    private final Path dir;
+    private final ConcurrentMap<Object, String> hashes = new MapMaker().weakKeys().makeMap(); // identity keys
+    private final Set<Path> unsyncedDirs = ConcurrentHashMap.newKeySet();
+
+    FragmentStore(Path dir) {
+        this.dir = dir;
+    }
+
+    /** Stores the object unless the same content is already stored, returning its hash. */
+    String put(Serializable value) throws IOException {
+        var known = hashes.get(value);
+        if (known != null) {
+            return known;
+        }
+
+        var bytes = serialize(value);
+        var hash = sha256(bytes);
+        var file = fileOf(hash);
+        if (!Files.exists(file)) {
+            if (!Files.isDirectory(file.getParent())) {
+                if (!Files.isDirectory(dir)) {
+                    Files.createDirectories(dir);
+                    unsyncedDirs.add(dir.getParent());
+                }
+                Files.createDirectories(file.getParent());
+                unsyncedDirs.add(dir);
+            }
+            AtomicWrites.atomicOverwriteForced(file, bytes);
+            unsyncedDirs.add(file.getParent());
+        }
+        hashes.put(value, hash);
+        return hash;
+    }
+
+    /** Makes the objects stored so far durable: syncs every directory that gained an entry since the last sync. */
+    void sync() throws IOException {
+        for (var unsynced : List.copyOf(unsyncedDirs)) {
+            unsyncedDirs.remove(unsynced); // before syncing, so an entry added meanwhile is synced next time
+            try {
+                AtomicWrites.syncDirectory(unsynced);
+            } catch (IOException e) {
+                unsyncedDirs.add(unsynced);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns a reader that loads each hash once, so objects referenced from many places are shared in memory
+     * the way they were when stored.
+     */
+    Reader reader() {
+        return new Reader();
+    }
+
+    final class Reader {
+        private final Map<String, Object> loaded = new HashMap<>();
+
+        <T> T get(String hash, Class<T> type) throws IOException {
+            var value = loaded.get(hash);
+            if (value == null) {
+                try (var ois = new ObjectInputStream(new ByteArrayInputStream(Files.readAllBytes(fileOf(hash))))) {
+                    value = ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Cannot load stored object " + hash, e);
+                }
+                loaded.put(hash, value);
+                hashes.put(value, hash);
+            }
+            return type.cast(value);
+        }
+    }
+
+    /** Deletes every stored object whose hash is not in live. */
+    void retainOnly(Set<String> live) throws IOException {
+        hashes.values().removeIf(hash -> !live.contains(hash));
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        int deleted = 0;
+        try (var files = Files.walk(dir)) {
+            for (var file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                var parent = file.getParent().getFileName().toString();
+                if (!live.contains(parent + file.getFileName())) {
+                    Files.deleteIfExists(file);
+                    deleted++;
+                }
+            }
+        }
+        if (deleted > 0) {
+            logger.debug("Deleted {} unreferenced objects from {}", deleted, dir);
+        }
+    }
+
+    /** Objects are spread over subdirectories named by the first two hex digits of their hash. */
+    private Path fileOf(String hash) {
+        return dir.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private static byte[] serialize(Serializable value) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var oos = new ObjectOutputStream(out)) {
+            oos.writeObject(value);
+        }
+        return out.toByteArray();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e); // every JVM provides SHA-256
+        }
+    }
+}
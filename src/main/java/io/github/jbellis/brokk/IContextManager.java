@@ -114,6 +114,13 @@ public interface IContextManager {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * The current analyzer and its generation; results derived from the analyzer can be cached under the generation.
+     */
+    default AnalyzerWrapper.Snapshot getAnalyzerSnapshot() throws InterruptedException {
+        return getAnalyzerWrapper().getSnapshot();
+    }
+
     default void requestRebuild() {}
 
     default IGitRepo getRepo() {
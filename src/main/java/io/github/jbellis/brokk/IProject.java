@@ -9,6 +9,7 @@ import io.github.jbellis.brokk.git.IGitRepo;
 
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 
 public interface IProject {
@@ -29,6 +30,13 @@ public interface IProject {
         return null;
     }
 
+    /**
+     * Directory where analyzers may persist per-file results between sessions, or empty to disable caching.
+     */
+    default Optional<Path> getAnalyzerCacheDir() {
+        return Optional.empty();
+    }
+
     /**
      * All files in the project, including decompiled dependencies that are not in the git repo.
      */
@@ -230,11 +230,26 @@ public class Llm {
         var tu = (OpenAiTokenUsage) response.tokenUsage();
         var template = "token usage: %,d input (%s cached), %,d output (%s reasoning)";
         return template.formatted(tu.inputTokenCount(),
-                                  (tu.inputTokensDetails() == null) ? "?" : "%,d".formatted(tu.inputTokensDetails().cachedTokens()),
+                                  formatCachedTokens(tu),
                                   tu.outputTokenCount(),
                                   (tu.outputTokensDetails() == null) ? "?" : "%,d".formatted(tu.outputTokensDetails().reasoningTokens()));
     }
 
+    /**
+     * Formats the cached input tokens with the share of the input they are, i.e. how much of the prompt's
+     * prefix the provider could reuse from earlier requests.
+     */
+    private static String formatCachedTokens(OpenAiTokenUsage tu) {
+        if (tu.inputTokensDetails() == null || tu.inputTokensDetails().cachedTokens() == null) {
+            return "?";
+        }
+        int cached = tu.inputTokensDetails().cachedTokens();
+        if (tu.inputTokenCount() == null || tu.inputTokenCount() == 0) {
+            return "%,d".formatted(cached);
+        }
+        return "%,d = %.0f%%".formatted(cached, 100.0 * cached / tu.inputTokenCount());
+    }
+
     /**
      * Sends a user query to the LLM with streaming. Tools are not used.
      * Writes to conversation history. Optionally echoes partial tokens to the console.
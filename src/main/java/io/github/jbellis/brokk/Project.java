@@ -29,6 +29,7 @@ public class Project implements IProject, AutoCloseable {
     private final Path root;
     private final Properties projectProps;
     private final Properties workspaceProps;
+    private final SessionJournal sessionJournal;
     private final Path styleGuidePath;
     private final IGitRepo repo;
     private final Set<ProjectFile> dependencyFiles;
@@ -108,6 +109,8 @@ public class Project implements IProject, AutoCloseable {
         this.styleGuidePath = root.resolve(".brokk").resolve("style.md");
         this.projectProps = new Properties();
         this.workspaceProps = new Properties();
+        var historyDir = root.resolve(".brokk").resolve("history");
+        this.sessionJournal = new SessionJournal(historyDir.resolve("session.journal"), new ContextStore(historyDir.resolve("objects")));
         this.dependencyFiles = loadDependencyFiles();
 
         // Load project properties and attempt to initialize build details future
@@ -689,6 +692,11 @@ public class Project implements IProject, AutoCloseable {
         return root;
     }
 
+    @Override
+    public Optional<Path> getAnalyzerCacheDir() {
+        return Optional.of(root.resolve(".brokk"));
+    }
+
     public boolean hasGit() {
         return repo instanceof GitRepo;
     }
@@ -757,23 +765,30 @@ public class Project implements IProject, AutoCloseable {
     }
 
     /**
-     * Saves a serialized Context object to the workspace properties
+     * Appends the context history, undo and redo states included, to the session journal. The write happens in the
+     * background and only stores what is new, so this is cheap to call after every change.
      */
-    public void saveContext(Context context) {
-        try {
-            // Save the context
-            byte[] serialized = Context.serialize(context);
-            String encoded = java.util.Base64.getEncoder().encodeToString(serialized);
-            workspaceProps.setProperty("context", encoded);
-
-            // Save the current fragment ID counter
-            int currentMaxId = ContextFragment.getCurrentMaxId();
-            workspaceProps.setProperty("contextFragmentNextId", String.valueOf(currentMaxId));
+    public void saveHistory(ContextHistory.Stacks stacks) {
+        sessionJournal.append(stacks);
+        if (workspaceProps.containsKey("context")) {
+            clearSavedContext(); // superseded by the journal
+        }
+    }
 
-            saveWorkspaceProperties();
-        } catch (Exception e) {
-            logger.error("Error saving context: {}", e.getMessage());
+    /**
+     * Loads the context history from the session journal, or the single Context that older versions saved in the
+     * workspace properties
+     *
+     * @return The loaded history, or null if none exists
+     */
+    public ContextHistory.Stacks loadHistory(IContextManager contextManager, String welcomeMessage) {
+        var stacks = sessionJournal.load(contextManager, welcomeMessage);
+        if (stacks != null) {
+            return stacks;
         }
+
+        var context = loadContext(contextManager, welcomeMessage);
+        return context == null ? null : new ContextHistory.Stacks(List.of(context), List.of());
     }
 
     /**
@@ -781,7 +796,7 @@ public class Project implements IProject, AutoCloseable {
      *
      * @return The loaded Context, or null if none exists
      */
-    public Context loadContext(IContextManager contextManager, String welcomeMessage) {
+    private Context loadContext(IContextManager contextManager, String welcomeMessage) {
         try {
             // Restore the fragment ID counter first
             String nextIdStr = workspaceProps.getProperty("contextFragmentNextId");
@@ -1615,5 +1630,6 @@ public class Project implements IProject, AutoCloseable {
     @Override
     public void close() {
         // analyzerWrapper is now closed by ContextManager
+        sessionJournal.close();
     }
 }
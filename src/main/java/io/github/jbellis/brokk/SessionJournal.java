@@ -0,0 +1,320 @@
+package io.github.jbellis.brokk;
+
+import io.github.jbellis.brokk.util.AtomicWrites;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the session's {@link ContextHistory}, undo and redo stacks included, so that saving after
+ * each workspace action writes only what changed.
+ * <p>
+ * The journal holds only context hashes; the contexts themselves, and the fragments they share, are stored once
+ * each in the {@link ContextStore} under it. The file starts with a checkpoint listing both stacks. Each later
+ * record is the delta to the next save: the prefix of each stack it kept, and the hashes pushed after it, so saving
+ * after a push writes the new fragments, one context record and a delta of a few dozen bytes. Records are written
+ * on a background thread; stacks saved while a write is in progress are written together and synced once. Every
+ * {@link #CHECKPOINT_INTERVAL} deltas, and at the first write of each session, the file is atomically replaced by
+ * a new checkpoint and the objects the checkpoint no longer reaches are deleted.
+ * <p>
+ * The objects a record refers to are synced before the record is written, so a record that survives a crash never
+ * refers to a lost object. If the journal existed but could not be loaded in full, nothing is deleted for the rest
+ * of the session, so the objects of the history that was not loaded stay on disk.
+ * <p>
+ * Each record is framed as its length, a CRC32 of the payload, and the Java-serialized {@link Entry}, so that a
+ * record torn by a crash is detected and replay stops at the last complete one.
+ */
+final class SessionJournal implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(SessionJournal.class);
+
+    static final int CHECKPOINT_INTERVAL = 64;
+
+    private final Path file;
+    private final ContextStore store;
+    private final LinkedBlockingQueue<ContextHistory.Stacks> pending = new LinkedBlockingQueue<>();
+    private volatile ContextHistory.Stacks latest; // the newest stacks appended, queued again when an action completes
+    private volatile boolean collectGarbage = true; // false once a load fell short of what the journal lists
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        var t = new Thread(r, "SessionJournal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // confined to the writer thread
+    private Stacks lastWritten;
+    private int deltasSinceCheckpoint;
+
+    SessionJournal(Path file, ContextStore store) {
+        this.file = file;
+        this.store = store;
+    }
+
+    /** The context hashes of the history and redo stacks, oldest first. */
+    private record Stacks(List<String> history, List<String> redo) {
+    }
+
+    /**
+     * One journal record: each stack as the length of the previous record's stack it keeps, plus the hashes pushed
+     * after that prefix. A checkpoint keeps nothing.
+     */
+    private record Entry(boolean checkpoint,
+                         int keptHistory,
+                         ArrayList<String> newHistory,
+                         int keptRedo,
+                         ArrayList<String> newRedo,
+                         int nextFragmentId) implements Serializable
+    {
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        /** The delta from previous to next, or a checkpoint of next if previous is null. */
+        static Entry between(Stacks previous, Stacks next) {
+            int keptHistory = previous == null ? 0 : commonPrefix(previous.history(), next.history());
+            int keptRedo = previous == null ? 0 : commonPrefix(previous.redo(), next.redo());
+            return new Entry(previous == null,
+                             keptHistory, new ArrayList<>(next.history().subList(keptHistory, next.history().size())),
+                             keptRedo, new ArrayList<>(next.redo().subList(keptRedo, next.redo().size())),
+                             ContextFragment.getCurrentMaxId());
+        }
+
+        Stacks applyTo(Stacks previous) {
+            var history = new ArrayList<>(previous.history().subList(0, checkpoint ? 0 : keptHistory));
+            history.addAll(newHistory);
+            var redo = new ArrayList<>(previous.redo().subList(0, checkpoint ? 0 : keptRedo));
+            redo.addAll(newRedo);
+            return new Stacks(history, redo);
+        }
+
+        private static int commonPrefix(List<String> a, List<String> b) {
+            int n = 0;
+            while (n < a.size() && n < b.size() && a.get(n).equals(b.get(n))) {
+                n++;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Queues the stacks to be journaled. Returns immediately; the write happens on the journal's thread.
+     */
+    void append(ContextHistory.Stacks stacks) {
+        latest = stacks;
+        pending.add(stacks);
+        try {
+            writer.execute(this::writePending);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Session journal is closed; not journaling history");
+        }
+    }
+
+    /** Journals the newest stacks again, storing a context whose summary has just arrived. */
+    private void appendLatest() {
+        var stacks = latest;
+        if (stacks != null) {
+            append(stacks);
+        }
+    }
+
+    private void writePending() {
+        var batch = new ArrayList<ContextHistory.Stacks>();
+        pending.drainTo(batch);
+        if (batch.isEmpty()) {
+            return; // written by an earlier task's group
+        }
+
+        try {
+            var out = new ByteArrayOutputStream();
+            boolean checkpoint = false;
+            List<ContextStore.StoredContext> contexts = List.of();
+            for (var stacks : batch) {
+                var history = new ArrayList<ContextStore.StoredContext>();
+                for (var context : stacks.history()) {
+                    history.add(store.put(context, this::appendLatest));
+                }
+                var redo = new ArrayList<ContextStore.StoredContext>();
+                for (var context : stacks.redo()) {
+                    redo.add(store.put(context, this::appendLatest));
+                }
+                contexts = new ArrayList<>(history);
+                contexts.addAll(redo);
+
+                var hashes = new Stacks(history.stream().map(ContextStore.StoredContext::hash).toList(),
+                                        redo.stream().map(ContextStore.StoredContext::hash).toList());
+                if (lastWritten == null || deltasSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                    out.reset(); // the checkpoint replaces the file, including anything earlier in this batch
+                    writeRecord(out, Entry.between(null, hashes));
+                    checkpoint = true;
+                    deltasSinceCheckpoint = 0;
+                } else if (!hashes.equals(lastWritten)) {
+                    writeRecord(out, Entry.between(lastWritten, hashes));
+                    deltasSinceCheckpoint++;
+                }
+                lastWritten = hashes;
+            }
+
+            if (out.size() > 0) {
+                store.sync();
+            }
+            if (checkpoint) {
+                Files.createDirectories(file.getParent());
+                AtomicWrites.atomicOverwriteForced(file, out.toByteArray());
+                AtomicWrites.syncDirectory(file.getParent());
+                // deltas appended later only add objects, so a replay that stops at a torn record finds everything
+                if (collectGarbage) {
+                    store.retainOnly(contexts);
+                }
+            } else if (out.size() > 0) {
+                try (var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                    var buffer = ByteBuffer.wrap(out.toByteArray());
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error writing session journal {}: {}", file, e.getMessage());
+            lastWritten = null; // start over from a checkpoint next time
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, Entry entry) throws IOException {
+        var payload = new ByteArrayOutputStream();
+        try (var oos = new ObjectOutputStream(payload)) {
+            oos.writeObject(entry);
+        }
+        var bytes = payload.toByteArray();
+        var crc = new CRC32();
+        crc.update(bytes);
+
+        var data = new DataOutputStream(out);
+        data.writeInt(bytes.length);
+        data.writeInt((int) crc.getValue());
+        data.write(bytes);
+        data.flush();
+    }
+
+    /**
+     * Replays the journal from its checkpoint and loads the contexts it lists. The top context shows the welcome
+     * message in place of its own output. If a context cannot be read, each stack keeps only the newer contexts
+     * above it, down to the newest one that loads; the current context is lost only if it cannot be read itself.
+     *
+     * @return the stacks, or null if there is no journal or not even its top context can be read
+     */
+    ContextHistory.Stacks load(IContextManager contextManager, String welcomeMessage) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        Stacks hashes;
+        int nextFragmentId = 0;
+        int records = 0;
+        try {
+            var buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+            hashes = new Stacks(List.of(), List.of());
+            while (buffer.remaining() >= 2 * Integer.BYTES) {
+                int length = buffer.getInt();
+                int expectedCrc = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    logger.warn("Session journal {} ends with a partial record; replayed {} records", file, records);
+                    break;
+                }
+                var bytes = new byte[length];
+                buffer.get(bytes);
+                var crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != expectedCrc) {
+                    logger.warn("Session journal {} has a corrupt record; replayed {} records", file, records);
+                    break;
+                }
+
+                Entry entry;
+                try (var ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    entry = (Entry) ois.readObject();
+                }
+                if (records == 0 && !entry.checkpoint()) {
+                    logger.warn("Session journal {} does not start with a checkpoint", file);
+                    collectGarbage = false;
+                    return null;
+                }
+                hashes = entry.applyTo(hashes);
+                nextFragmentId = entry.nextFragmentId();
+                records++;
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            logger.error("Error loading session journal {}: {}", file, e.getMessage());
+            collectGarbage = false;
+            return null;
+        }
+
+        var reader = store.reader(contextManager);
+        var history = loadNewest(reader, hashes.history());
+        var redo = loadNewest(reader, hashes.redo());
+        if (history.size() < hashes.history().size() || redo.size() < hashes.redo().size()) {
+            logger.warn("Loaded {} of {} contexts and {} of {} redo states from session journal {}; keeping the rest of its objects this session",
+                        history.size(), hashes.history().size(), redo.size(), hashes.redo().size(), file);
+            collectGarbage = false;
+        }
+        if (history.isEmpty()) {
+            return null;
+        }
+        history.set(history.size() - 1, history.getLast().withWelcomeBack(welcomeMessage));
+
+        ContextFragment.setNextId(nextFragmentId);
+        logger.debug("Replayed {} session journal records: {} contexts and {} redo states", records, history.size(), redo.size());
+        return new ContextHistory.Stacks(history, redo);
+    }
+
+    /**
+     * Loads the contexts of one stack, oldest first, but only those above the newest one that cannot be read, so
+     * the stack stays contiguous from its top.
+     */
+    private List<Context> loadNewest(ContextStore.Reader reader, List<String> hashes) {
+        var contexts = new ArrayList<Context>();
+        for (int i = hashes.size() - 1; i >= 0; i--) {
+            try {
+                contexts.add(reader.get(hashes.get(i)));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Cannot load context {} from session journal {}: {}", hashes.get(i), file, e.getMessage());
+                break;
+            }
+        }
+        Collections.reverse(contexts);
+        return contexts;
+    }
+
+    /** Waits briefly for queued stacks to be written. */
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("Timed out writing session journal {}", file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
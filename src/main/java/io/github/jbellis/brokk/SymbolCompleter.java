@@ -0,0 +1,139 @@
+package io.github.jbellis.brokk;
+
+import io.github.jbellis.brokk.analyzer.CodeUnit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Fuzzy completion over a fixed list of declarations, so that {@link Completions#completeSymbols} does not
+ * re-fetch, re-score and re-sort every symbol on each keystroke.
+ * <p>
+ * The identifiers and fqNames are extracted once. A query scores the candidates in parallel chunks, keeping in
+ * each chunk only a bounded heap of the best (score, index) pairs packed into longs, so that nothing is
+ * allocated per candidate except by the matcher for names that do match. The candidates that matched the
+ * previous pattern are remembered: a name that matches a pattern also matches its prefixes, so when the user
+ * extends the pattern only those are rescored.
+ */
+final class SymbolCompleter {
+    private static final int CHUNK_SIZE = 16_384;
+
+    private final List<CodeUnit> source; // compared by identity, see isFor
+    private final CodeUnit[] units; // distinct, in fqName order, so a lower index breaks score ties
+    private final String[] identifiers;
+    private final String[] fqNames;
+    private volatile Narrowing last;
+
+    /** The indexes of every unit that matched a pattern, in ascending order. */
+    private record Narrowing(String pattern, boolean hierarchical, int[] matches) {
+    }
+
+    /** The best entries of one chunk, and the indexes of all of its matches. */
+    private record ChunkResult(long[] best, int[] matches) {
+    }
+
+    SymbolCompleter(List<CodeUnit> source) {
+        this.source = source;
+        this.units = source.stream().distinct().sorted().toArray(CodeUnit[]::new);
+        this.identifiers = Arrays.stream(units).map(CodeUnit::identifier).toArray(String[]::new);
+        this.fqNames = Arrays.stream(units).map(CodeUnit::fqName).toArray(String[]::new);
+    }
+
+    /** True if this was built from exactly this list; analyzers return the same list until their symbols change. */
+    boolean isFor(List<CodeUnit> declarations) {
+        return source == declarations;
+    }
+
+    /** Every unit, in fqName order. */
+    List<CodeUnit> all() {
+        return List.of(units);
+    }
+
+    /**
+     * The best {@code limit} matches of the (trimmed, non-empty) pattern, best first, ties in fqName order.
+     * Patterns with a hierarchy separator are matched against the fqName, others against the identifier only.
+     */
+    List<CodeUnit> complete(String pattern, int limit) {
+        assert !pattern.isEmpty();
+        boolean hierarchical = pattern.indexOf('.') >= 0 || pattern.indexOf('$') >= 0;
+        var names = hierarchical ? fqNames : identifiers;
+        var previous = last;
+        var candidates = previous != null && previous.hierarchical() == hierarchical && pattern.startsWith(previous.pattern())
+                         ? previous.matches()
+                         : null;
+        int count = candidates == null ? units.length : candidates.length;
+
+        var matcher = new FuzzyMatcher(pattern);
+        var chunks = IntStream.range(0, (count + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel()
+                .mapToObj(chunk -> {
+                    int from = chunk * CHUNK_SIZE;
+                    int to = Math.min(count, from + CHUNK_SIZE);
+                    var heap = new BoundedHeap(limit);
+                    var matches = new int[to - from];
+                    int matched = 0;
+                    for (int i = from; i < to; i++) {
+                        int index = candidates == null ? i : candidates[i];
+                        int score = matcher.score(names[index]);
+                        if (score != Integer.MAX_VALUE) {
+                            matches[matched++] = index;
+                            heap.offer(((long) score << 32) | index);
+                        }
+                    }
+                    return new ChunkResult(heap.toArray(), Arrays.copyOf(matches, matched));
+                })
+                .toList();
+
+        last = new Narrowing(pattern, hierarchical,
+                             chunks.stream().flatMapToInt(chunk -> Arrays.stream(chunk.matches())).toArray());
+        var best = chunks.stream().flatMapToLong(chunk -> Arrays.stream(chunk.best())).sorted().limit(limit).toArray();
+        var result = new ArrayList<CodeUnit>(best.length);
+        for (long entry : best) {
+            result.add(units[(int) entry]);
+        }
+        return result;
+    }
+
+    /** Keeps the {@code capacity} smallest values offered: a max-heap whose root is evicted by anything smaller. */
+    private static final class BoundedHeap {
+        private final long[] values;
+        private int size;
+
+        BoundedHeap(int capacity) {
+            this.values = new long[capacity];
+        }
+
+        void offer(long value) {
+            if (size < values.length) {
+                int i = size++;
+                while (i > 0 && values[(i - 1) / 2] < value) {
+                    values[i] = values[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                values[i] = value;
+            } else if (size > 0 && value < values[0]) {
+                int i = 0;
+                while (true) {
+                    int child = 2 * i + 1;
+                    if (child >= size) {
+                        break;
+                    }
+                    if (child + 1 < size && values[child + 1] > values[child]) {
+                        child++;
+                    }
+                    if (values[child] <= value) {
+                        break;
+                    }
+                    values[i] = values[child];
+                    i = child;
+                }
+                values[i] = value;
+            }
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.jbellis.brokk;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import dev.langchain4j.data.message.ImageContent;
+import io.github.jbellis.brokk.util.ImageUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Renders workspace fragments into what is sent to the LLM, remembering what each fragment rendered to.
+ * <p>
+ * A fragment backed by a file on disk is rendered again when the file's modification time or size changes.
+ * Every other fragment is immutable once created and is rendered once. Fragments that are not cached are
+ * rendered in parallel, so a workspace of many files costs about as much as its slowest file.
+ */
+final class WorkspaceRenderer {
+    // Upper bound on the characters of rendered text kept; weak keys drop fragments no context refers to
+    private static final long MAX_CACHED_CHARS = 64L << 20;
+
+    /** What a fragment contributes to the workspace message. Image is null for everything but images. */
+    record Rendered(String text, ImageContent image) {
+    }
+
+    /** The outcome of rendering one fragment. Error is non-null if the fragment could not be read. */
+    record Result(ContextFragment fragment, Rendered rendered, IOException error) {
+    }
+
+    /** A null stamp means the fragment's rendering never changes. */
+    private record Entry(FileStamp stamp, Rendered rendered) {
+    }
+
+    private record FileStamp(FileTime lastModified, long size) {
+    }
+
+    private final Cache<ContextFragment, Entry> cache = CacheBuilder.newBuilder()
+            .weakKeys() // identity keys
+            .maximumWeight(MAX_CACHED_CHARS)
+            .<ContextFragment, Entry>weigher((fragment, entry) -> entry.rendered().text().length())
+            .build();
+
+    /**
+     * Renders the fragments, in parallel where they are not cached.
+     *
+     * @return one result per fragment, in the order given
+     */
+    List<Result> render(List<? extends ContextFragment> fragments) {
+        return fragments.parallelStream().map(this::render).toList();
+    }
+
+    private Result render(ContextFragment fragment) {
+        try {
+            // stat before reading: if the file changes in between, the next stat will not match
+            var stamp = stampOf(fragment);
+            var cached = cache.getIfPresent(fragment);
+            if (cached != null && Objects.equals(cached.stamp(), stamp)) {
+                return new Result(fragment, cached.rendered(), null);
+            }
+
+            Rendered rendered;
+            if (fragment instanceof ContextFragment.ImageFileFragment || fragment instanceof ContextFragment.PasteImageFragment) {
+                // the text part is a placeholder referring to the image
+                rendered = new Rendered(fragment.format(), ImageContent.from(ImageUtil.toL4JImage(fragment.image())));
+            } else {
+                rendered = new Rendered(fragment.format(), null);
+            }
+            // a paste renders its description, which changes once its summary is done
+            if (!(fragment instanceof ContextFragment.PasteFragment paste && !paste.descriptionFuture.isDone())) {
+                cache.put(fragment, new Entry(stamp, rendered));
+            }
+            return new Result(fragment, rendered, null);
+        } catch (IOException e) {
+            return new Result(fragment, null, e);
+        }
+    }
+
+    private static FileStamp stampOf(ContextFragment fragment) throws IOException {
+        // a GitFileFragment holds its revision's content
+        if (!(fragment instanceof ContextFragment.PathFragment pf) || fragment instanceof ContextFragment.GitFileFragment) {
+            return null;
+        }
+        var attributes = Files.readAttributes(pf.file().absPath(), BasicFileAttributes.class);
+        return new FileStamp(attributes.lastModifiedTime(), attributes.size());
+    }
+}
@@ -489,14 +489,15 @@ public class ArchitectAgent {
      */
     private List<ChatMessage> buildPrompt(int workspaceTokenSize, int minInputTokenLimit, List<ChatMessage> precomputedWorkspaceMessages) {
         var messages = new ArrayList<ChatMessage>();
+        // Ordered from most to least stable, so that each request shares the longest possible prefix with the last
         // System message defines the agent's role and general instructions
         messages.add(ArchitectPrompts.instance.systemMessage(contextManager, CodePrompts.ARCHITECT_REMINDER));
-        // Workspace contents are added directly
-        messages.addAll(precomputedWorkspaceMessages);
         // History from previous tasks/sessions
         messages.addAll(contextManager.getHistoryMessages());
-        // This agent's own conversational history for the current goal
+        // This agent's own conversational history for the current goal, which only grows
         messages.addAll(architectMessages);
+        // Workspace contents change whenever a tool modifies the Workspace
+        messages.addAll(precomputedWorkspaceMessages);
         // Final user message with the goal and specific instructions for this turn, including workspace warnings
         messages.add(new UserMessage(ArchitectPrompts.instance.getFinalInstructions(contextManager, goal, workspaceTokenSize, minInputTokenLimit)));
         return messages;
@@ -154,6 +154,14 @@ public class ContextAgent {
         return true;
     }
 
+    /**
+     * Approximate tokens of the texts joined by newlines, counted per text so that texts counted before (the same
+     * file or summary in an earlier pass) come from the token cache.
+     */
+    private static int joinedTokens(Collection<String> texts) {
+        return texts.stream().mapToInt(Messages::getApproximateTokens).sum() + Math.max(0, texts.size() - 1);
+    }
+
     /**
      * Calculates the approximate token count for a list of ContextFragments.
      */
@@ -320,7 +328,7 @@ public class ContextAgent {
             rawSummaries = getProjectSummaries(filesToConsider);
         }
 
-        int summaryTokens = Messages.getApproximateTokens(String.join("\n", rawSummaries.values()));
+        int summaryTokens = joinedTokens(rawSummaries.values());
         debug("Total tokens for {} summaries (from {} files): {}", rawSummaries.size(), filesToConsider.size(), summaryTokens);
 
         boolean withinLimit = deepScan || rawSummaries.size() <= QUICK_TOPK;
@@ -362,9 +370,9 @@ public class ContextAgent {
         var recommendedSummaries = getSummaries(recommendedClasses, false);
 
         // Calculate combined token size
-        int recommendedSummaryTokens = Messages.getApproximateTokens(String.join("\n", recommendedSummaries.values()));
+        int recommendedSummaryTokens = joinedTokens(recommendedSummaries.values());
         var recommendedContentsMap = readFileContents(recommendedFiles);
-        int recommendedContentTokens = Messages.getApproximateTokens(String.join("\n", recommendedContentsMap.values()));
+        int recommendedContentTokens = joinedTokens(recommendedContentsMap.values());
         int totalRecommendedTokens = recommendedSummaryTokens + recommendedContentTokens;
 
         debug("LLM recommended {} classes ({} tokens) and {} files ({} tokens). Total: {} tokens",
@@ -410,9 +418,7 @@ public class ContextAgent {
      * 3. Ask the analyzer for a skeleton of each class and keep the non-empty ones.
      */
     private Map<CodeUnit, String> getProjectSummaries(Collection<ProjectFile> files) {
-        return files.stream().parallel()
-                .flatMap(f -> analyzer.getSkeletons(f).entrySet().stream())
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2) -> v1));
+        return analyzer.getSkeletons(files);
     }
 
     private @NotNull Map<CodeUnit, @NotNull String> getSummaries(Collection<CodeUnit> classes, boolean parallel) {
@@ -739,7 +745,7 @@ public class ContextAgent {
         }
 
         var contentsMap = readFileContents(filesToConsider);
-        int contentTokens = Messages.getApproximateTokens(String.join("\n", contentsMap.values()));
+        int contentTokens = joinedTokens(contentsMap.values());
         debug("Total tokens for {} files' content: {}", contentsMap.size(), contentTokens);
 
         // Rule 1: Use all available files if content fits the smallest budget and meet the limit (if not deepScan)
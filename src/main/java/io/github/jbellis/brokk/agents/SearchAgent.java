@@ -87,9 +87,9 @@ public class SearchAgent {
         this.toolRegistry = toolRegistry;
 
         // Set initial state based on analyzer presence and capabilities
-        allowSearch = analyzer.isCpg();      // Needs CPG for searchSymbols, getUsages
+        allowSearch = analyzer.hasReferenceGraph(); // Needs CPG for searchSymbols, a reference graph for getUsages
         allowInspect = analyzer.isCpg();     // Needs CPG for getSources, getCallGraph
-        allowPagerank = analyzer.isCpg();    // Needs CPG for getRelatedClasses
+        allowPagerank = analyzer.hasReferenceGraph(); // Needs a reference graph for getRelatedClasses
         allowAnswer = true;                 // Can always answer/abort initially if context exists
         allowTextSearch = !analyzer.isCpg(); // Enable text search only if no CPG analyzer
         symbolsFound = false;
@@ -420,13 +420,16 @@ public class SearchAgent {
         });
     }
 
+    /**
+     * Approximate tokens of every step but the latest. Counted per step, so steps that were counted before
+     * come from the token cache and only new or re-summarized steps are encoded.
+     */
     private int actionHistorySize() {
         var toIndex = min(actionHistory.size() - 1, 0);
-        var historyString = IntStream.range(0, toIndex)
+        return IntStream.range(0, toIndex)
                 .mapToObj(actionHistory::get)
-                .map(h -> formatHistory(h, -1))
-                .collect(Collectors.joining());
-        return Messages.getApproximateTokens(historyString); // Static method
+                .mapToInt(h -> Messages.getApproximateTokens(formatHistory(h, -1)))
+                .sum();
     }
 
     /**
@@ -707,12 +710,14 @@ public class SearchAgent {
         if (beastMode) return names; // Only answer/abort in beast mode
 
         // Add names based on CPG analyzer presence and state flags
-        if (analyzer.isCpg()) {
-            if (allowSearch) {
-                names.add("searchSymbols");
-                names.add("getUsages");
-            }
+        if (analyzer.isCpg() && allowSearch) {
+            names.add("searchSymbols");
+        }
+        if (analyzer.hasReferenceGraph()) {
+            if (allowSearch) names.add("getUsages");
             if (allowPagerank) names.add("getRelatedClasses");
+        }
+        if (analyzer.isCpg()) {
             if (allowInspect) {
                 names.add("getClassSkeletons");
                 names.add("getClassSources");
@@ -970,8 +975,8 @@ public class SearchAgent {
                                              "searchSubstrings", "searchFilenames", "getFileContents", "getRelatedClasses",
                                              "getFileSummaries");
 
-        if (toolsRequiringSummaries.contains(toolName) && Messages.getApproximateTokens(resultText) > SUMMARIZE_THRESHOLD) {
-            logger.debug("Queueing summarization for tool {} (length {})", toolName, Messages.getApproximateTokens(resultText));
+        if (toolsRequiringSummaries.contains(toolName) && Messages.estimateTokens(resultText) > SUMMARIZE_THRESHOLD) {
+            logger.debug("Queueing summarization for tool {} (about {} tokens)", toolName, Messages.estimateTokens(resultText));
             historyEntry.summarizeFuture = summarizeResultAsync(query, historyEntry);
         } else if (toolName.equals("searchSymbols") || toolName.equals("getRelatedClasses")) {
             // Apply prefix compression if not summarizing for searchSymbols and getRelatedClasses
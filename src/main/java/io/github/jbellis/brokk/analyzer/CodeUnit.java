@@ -1,17 +1,34 @@
 package io.github.jbellis.brokk.analyzer;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.Objects;
 import java.util.Optional;
 
 /**
  * Represents a named code element (class, function, field, or module).
+ * <p>
+ * Analyzers hold millions of these, so the package and short names are interned (every member of a
+ * package shares one package String) and the fully-qualified name and hash code, which back equality,
+ * are computed once at construction.
  */
-public record CodeUnit(ProjectFile source, CodeUnitType kind, String packageName, String shortName)
-        implements Comparable<CodeUnit>, Serializable {
-    private static final long serialVersionUID = 4L; // Increment serialVersionUID due to new MODULE type and logic changes
+public final class CodeUnit implements Comparable<CodeUnit>, Serializable {
+    @Serial
+    private static final long serialVersionUID = 4L; // Unchanged from the record form so persisted contexts still load
+
+    private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+    private final ProjectFile source;
+    private final CodeUnitType kind;
+    private final String packageName;
+    private final String shortName;
+    private transient String fqName;
+    private transient int hash;
 
-    public CodeUnit {
+    public CodeUnit(ProjectFile source, CodeUnitType kind, String packageName, String shortName) {
         Objects.requireNonNull(source, "source must not be null");
         Objects.requireNonNull(kind, "kind must not be null");
         Objects.requireNonNull(packageName, "packageName must not be null"); // Allow empty, but not null
@@ -19,6 +36,26 @@ public record CodeUnit(ProjectFile source, CodeUnitType kind, String packageName
         if (shortName.isEmpty()) {
             throw new IllegalArgumentException("shortName must not be empty");
         }
+        this.source = source;
+        this.kind = kind;
+        this.packageName = NAMES.intern(packageName);
+        this.shortName = NAMES.intern(shortName);
+        this.fqName = computeFqName();
+        this.hash = Objects.hash(kind, fqName);
+    }
+
+    /** Serialized forms carry only the four components; rebuild so the cached and interned state is restored. */
+    @Serial
+    private Object readResolve() {
+        return new CodeUnit(source, kind, packageName, shortName);
+    }
+
+    public ProjectFile source() {
+        return source;
+    }
+
+    public CodeUnitType kind() {
+        return kind;
     }
 
     /**
@@ -26,6 +63,10 @@ public record CodeUnit(ProjectFile source, CodeUnitType kind, String packageName
      * For MODULE, shortName is often a fixed placeholder like "_module_", so fqName becomes "packageName._module_".
      */
     public String fqName() {
+        return fqName;
+    }
+
+    private String computeFqName() {
         return packageName.isEmpty() ? shortName : packageName + "." + shortName;
     }
 
@@ -111,13 +152,13 @@ public record CodeUnit(ProjectFile source, CodeUnitType kind, String packageName
         if (this == obj) return true;
         if (!(obj instanceof CodeUnit other)) return false;
         // Equality based on the derived fully qualified name AND kind
-        return kind == other.kind && Objects.equals(this.fqName(), other.fqName());
+        return hash == other.hash && kind == other.kind && fqName.equals(other.fqName);
     }
 
     @Override
     public int hashCode() {
         // Hash code based on the derived fully qualified name AND kind
-        return Objects.hash(kind, fqName());
+        return hash;
     }
 
     @Override
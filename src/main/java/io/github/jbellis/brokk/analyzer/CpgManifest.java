@@ -0,0 +1,175 @@
+package io.github.jbellis.brokk.analyzer;
+
+import io.github.jbellis.brokk.util.AtomicWrites;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Per-file size, mtime and content hash of the sources a persisted CPG was built from, stored next to it
+ * as {@code <cpg>.manifest}.
+ * <p>
+ * Comparing the current sources against the manifest tells exactly which files changed since the CPG was
+ * written. A file whose size and mtime match is unchanged without being read; a file whose mtime moved but
+ * whose content hash matches (e.g. after a git checkout that rewrote identical content) is unchanged too,
+ * and is re-stamped so that the next check is a plain stat again.
+ * <p>
+ * Format (big-endian): magic, format version, entry count, then per entry: path, size, mtime, SHA-1.
+ */
+public final class CpgManifest {
+    private static final Logger logger = LogManager.getLogger(CpgManifest.class);
+
+    private static final int MAGIC = 0x42435047; // "BCPG"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HASH_LENGTH = 20;
+
+    private final Path root;
+    private final Map<String, TreeSitterCache.FileStamp> stamps; // keyed by project-relative path
+    private volatile boolean dirty;
+
+    private CpgManifest(Path root, Map<String, TreeSitterCache.FileStamp> stamps, boolean dirty) {
+        this.root = root;
+        this.stamps = stamps;
+        this.dirty = dirty;
+    }
+
+    /**
+     * Stamps the given files, hashing them in parallel. Call this before building the CPG so that edits
+     * made while the build runs show up as stale on the next check.
+     */
+    public static CpgManifest capture(Path root, Collection<ProjectFile> files) {
+        long startTime = System.currentTimeMillis();
+        var stamps = new ConcurrentHashMap<String, TreeSitterCache.FileStamp>();
+        files.parallelStream().forEach(file -> TreeSitterCache.FileStamp.of(file)
+                .ifPresent(stamp -> stamps.put(file.toString(), stamp)));
+        logger.debug("Stamped {} files for CPG manifest in {} ms", stamps.size(), System.currentTimeMillis() - startTime);
+        return new CpgManifest(root, stamps, true);
+    }
+
+    /** Reads the manifest stored next to the given CPG; empty if there is none or it cannot be read. */
+    public static Optional<CpgManifest> load(Path root, Path cpgPath) {
+        var manifestFile = manifestPath(cpgPath);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(manifestFile);
+        } catch (NoSuchFileException e) {
+            logger.debug("No CPG manifest at {}", manifestFile);
+            return Optional.empty();
+        } catch (IOException e) {
+            logger.warn("Unable to read CPG manifest {}: {}", manifestFile, e.getMessage());
+            return Optional.empty();
+        }
+
+        try {
+            var buf = ByteBuffer.wrap(data);
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                logger.debug("Ignoring CPG manifest {} written in a different format", manifestFile);
+                return Optional.empty();
+            }
+            int count = buf.getInt();
+            var stamps = new ConcurrentHashMap<String, TreeSitterCache.FileStamp>(count * 2);
+            for (int i = 0; i < count; i++) {
+                var relPath = readString(buf);
+                long size = buf.getLong();
+                long mtime = buf.getLong();
+                var hash = new byte[HASH_LENGTH];
+                buf.get(hash);
+                stamps.put(relPath, new TreeSitterCache.FileStamp(size, mtime, hash));
+            }
+            return Optional.of(new CpgManifest(root, stamps, false));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            logger.warn("Discarding corrupt CPG manifest {}: {}", manifestFile, e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the files that differ from the manifest: changed or added files among {@code currentFiles},
+     * plus recorded files that are no longer among them. Unchanged files whose mtime moved are re-stamped.
+     */
+    public Set<ProjectFile> staleFiles(Collection<ProjectFile> currentFiles) {
+        var current = currentFiles.stream().map(ProjectFile::toString).collect(Collectors.toSet());
+        var changed = currentFiles.parallelStream()
+                .filter(file -> {
+                    var stored = stamps.get(file.toString());
+                    if (stored == null) {
+                        return true;
+                    }
+                    var validated = TreeSitterCache.validate(file, stored);
+                    if (validated.isEmpty()) {
+                        return true;
+                    }
+                    if (validated.get() != stored) {
+                        stamps.put(file.toString(), validated.get());
+                        dirty = true;
+                    }
+                    return false;
+                });
+        var deleted = stamps.keySet().stream()
+                .filter(relPath -> !current.contains(relPath))
+                .map(relPath -> new ProjectFile(root, relPath));
+        return Stream.concat(changed, deleted).collect(Collectors.toUnmodifiableSet());
+    }
+
+    /** Writes the manifest next to the given CPG if it changed since it was captured or loaded. */
+    public void save(Path cpgPath) {
+        if (!dirty) {
+            return;
+        }
+        var manifestFile = manifestPath(cpgPath);
+        try {
+            var snapshot = new HashMap<>(stamps);
+            var bytes = new ByteArrayOutputStream(snapshot.size() * 64);
+            var out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(snapshot.size());
+            for (var e : snapshot.entrySet()) {
+                var pathBytes = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(pathBytes.length);
+                out.write(pathBytes);
+                out.writeLong(e.getValue().size());
+                out.writeLong(e.getValue().mtime());
+                out.write(e.getValue().hash());
+            }
+            out.flush();
+            Files.createDirectories(manifestFile.getParent());
+            AtomicWrites.atomicOverwrite(manifestFile, bytes.toByteArray());
+            dirty = false;
+            logger.debug("Wrote CPG manifest with {} entries to {}", snapshot.size(), manifestFile);
+        } catch (IOException e) {
+            logger.warn("Unable to write CPG manifest {}: {}", manifestFile, e.getMessage());
+        }
+    }
+
+    private static Path manifestPath(Path cpgPath) {
+        return cpgPath.resolveSibling(cpgPath.getFileName() + ".manifest");
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        var s = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,268 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable weighted directed graph over named nodes (classes, for pagerank), stored as compressed sparse
+ * rows in both directions: node ids are dense ints, and the edges of node {@code v} are the slice
+ * {@code [offsets[v], offsets[v + 1])} of parallel target/weight arrays.
+ * <p>
+ * Everything {@link #pagerank} needs per edge, i.e. the edge weight divided by the total out-weight of its
+ * source, is precomputed once, so an iteration is a single pass over primitive arrays.
+ */
+final class CsrGraph {
+    private static final double DAMPING = 0.85;
+    private static final double EPSILON = 1e-4;
+    private static final int MAX_ITERATIONS = 50;
+    /** Below this many nodes an iteration is cheaper than forking. */
+    private static final int PARALLEL_THRESHOLD = 8_192;
+    private static final int CHUNK_SIZE = 2_048;
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+
+    // forward edges: v -> outTargets[outOffsets[v] .. outOffsets[v + 1])
+    private final int[] outOffsets;
+    private final int[] outTargets;
+    private final int[] outWeights;
+    // reverse edges: v <- inSources[inOffsets[v] .. inOffsets[v + 1])
+    private final int[] inOffsets;
+    private final int[] inSources;
+    private final int[] inWeights;
+
+    // weight / (total forward out-weight of the edge's source), aligned with inSources
+    private final double[] inShare;
+    // weight / (total forward in-weight of the edge's target), aligned with outTargets; for reversed pagerank
+    private final double[] outShare;
+    private final int[] danglingNodes; // no forward out-edges
+
+    private CsrGraph(String[] names, Map<String, Integer> ids, int[] src, int[] dst, int[] weight, int edgeCount) {
+        this.names = names;
+        this.ids = ids;
+        int n = names.length;
+
+        outOffsets = new int[n + 1];
+        inOffsets = new int[n + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            outOffsets[src[e] + 1]++;
+            inOffsets[dst[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            outOffsets[v + 1] += outOffsets[v];
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        outTargets = new int[edgeCount];
+        outWeights = new int[edgeCount];
+        inSources = new int[edgeCount];
+        inWeights = new int[edgeCount];
+        var outCursor = Arrays.copyOf(outOffsets, n);
+        var inCursor = Arrays.copyOf(inOffsets, n);
+        var outWeightSum = new long[n];
+        var inWeightSum = new long[n];
+        for (int e = 0; e < edgeCount; e++) {
+            int o = outCursor[src[e]]++;
+            outTargets[o] = dst[e];
+            outWeights[o] = weight[e];
+            int i = inCursor[dst[e]]++;
+            inSources[i] = src[e];
+            inWeights[i] = weight[e];
+            outWeightSum[src[e]] += weight[e];
+            inWeightSum[dst[e]] += weight[e];
+        }
+
+        inShare = new double[edgeCount];
+        for (int v = 0; v < n; v++) {
+            for (int i = inOffsets[v]; i < inOffsets[v + 1]; i++) {
+                inShare[i] = (double) inWeights[i] / Math.max(1, outWeightSum[inSources[i]]);
+            }
+        }
+        outShare = new double[edgeCount];
+        for (int v = 0; v < n; v++) {
+            for (int o = outOffsets[v]; o < outOffsets[v + 1]; o++) {
+                outShare[o] = (double) outWeights[o] / Math.max(1, inWeightSum[outTargets[o]]);
+            }
+        }
+        danglingNodes = IntStream.range(0, n).filter(v -> outOffsets[v] == outOffsets[v + 1]).toArray();
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String name(int id) {
+        return names[id];
+    }
+
+    /** The node's id, or -1 if it is not in the graph. */
+    int id(String name) {
+        return ids.getOrDefault(name, -1);
+    }
+
+    /**
+     * Personalized weighted pagerank. Seeds that are not in the graph are ignored; with no seed in the graph
+     * every score is zero. Rank flows along edges ({@code reversed = false}) or against them, split in
+     * proportion to edge weight. The rank of nodes without forward out-edges is redistributed to the seeds
+     * after every iteration, in either direction.
+     *
+     * @return score per node id
+     */
+    double[] pagerank(Map<String, Double> seedWeights, boolean reversed) {
+        var scores = iterate(seedWeights, !reversed, reversed);
+        return reversed ? scores[1] : scores[0];
+    }
+
+    /**
+     * Forward and reversed {@link #pagerank} from the same seeds, as {@code [forward, reversed]}. Both are
+     * advanced in the same pass over the nodes; each direction stops once it has converged on its own, so
+     * the scores are exactly those of two separate calls.
+     */
+    double[][] bidirectionalPagerank(Map<String, Double> seedWeights) {
+        return iterate(seedWeights, true, true);
+    }
+
+    private double[][] iterate(Map<String, Double> seedWeights, boolean forward, boolean reversed) {
+        int n = size();
+        double totalWeight = seedWeights.values().stream().mapToDouble(Double::doubleValue).sum();
+        double norm = totalWeight == 0 ? 1 : totalWeight;
+        var teleport = new double[n];
+        var seeds = seedWeights.entrySet().stream()
+                .filter(e -> ids.containsKey(e.getKey()))
+                .mapToInt(e -> {
+                    int id = ids.get(e.getKey());
+                    teleport[id] = e.getValue() / norm;
+                    return id;
+                })
+                .toArray();
+        if (seeds.length == 0) {
+            return new double[][] {new double[n], new double[n]};
+        }
+
+        // index 0 is forward, 1 is reversed; a direction is active until it converges
+        var active = new boolean[] {forward, reversed};
+        var scores = new double[2][];
+        var next = new double[2][];
+        for (int d = 0; d < 2; d++) {
+            scores[d] = active[d] ? teleport.clone() : new double[n];
+            next[d] = new double[n];
+        }
+        int chunks = n < PARALLEL_THRESHOLD ? 1 : (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        for (int iteration = 0; iteration < MAX_ITERATIONS && (active[0] || active[1]); iteration++) {
+            var current = scores.clone();
+            var updated = next.clone();
+            var chunkDiffs = new double[chunks][2];
+            var ranges = IntStream.range(0, chunks);
+            (chunks > 1 ? ranges.parallel() : ranges).forEach(chunk -> {
+                int end = Math.min(n, (chunk + 1) * CHUNK_SIZE);
+                for (int v = chunk * CHUNK_SIZE; v < end; v++) {
+                    // rank arriving at v comes from its in-neighbors going forward, from its out-neighbors when reversed
+                    if (active[0]) {
+                        double score = DAMPING * inbound(v, inOffsets, inSources, inShare, current[0]) + (1 - DAMPING) * teleport[v];
+                        updated[0][v] = score;
+                        chunkDiffs[chunk][0] += Math.abs(current[0][v] - score);
+                    }
+                    if (active[1]) {
+                        double score = DAMPING * inbound(v, outOffsets, outTargets, outShare, current[1]) + (1 - DAMPING) * teleport[v];
+                        updated[1][v] = score;
+                        chunkDiffs[chunk][1] += Math.abs(current[1][v] - score);
+                    }
+                }
+            });
+
+            for (int d = 0; d < 2; d++) {
+                if (!active[d]) {
+                    continue;
+                }
+                redistributeDangling(current[d], updated[d], seeds, teleport);
+                next[d] = current[d];
+                scores[d] = updated[d];
+                double diff = 0;
+                for (var chunkDiff : chunkDiffs) {
+                    diff += chunkDiff[d];
+                }
+                active[d] = diff > EPSILON;
+            }
+        }
+        return scores;
+    }
+
+    private static double inbound(int v, int[] offsets, int[] neighbors, double[] share, double[] current) {
+        double sum = 0;
+        for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+            sum += current[neighbors[e]] * share[e];
+        }
+        return sum;
+    }
+
+    private void redistributeDangling(double[] current, double[] updated, int[] seeds, double[] teleport) {
+        double danglingScore = 0;
+        for (int v : danglingNodes) {
+            danglingScore += current[v];
+        }
+        if (danglingScore > 0) {
+            for (int seed : seeds) {
+                updated[seed] += DAMPING * danglingScore * teleport[seed];
+            }
+            for (int v : danglingNodes) {
+                updated[v] = 0;
+            }
+        }
+    }
+
+    /** Accumulates edges by node name; repeated edges between the same pair of nodes add up their weights. */
+    static final class Builder {
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final Map<Long, Integer> edgeIndex = new HashMap<>();
+        private int[] src = new int[1024];
+        private int[] dst = new int[1024];
+        private int[] weight = new int[1024];
+        private int edgeCount;
+
+        /** Adds the node if it is not there yet and returns its id. */
+        int node(String name) {
+            return ids.computeIfAbsent(name, k -> ids.size());
+        }
+
+        Builder addEdge(String source, String target, int w) {
+            int s = node(source);
+            int t = node(target);
+            long key = ((long) s << 32) | t;
+            var existing = edgeIndex.get(key);
+            if (existing != null) {
+                weight[existing] += w;
+                return this;
+            }
+            if (edgeCount == src.length) {
+                src = Arrays.copyOf(src, edgeCount * 2);
+                dst = Arrays.copyOf(dst, edgeCount * 2);
+                weight = Arrays.copyOf(weight, edgeCount * 2);
+            }
+            edgeIndex.put(key, edgeCount);
+            src[edgeCount] = s;
+            dst[edgeCount] = t;
+            weight[edgeCount] = w;
+            edgeCount++;
+            return this;
+        }
+
+        CsrGraph build() {
+            var names = new String[ids.size()];
+            ids.forEach((name, id) -> names[id] = name);
+            return new CsrGraph(names, Map.copyOf(ids), src, dst, weight, edgeCount);
+        }
+    }
+
+    /** Node ids ordered by descending score, ties broken by id. */
+    static List<Integer> byDescendingScore(double[] scores) {
+        return IntStream.range(0, scores.length)
+                .boxed()
+                .sorted((a, b) -> {
+                    int c = Double.compare(scores[b], scores[a]);
+                    return c != 0 ? c : Integer.compare(a, b);
+                })
+                .toList();
+    }
+}
@@ -65,7 +65,7 @@ public interface Language {
         @Override public String internalName() { return "C_SHARP"; }
         @Override public String toString() { return name(); } // For compatibility
         @Override public IAnalyzer createAnalyzer(Project project) {
-            return new CSharpAnalyzer(project, project.getBuildDetails().excludedDirectories());
+            return new CSharpAnalyzer(project, project.getBuildDetails().excludedDirectories()).startWarmUp();
         }
         @Override public IAnalyzer loadAnalyzer(Project project) {return createAnalyzer(project);}
     };
@@ -189,7 +189,7 @@ public interface Language {
         @Override public String internalName() { return "JAVASCRIPT"; }
         @Override public String toString() { return name(); }
         @Override public IAnalyzer createAnalyzer(Project project) {
-            return new JavascriptAnalyzer(project, project.getBuildDetails().excludedDirectories());
+            return new JavascriptAnalyzer(project, project.getBuildDetails().excludedDirectories()).startWarmUp();
         }
         @Override public IAnalyzer loadAnalyzer(Project project) {return createAnalyzer(project);}
 
@@ -254,7 +254,7 @@ public interface Language {
         @Override public String internalName() { return "PYTHON"; }
         @Override public String toString() { return name(); }
         @Override public IAnalyzer createAnalyzer(Project project) {
-            return new PythonAnalyzer(project, project.getBuildDetails().excludedDirectories());
+            return new PythonAnalyzer(project, project.getBuildDetails().excludedDirectories()).startWarmUp();
         }
         @Override public IAnalyzer loadAnalyzer(Project project) {return createAnalyzer(project);}
 
@@ -407,7 +407,7 @@ public interface Language {
         @Override public String internalName() { return "GO"; }
         @Override public String toString() { return name(); }
         @Override public IAnalyzer createAnalyzer(Project project) {
-            return new GoAnalyzer(project, project.getBuildDetails().excludedDirectories());
+            return new GoAnalyzer(project, project.getBuildDetails().excludedDirectories()).startWarmUp();
         }
         @Override public IAnalyzer loadAnalyzer(Project project) {return createAnalyzer(project);}
         @Override public List<Path> getDependencyCandidates(Project project) { return List.of(); }
@@ -420,7 +420,7 @@ public interface Language {
         @Override public String internalName() { return "RUST"; }
         @Override public String toString() { return name(); }
         @Override public IAnalyzer createAnalyzer(Project project) {
-            return new RustAnalyzer(project, project.getBuildDetails().excludedDirectories());
+            return new RustAnalyzer(project, project.getBuildDetails().excludedDirectories()).startWarmUp();
         }
         @Override public IAnalyzer loadAnalyzer(Project project) {return createAnalyzer(project);}
         // TODO: Implement getDependencyCandidates for Rust (e.g. scan Cargo.lock, vendor dir)
@@ -470,7 +470,7 @@ public interface Language {
         @Override public String internalName() { return "PHP"; }
         @Override public String toString() { return name(); }
         @Override public IAnalyzer createAnalyzer(Project project) {
-            return new PhpAnalyzer(project, project.getBuildDetails().excludedDirectories());
+            return new PhpAnalyzer(project, project.getBuildDetails().excludedDirectories()).startWarmUp();
         }
         @Override public IAnalyzer loadAnalyzer(Project project) { return createAnalyzer(project); }
         // TODO: Implement getDependencyCandidates for PHP (e.g. composer's vendor directory)
@@ -5,21 +5,157 @@ import org.apache.logging.log4j.Logger;
 import scala.Tuple2;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class MultiAnalyzer implements IAnalyzer {
     private static final Logger logger = LogManager.getLogger(MultiAnalyzer.class);
 
     private final Map<Language, IAnalyzer> delegates;
+    private volatile AllDefinitions allDefinitions; // see searchDefinitions
+    private volatile Routing routing = Routing.EMPTY; // see delegatesFor
+    private final AtomicBoolean routingInProgress = new AtomicBoolean();
 
+    /** The merged results for ".*" and the delegate results they were merged from. */
+    private record AllDefinitions(List<List<CodeUnit>> parts, List<CodeUnit> merged) {
+    }
+
+    /**
+     * Which delegates declare each fqName, from the symbols of the delegates that were fully indexed when it was
+     * built: fqNames in sorted order (with repeats when several delegates declare one), and the index in
+     * {@code covered} of the delegate declaring each. Delegates that cannot list their symbols are never covered.
+     */
+    private record Routing(List<IAnalyzer> covered, List<IAnalyzer> unsupported, String[] fqNames, byte[] owners) {
+        static final Routing EMPTY = new Routing(List.of(), List.of(), new String[0], new byte[0]);
+
+        boolean covers(IAnalyzer delegate) {
+            return indexOf(delegate) >= 0;
+        }
+
+        /** True if a rebuild would cover the delegate. */
+        boolean misses(IAnalyzer delegate) {
+            return !covers(delegate) && unsupported.stream().noneMatch(u -> u == delegate) && delegate.isFullyIndexed();
+        }
+
+        /** True if the delegate, which must be covered, declares the fqName. */
+        boolean declares(IAnalyzer delegate, String fqName) {
+            int owner = indexOf(delegate);
+            int pos = Arrays.binarySearch(fqNames, fqName);
+            if (pos < 0) {
+                return false;
+            }
+            while (pos > 0 && fqNames[pos - 1].equals(fqName)) {
+                pos--;
+            }
+            for (; pos < fqNames.length && fqNames[pos].equals(fqName); pos++) {
+                if (owners[pos] == owner) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int indexOf(IAnalyzer delegate) {
+            for (int i = 0; i < covered.size(); i++) {
+                if (covered.get(i) == delegate) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * The delegates are copied: a MultiAnalyzer is a snapshot, and {@link #update} returns a new one. Since delegates
+     * do not change either once built (see {@link IAnalyzer#update}), a routing table never goes stale.
+     */
     public MultiAnalyzer(Map<Language, IAnalyzer> delegates) {
-        this.delegates = delegates; // Store the live map directly
+        this.delegates = Map.copyOf(delegates);
+    }
+
+    /**
+     * The delegates that may answer a lookup by fqName: those the routing table says declare it, and those it does
+     * not cover yet (still indexing when it was built). If no covered delegate declares the name, it may be spelled
+     * differently than the delegates' fqNames, so every delegate is asked.
+     */
+    private List<IAnalyzer> delegatesFor(String fqName) {
+        var table = routing();
+        var all = List.copyOf(delegates.values());
+        var candidates = all.stream()
+                .filter(delegate -> !table.covers(delegate) || table.declares(delegate, fqName))
+                .toList();
+        return candidates.stream().anyMatch(table::covers) ? candidates : all;
+    }
+
+    /** The current routing table; starts building a new one in the background if it misses indexed delegates. */
+    private Routing routing() {
+        var table = routing;
+        if (delegates.values().stream().anyMatch(table::misses) && routingInProgress.compareAndSet(false, true)) {
+            CompletableFuture.runAsync(this::buildRouting).whenComplete((v, th) -> {
+                routingInProgress.set(false);
+                if (th != null) {
+                    logger.warn("Unable to build symbol routing table", th);
+                }
+            });
+        }
+        return table;
     }
 
-    private <R> Optional<R> findFirst(Function<IAnalyzer, Optional<R>> extractor) {
+    /** Builds the routing table on the calling thread; package-private so tests need not wait for {@link #routing}. */
+    void buildRouting() {
+        long startTime = System.currentTimeMillis();
+        var covered = new ArrayList<IAnalyzer>();
+        var unsupported = new ArrayList<IAnalyzer>();
+        var parts = new ArrayList<List<CodeUnit>>();
         for (var delegate : delegates.values()) {
+            if (!delegate.isFullyIndexed() || covered.size() == Byte.MAX_VALUE) {
+                continue;
+            }
+            try {
+                // each delegate's symbols are (normally already) in fqName order, so a k-way merge sorts them all
+                var symbols = delegate.searchDefinitions(".*");
+                parts.add(isSorted(symbols) ? symbols : symbols.stream().sorted().toList());
+                covered.add(delegate);
+            } catch (UnsupportedOperationException e) {
+                unsupported.add(delegate);
+            }
+        }
+        int total = parts.stream().mapToInt(List::size).sum();
+        var fqNames = new String[total];
+        var owners = new byte[total];
+        var positions = new int[parts.size()];
+        for (int n = 0; n < total; n++) {
+            int next = -1;
+            for (int i = 0; i < parts.size(); i++) {
+                if (positions[i] < parts.get(i).size()
+                    && (next < 0 || parts.get(i).get(positions[i]).fqName().compareTo(parts.get(next).get(positions[next]).fqName()) < 0)) {
+                    next = i;
+                }
+            }
+            fqNames[n] = parts.get(next).get(positions[next]++).fqName();
+            owners[n] = (byte) next;
+        }
+        routing = new Routing(List.copyOf(covered), List.copyOf(unsupported), fqNames, owners);
+        logger.debug("Built symbol routing table for {} delegates, {} symbols in {} ms",
+                     covered.size(), total, System.currentTimeMillis() - startTime);
+    }
+
+    private static boolean isSorted(List<CodeUnit> units) {
+        for (int i = 1; i < units.size(); i++) {
+            if (units.get(i - 1).compareTo(units.get(i)) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private <R> Optional<R> findFirst(String fqName, Function<IAnalyzer, Optional<R>> extractor) {
+        for (var delegate : delegatesFor(fqName)) {
             try {
                 var result = extractor.apply(delegate);
                 if (result.isPresent()) {
@@ -53,10 +189,45 @@ public class MultiAnalyzer implements IAnalyzer {
         return delegates.values().stream().anyMatch(IAnalyzer::isCpg);
     }
 
+    @Override
+    public boolean hasReferenceGraph() {
+        return delegates.values().stream().anyMatch(IAnalyzer::hasReferenceGraph);
+    }
+
+    @Override
+    public boolean isFullyIndexed() {
+        return delegates.values().stream().allMatch(IAnalyzer::isFullyIndexed);
+    }
+
+    @Override
+    public void prioritize(Collection<ProjectFile> files) {
+        delegates.values().forEach(delegate -> delegate.prioritize(files));
+    }
+
+    /**
+     * Routes each changed file to the delegate for its language, returning a new MultiAnalyzer over the updated
+     * delegates; this one, its delegates and its routing table are left as they were. Throws
+     * UnsupportedOperationException if any delegate that owns a changed file cannot update incrementally.
+     */
+    @Override
+    public IAnalyzer update(Set<ProjectFile> changedFiles) {
+        var filesByLanguage = changedFiles.stream()
+                .collect(Collectors.groupingBy(pf -> Language.fromExtension(com.google.common.io.Files.getFileExtension(pf.absPath().toString())),
+                                               Collectors.toSet()));
+        var updated = new HashMap<>(delegates);
+        filesByLanguage.forEach((lang, files) -> {
+            var delegate = updated.get(lang);
+            if (delegate != null) {
+                updated.put(lang, delegate.update(files));
+            }
+        });
+        return new MultiAnalyzer(updated);
+    }
+
     @Override
     public List<CodeUnit> getUses(String fqName) {
-        return delegates.values().stream()
-                .filter(IAnalyzer::isCpg)
+        return delegates.values().parallelStream()
+                .filter(IAnalyzer::hasReferenceGraph)
                 .flatMap(analyzer1 -> ((Function<IAnalyzer, List<CodeUnit>>) analyzer -> analyzer.getUses(fqName)).apply(analyzer1).stream())
                 .distinct()
                 .collect(Collectors.toList());
@@ -64,13 +235,26 @@ public class MultiAnalyzer implements IAnalyzer {
 
     @Override
     public List<Tuple2<CodeUnit, Double>> getPagerank(Map<String, Double> seedClassWeights, int k, boolean reversed) {
+        return pagerankDelegate(seedClassWeights)
+                .map(analyzer -> analyzer.getPagerank(seedClassWeights, k, reversed))
+                .orElse(List.of()); // No suitable analyzer found
+    }
+
+    @Override
+    public List<Tuple2<CodeUnit, Double>> getBidirectionalPagerank(Map<String, Double> seedClassWeights, int k) {
+        return pagerankDelegate(seedClassWeights)
+                .map(analyzer -> analyzer.getBidirectionalPagerank(seedClassWeights, k))
+                .orElse(List.of()); // No suitable analyzer found
+    }
+
+    private Optional<IAnalyzer> pagerankDelegate(Map<String, Double> seedClassWeights) {
         if (seedClassWeights.isEmpty()) {
             logger.warn("MultiAnalyzer pagerank called with empty seed classes -- sub analyzer will be ~random");
         }
 
-        // Assume that the seeds belong to a single CPG, so we look for a matching sub-Analyzer
+        // Assume that the seeds belong to a single language, so we look for a matching sub-Analyzer
         for (var analyzer : delegates.values()) {
-            if (!analyzer.isCpg()) {
+            if (!analyzer.hasReferenceGraph()) {
                 continue;
             }
 
@@ -89,10 +273,10 @@ public class MultiAnalyzer implements IAnalyzer {
             }
 
             if (meetsSeedCriteria) {
-                return analyzer.getPagerank(seedClassWeights, k, reversed);
+                return Optional.of(analyzer);
             }
         }
-        return List.of(); // No suitable analyzer found
+        return Optional.empty();
     }
 
     @Override
@@ -105,24 +289,34 @@ public class MultiAnalyzer implements IAnalyzer {
         return mergeMapsFromCpgAnalyzers(analyzer -> analyzer.getCallgraphFrom(methodName, depth));
     }
 
+    @Override
+    public Map<String, List<CallSite>> getCallgraphTo(String methodName, int depth, BiConsumer<String, CallSite> onCallSite) {
+        return mergeMapsFromCpgAnalyzers(analyzer -> analyzer.getCallgraphTo(methodName, depth, onCallSite));
+    }
+
+    @Override
+    public Map<String, List<CallSite>> getCallgraphFrom(String methodName, int depth, BiConsumer<String, CallSite> onCallSite) {
+        return mergeMapsFromCpgAnalyzers(analyzer -> analyzer.getCallgraphFrom(methodName, depth, onCallSite));
+    }
+
     @Override
     public Optional<String> getSkeleton(String fqName) {
-        return findFirst(analyzer -> analyzer.getSkeleton(fqName));
+        return findFirst(fqName, analyzer -> analyzer.getSkeleton(fqName));
     }
 
     @Override
     public Optional<String> getSkeletonHeader(String className) {
-        return findFirst(analyzer -> analyzer.getSkeletonHeader(className));
+        return findFirst(className, analyzer -> analyzer.getSkeletonHeader(className));
     }
 
     @Override
     public Optional<String> getMethodSource(String fqName) {
-        return findFirst(analyzer -> analyzer.getMethodSource(fqName));
+        return findFirst(fqName, analyzer -> analyzer.getMethodSource(fqName));
     }
 
     @Override
     public String getClassSource(String fqcn) {
-        for (var delegate : delegates.values()) {
+        for (var delegate : delegatesFor(fqcn)) {
             try {
                 var source = delegate.getClassSource(fqcn);
                 if (!source.isEmpty()) {
@@ -145,9 +339,24 @@ public class MultiAnalyzer implements IAnalyzer {
         return Map.of();
     }
 
+    @Override
+    public Map<CodeUnit, String> getSkeletons(Collection<ProjectFile> files) {
+        var filesByLanguage = files.stream()
+                .collect(Collectors.groupingBy(file -> Language.fromExtension(
+                        com.google.common.io.Files.getFileExtension(file.absPath().toString()))));
+        var skeletons = new HashMap<CodeUnit, String>();
+        filesByLanguage.forEach((lang, langFiles) -> {
+            var delegate = delegates.get(lang);
+            if (delegate != null) {
+                delegate.getSkeletons(langFiles).forEach(skeletons::putIfAbsent);
+            }
+        });
+        return skeletons;
+    }
+
     @Override
     public List<CodeUnit> getMembersInClass(String fqClass) {
-        return delegates.values().stream()
+        return delegates.values().parallelStream()
                 .flatMap(analyzer -> analyzer.getMembersInClass(fqClass).stream())
                 .distinct()
                 .sorted()
@@ -156,7 +365,7 @@ public class MultiAnalyzer implements IAnalyzer {
 
     @Override
     public List<CodeUnit> getAllDeclarations() {
-        return delegates.values().stream()
+        return delegates.values().parallelStream()
                 .flatMap(analyzer -> analyzer.getAllDeclarations().stream())
                 .distinct()
                 .sorted()
@@ -175,26 +384,60 @@ public class MultiAnalyzer implements IAnalyzer {
 
     @Override
     public Optional<ProjectFile> getFileFor(String fqName) {
-        return findFirst(analyzer -> analyzer.getFileFor(fqName));
+        return findFirst(fqName, analyzer -> analyzer.getFileFor(fqName));
     }
 
     @Override
     public Optional<CodeUnit> getDefinition(String fqName) {
-        return findFirst(analyzer -> analyzer.getDefinition(fqName));
+        return findFirst(fqName, analyzer -> analyzer.getDefinition(fqName));
     }
 
     @Override
     public List<CodeUnit> searchDefinitions(String pattern) {
-        return delegates.values().stream()
+        if (".*".equals(pattern)) {
+            // Completions asks for everything on each keystroke: merge again only when a delegate's symbols changed,
+            // and return the same list otherwise so that callers can tell nothing changed
+            var parts = delegates.values().parallelStream().map(analyzer -> analyzer.searchDefinitions(pattern)).toList();
+            var cached = allDefinitions;
+            if (cached != null && cached.parts().size() == parts.size()
+                && IntStream.range(0, parts.size()).allMatch(i -> cached.parts().get(i) == parts.get(i))) {
+                return cached.merged();
+            }
+            var merged = parts.stream().flatMap(List::stream).distinct().sorted().toList();
+            allDefinitions = new AllDefinitions(parts, merged);
+            return merged;
+        }
+        return delegates.values().parallelStream()
                 .flatMap(analyzer -> analyzer.searchDefinitions(pattern).stream())
                 .distinct()
                 .sorted()
                 .collect(Collectors.toList());
     }
 
+    @Override
+    public List<CodeUnit> searchDefinitions(String pattern, int limit) {
+        // each delegate returns its first matches in fqName order, so the first of their union are among them
+        return delegates.values().parallelStream()
+                .flatMap(analyzer -> analyzer.searchDefinitions(pattern, limit).stream())
+                .distinct()
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<CodeUnit> searchCamelHumps(String query, int limit) {
+        return delegates.values().parallelStream()
+                .flatMap(analyzer -> analyzer.searchCamelHumps(query, limit).stream())
+                .distinct()
+                .sorted()
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
     @Override
     public Set<String> getSymbols(Set<CodeUnit> sources) {
-        return delegates.values().stream()
+        return delegates.values().parallelStream()
                 .flatMap(analyzer -> {
                     try {
                         return analyzer.getSymbols(sources).stream();
@@ -0,0 +1,216 @@
+package io.github.jbellis.brokk.analyzer;
+
+import scala.Option;
+import scala.Tuple2;
+import scala.collection.immutable.HashMap;
+import scala.collection.immutable.HashMap$;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * A thread-safe {@link Map} over an immutable Scala {@link HashMap}, so that {@link #copy} takes constant time and
+ * the copy shares all of its structure with the original; a write to either replaces only the path to the changed
+ * key. Lookups and writes are O(log n).
+ * <p>
+ * Writes swap in the new version with compare-and-set, so under contention the functions passed to
+ * {@link #compute} and {@link #computeIfPresent} may run more than once, and {@link #computeIfAbsent} may compute
+ * a value that another thread's wins over; none of them may have side effects. Iterators see the version current
+ * when they were created and do not support removal.
+ */
+final class PersistentMap<K, V> extends AbstractMap<K, V> {
+    private final AtomicReference<HashMap<K, V>> current;
+
+    PersistentMap() {
+        this(HashMap$.MODULE$.empty());
+    }
+
+    private PersistentMap(HashMap<K, V> map) {
+        this.current = new AtomicReference<>(map);
+    }
+
+    /** A persistent copy of the given map; constant time if it already is one. */
+    static <K, V> PersistentMap<K, V> copyOf(Map<K, V> map) {
+        if (map instanceof PersistentMap<K, V> persistent) {
+            return persistent.copy();
+        }
+        var builder = HashMap$.MODULE$.<K, V>newBuilder();
+        map.forEach((k, v) -> builder.addOne(new Tuple2<>(k, v)));
+        return new PersistentMap<>(builder.result());
+    }
+
+    /** A map with this map's current contents; later writes to either one are not seen by the other. */
+    PersistentMap<K, V> copy() {
+        return new PersistentMap<>(current.get());
+    }
+
+    @Override
+    public int size() {
+        return current.get().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return current.get().isEmpty();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean containsKey(Object key) {
+        return current.get().contains((K) key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        return valueIn(current.get(), (K) key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return valueIn(current.getAndUpdate(map -> map.updated(key, value)), key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        return valueIn(current.getAndUpdate(map -> map.removed((K) key)), (K) key);
+    }
+
+    /** Removes all the given keys in one write. */
+    void removeAll(Collection<? extends K> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        current.updateAndGet(map -> {
+            var result = map;
+            for (var key : keys) {
+                result = result.removed(key);
+            }
+            return result;
+        });
+    }
+
+    @Override
+    public void clear() {
+        current.set(HashMap$.MODULE$.empty());
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        return valueIn(current.updateAndGet(map -> withValue(map, key, remapping.apply(key, valueIn(map, key)))), key);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remapping) {
+        return valueIn(current.updateAndGet(map -> {
+            var existing = valueIn(map, key);
+            return existing == null ? map : withValue(map, key, remapping.apply(key, existing));
+        }), key);
+    }
+
+    /** Computes the value outside of any lock, so the function may itself read this map. */
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mapping) {
+        var existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        V value = mapping.apply(key);
+        if (value == null) {
+            return null;
+        }
+        return valueIn(current.updateAndGet(map -> map.contains(key) ? map : map.updated(key, value)), key);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                var entries = current.get().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        var entry = entries.next();
+                        return new SimpleImmutableEntry<>(entry._1(), entry._2());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return PersistentMap.this.size();
+            }
+        };
+    }
+
+    /** A set on the same terms, for sets that a new generation copies. */
+    static final class KeySet<E> extends AbstractSet<E> {
+        private final PersistentMap<E, Boolean> map;
+
+        KeySet() {
+            this(new PersistentMap<>());
+        }
+
+        private KeySet(PersistentMap<E, Boolean> map) {
+            this.map = map;
+        }
+
+        /** A set with this set's current elements; later changes to either one are not seen by the other. */
+        KeySet<E> copy() {
+            return new KeySet<>(map.copy());
+        }
+
+        @Override
+        public boolean add(E element) {
+            return map.put(element, Boolean.TRUE) == null;
+        }
+
+        @Override
+        public boolean remove(Object element) {
+            return map.remove(element) != null;
+        }
+
+        @Override
+        public boolean contains(Object element) {
+            return map.containsKey(element);
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return map.keySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return map.isEmpty();
+        }
+    }
+
+    private static <K, V> HashMap<K, V> withValue(HashMap<K, V> map, K key, V value) {
+        return value == null ? map.removed(key) : map.updated(key, value);
+    }
+
+    private static <K, V> V valueIn(HashMap<K, V> map, K key) {
+        Option<V> value = map.get(key);
+        return value.isDefined() ? value.get() : null;
+    }
+}
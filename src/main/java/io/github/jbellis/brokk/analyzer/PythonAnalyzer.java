@@ -144,6 +144,12 @@ public final class PythonAnalyzer extends TreeSitterAnalyzer {
         return ""; // Python uses indentation, no explicit closer for classes/functions
     }
 
+    @Override
+    protected String cacheContext(ProjectFile file) {
+        // the package depends on which directories above the file hold an __init__.py, not just on the path
+        return determinePackageName(file, null, null, null);
+    }
+
     @Override
     protected String determinePackageName(ProjectFile file, TSNode definitionNode, TSNode rootNode, String src) {
         // Python's package naming is directory-based, relative to project root or __init__.py markers.
@@ -0,0 +1,53 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of {@link TreeSitterAnalyzer.Range}s packed into a single int array, four ints per range.
+ * <p>
+ * The analyzer keeps one of these per declaration; compared to a list of Range records this saves the
+ * list wrapper, the backing Object[] and one object header per range. Range objects are materialized on access.
+ */
+final class RangeList extends AbstractList<TreeSitterAnalyzer.Range> implements RandomAccess {
+    private static final RangeList EMPTY = new RangeList(new int[0]);
+
+    private final int[] packed;
+
+    private RangeList(int[] packed) {
+        this.packed = packed;
+    }
+
+    static RangeList copyOf(List<TreeSitterAnalyzer.Range> ranges) {
+        if (ranges instanceof RangeList rangeList) {
+            return rangeList;
+        }
+        if (ranges.isEmpty()) {
+            return EMPTY;
+        }
+        var packed = new int[ranges.size() * 4];
+        int i = 0;
+        for (var range : ranges) {
+            packed[i++] = range.startByte();
+            packed[i++] = range.endByte();
+            packed[i++] = range.startLine();
+            packed[i++] = range.endLine();
+        }
+        return new RangeList(packed);
+    }
+
+    @Override
+    public TreeSitterAnalyzer.Range get(int index) {
+        int i = index * 4;
+        if (index < 0 || i >= packed.length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new TreeSitterAnalyzer.Range(packed[i], packed[i + 1], packed[i + 2], packed[i + 3]);
+    }
+
+    @Override
+    public int size() {
+        return packed.length / 4;
+    }
+}
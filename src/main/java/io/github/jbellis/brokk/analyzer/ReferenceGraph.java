@@ -0,0 +1,169 @@
+package io.github.jbellis.brokk.analyzer;
+
+import scala.Tuple2;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Approximate dependency graph for {@link TreeSitterAnalyzer} languages, derived from the identifiers each
+ * declaration references (see {@link TreeSitterAnalyzer.FileAnalysisResult#references()}) rather than from a
+ * type-resolved CPG.
+ * <p>
+ * An identifier resolves to the declarations with that simple name: classes (including nested ones, by their
+ * innermost name), functions and fields. Declarations in the referencing package win over others with the
+ * same name, and a name that is still declared by more than {@value #MAX_CANDIDATES} different classes is
+ * treated as too common to mean anything (think {@code get} or {@code name}). Every declaration is
+ * represented by its anchor, the top-level class it belongs to, or itself if it is not inside a class;
+ * pagerank runs over the anchors that are classes.
+ * <p>
+ * Immutable; {@link TreeSitterAnalyzer} rebuilds it after files change.
+ */
+final class ReferenceGraph {
+    static final int MAX_CANDIDATES = 3;
+
+    private final Map<CodeUnit, CodeUnit> anchors; // every declaration -> its anchor
+    private final Map<String, CodeUnit> anchorsByFqName; // fqName of every declaration -> its anchor
+    private final Map<String, List<CodeUnit>> anchorsByName; // simple name -> distinct anchors of declarations with that name
+    private final Map<String, List<CodeUnit>> referrersByName; // resolvable simple name -> declarations that reference it
+    private final CsrGraph graph; // over top-level classes, by fqName
+    private final Map<String, CodeUnit> classes; // graph node name -> class
+
+    private ReferenceGraph(Collection<TreeSitterAnalyzer.FileAnalysisResult> results) {
+        anchors = new HashMap<>();
+        anchorsByFqName = new HashMap<>();
+        var anchorSets = new HashMap<String, LinkedHashSet<CodeUnit>>();
+        classes = new HashMap<>();
+        for (var result : results) {
+            for (var top : result.topLevelCUs()) {
+                if (top.isClass()) {
+                    classes.putIfAbsent(top.fqName(), top);
+                }
+                anchorDescendants(top, top, result.children(), anchorSets);
+            }
+        }
+        anchorsByName = new HashMap<>();
+        anchorSets.forEach((name, set) -> anchorsByName.put(name, List.copyOf(set)));
+
+        var referrerSets = new HashMap<String, LinkedHashSet<CodeUnit>>();
+        var builder = new CsrGraph.Builder();
+        classes.keySet().forEach(builder::node);
+        for (var result : results) {
+            var fileClasses = result.topLevelCUs().stream().filter(CodeUnit::isClass).toList();
+            result.references().forEach((referrer, names) -> {
+                var anchor = anchors.get(referrer);
+                if (anchor == null) {
+                    return;
+                }
+                // references from outside any class (imports, module-level code, free functions) couple the file's classes
+                var sources = anchor.isClass() ? List.of(anchor) : fileClasses;
+                names.forEach((name, count) -> {
+                    var targets = resolve(name, referrer.packageName());
+                    if (targets.isEmpty()) {
+                        return;
+                    }
+                    referrerSets.computeIfAbsent(name, k -> new LinkedHashSet<>()).add(referrer);
+                    for (var target : targets) {
+                        if (!target.isClass()) {
+                            continue;
+                        }
+                        for (var source : sources) {
+                            if (!source.equals(target)) {
+                                builder.addEdge(source.fqName(), target.fqName(), count);
+                            }
+                        }
+                    }
+                });
+            });
+        }
+        referrersByName = new HashMap<>();
+        referrerSets.forEach((name, set) -> referrersByName.put(name, List.copyOf(set)));
+        graph = builder.build();
+    }
+
+    static ReferenceGraph build(Collection<TreeSitterAnalyzer.FileAnalysisResult> results) {
+        return new ReferenceGraph(results);
+    }
+
+    private void anchorDescendants(CodeUnit cu,
+                                   CodeUnit anchor,
+                                   Map<CodeUnit, List<CodeUnit>> children,
+                                   Map<String, LinkedHashSet<CodeUnit>> anchorSets) {
+        if (anchors.putIfAbsent(cu, anchor) != null) {
+            return; // declared by another file as well (e.g. a partial class), or a cycle
+        }
+        anchorsByFqName.put(cu.fqName(), anchor);
+        if (!cu.isModule()) {
+            anchorSets.computeIfAbsent(simpleName(cu), k -> new LinkedHashSet<>()).add(anchor);
+        }
+        for (var kid : children.getOrDefault(cu, List.of())) {
+            anchorDescendants(kid, anchor, children, anchorSets);
+        }
+    }
+
+    /** The name code uses to refer to the declaration: the innermost class name, or the member name. */
+    private static String simpleName(CodeUnit cu) {
+        var identifier = cu.identifier();
+        int separator = Math.max(identifier.lastIndexOf('$'), identifier.lastIndexOf('.'));
+        return identifier.substring(separator + 1);
+    }
+
+    /** The anchors an identifier used in the given package most likely refers to; empty if unknown or too common. */
+    private List<CodeUnit> resolve(String name, String fromPackage) {
+        var candidates = anchorsByName.getOrDefault(name, List.of());
+        if (candidates.size() > 1) {
+            var local = candidates.stream().filter(a -> a.packageName().equals(fromPackage)).toList();
+            if (!local.isEmpty()) {
+                candidates = local;
+            }
+        }
+        return candidates.size() <= MAX_CANDIDATES ? candidates : List.of();
+    }
+
+    /**
+     * Personalized pagerank over the top-level classes; seeds are mapped to their anchors, and the seeds'
+     * own classes are left out of the result, as are classes with a zero score.
+     */
+    List<Tuple2<CodeUnit, Double>> pagerank(Map<String, Double> seedWeights, int k, boolean reversed) {
+        var seeds = new HashMap<String, Double>();
+        seedWeights.forEach((fqName, weight) -> {
+            var anchor = anchorsByFqName.get(fqName);
+            if (anchor != null && anchor.isClass()) {
+                seeds.merge(anchor.fqName(), weight, Double::sum);
+            }
+        });
+        var scores = graph.pagerank(seeds, reversed);
+        return CsrGraph.byDescendingScore(scores).stream()
+                .filter(id -> scores[id] > 0 && !seeds.containsKey(graph.name(id)))
+                .limit(k)
+                .map(id -> new Tuple2<>(classes.get(graph.name(id)), scores[id]))
+                .toList();
+    }
+
+    /**
+     * Declarations that reference the target by name, where that name resolves to the target's anchor from
+     * the referrer's package. References from within the target itself are not uses.
+     */
+    Set<CodeUnit> uses(CodeUnit target) {
+        var anchor = anchors.get(target);
+        if (anchor == null) {
+            return Set.of();
+        }
+        var name = simpleName(target);
+        var prefix = target.fqName() + ".";
+        var result = new LinkedHashSet<CodeUnit>();
+        for (var referrer : referrersByName.getOrDefault(name, List.of())) {
+            if (referrer.equals(target) || referrer.fqName().startsWith(prefix)) {
+                continue;
+            }
+            if (resolve(name, referrer.packageName()).contains(anchor)) {
+                result.add(referrer);
+            }
+        }
+        return result;
+    }
+}
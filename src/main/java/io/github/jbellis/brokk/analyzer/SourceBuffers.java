@@ -0,0 +1,117 @@
+package io.github.jbellis.brokk.analyzer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Optional;
+
+/**
+ * Shared LRU of raw file bytes for slicing declaration sources out of files by the UTF-8 byte offsets
+ * that tree-sitter reports.
+ * <p>
+ * Slicing decodes only the requested range, so repeated source lookups in the same file neither re-read
+ * nor re-decode the whole file, and non-ASCII content is cut at the right place (offsets are bytes, not chars).
+ * Entries are validated against the file's size and mtime on every access and evicted least-recently-used
+ * once the total exceeds the byte budget.
+ * <p>
+ * Buffers are plain heap arrays rather than memory-mapped files: on Windows a mapped file cannot be
+ * modified or deleted until the mapping is garbage collected, which would interfere with the user's edits.
+ */
+final class SourceBuffers {
+    private static final Logger logger = LogManager.getLogger(SourceBuffers.class);
+
+    private static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    /** Shared by all tree-sitter analyzers so that the budget applies to the process, not per language. */
+    static final SourceBuffers SHARED = new SourceBuffers(DEFAULT_BUDGET_BYTES);
+
+    /** File contents as parsed: a leading UTF-8 BOM is skipped by {@code offset}, matching the analyzer's ranges. */
+    private record Buffer(long size, long mtime, byte[] bytes, int offset) {
+        int length() {
+            return bytes.length - offset;
+        }
+
+        String slice(int startByte, int endByte) {
+            return new String(bytes, offset + startByte, endByte - startByte, StandardCharsets.UTF_8);
+        }
+    }
+
+    private final long budgetBytes;
+    private final LinkedHashMap<Path, Buffer> buffers = new LinkedHashMap<>(16, 0.75f, true); // access order
+    private long residentBytes;
+
+    SourceBuffers(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns the text between the given byte offsets of the file, or empty if the file cannot be read
+     * or the range does not fit its current contents.
+     */
+    Optional<String> slice(ProjectFile file, int startByte, int endByte) {
+        Buffer buffer;
+        try {
+            buffer = buffer(file.absPath());
+        } catch (IOException e) {
+            logger.warn("Could not read source {}: {}", file, e.getMessage());
+            return Optional.empty();
+        }
+        if (startByte < 0 || endByte > buffer.length() || startByte >= endByte) {
+            logger.warn("Invalid byte range [{}, {}] for {} of length {}", startByte, endByte, file, buffer.length());
+            return Optional.empty();
+        }
+        return Optional.of(buffer.slice(startByte, endByte));
+    }
+
+    /** Drops the cached bytes for the file, e.g. after it was changed or deleted. */
+    synchronized void invalidate(ProjectFile file) {
+        var removed = buffers.remove(file.absPath());
+        if (removed != null) {
+            residentBytes -= removed.bytes().length;
+        }
+    }
+
+    private Buffer buffer(Path path) throws IOException {
+        long size = Files.size(path);
+        long mtime = Files.getLastModifiedTime(path).toMillis();
+        synchronized (this) {
+            var cached = buffers.get(path);
+            if (cached != null && cached.size() == size && cached.mtime() == mtime) {
+                return cached;
+            }
+        }
+
+        // read outside the lock; a concurrent reader of the same file just does redundant work
+        var bytes = Files.readAllBytes(path);
+        var buffer = new Buffer(size, mtime, bytes, hasBom(bytes) ? 3 : 0);
+        synchronized (this) {
+            var previous = buffers.put(path, buffer);
+            if (previous != null) {
+                residentBytes -= previous.bytes().length;
+            }
+            residentBytes += bytes.length;
+            var it = buffers.entrySet().iterator();
+            while (residentBytes > budgetBytes && it.hasNext()) {
+                var eldest = it.next();
+                if (eldest.getValue() == buffer) {
+                    break; // never evict the entry we are about to return
+                }
+                residentBytes -= eldest.getValue().bytes().length;
+                it.remove();
+            }
+        }
+        return buffer;
+    }
+
+    private static boolean hasBom(byte[] bytes) {
+        return bytes.length >= 3
+               && (bytes[0] & 0xFF) == 0xEF
+               && (bytes[1] & 0xFF) == 0xBB
+               && (bytes[2] & 0xFF) == 0xBF;
+    }
+}
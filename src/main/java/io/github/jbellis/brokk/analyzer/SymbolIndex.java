@@ -0,0 +1,199 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Immutable lookup tables over the declarations discovered by a {@link TreeSitterAnalyzer}.
+ * <p>
+ * Built once from the analyzer's top-level and parent/child maps so that point queries
+ * (by fully-qualified name, by identifier, by file, by parent) are hash lookups rather than
+ * scans over every CodeUnit. When individual files are re-analyzed, {@link #withFilesReplaced}
+ * derives a new index that only re-walks the changed files and shares the rest of its tables with this one.
+ * <p>
+ * CodeUnit equality ignores the source file, so the same symbol declared in two files (e.g. C# partial
+ * classes) is recorded once per declaring file; lookups return the first, and {@link #all()} de-duplicates.
+ */
+final class SymbolIndex {
+    /** Preferred order when several kinds share an fqName: class, then method, then field, then module. */
+    private static final Comparator<CodeUnit> KIND_PREFERENCE = Comparator.comparingInt(cu -> switch (cu.kind()) {
+        case CLASS -> 0;
+        case FUNCTION -> 1;
+        case FIELD -> 2;
+        case MODULE -> 3;
+    });
+
+    static final SymbolIndex EMPTY = new SymbolIndex(Map.of(), Map.of(), Map.of(), Map.of());
+
+    private final Map<String, List<CodeUnit>> byFqName;
+    private final Map<String, List<CodeUnit>> byIdentifier;
+    private final Map<ProjectFile, Set<CodeUnit>> byFile;
+    private final Map<CodeUnit, List<CodeUnit>> childrenByParent;
+
+    private SymbolIndex(Map<String, List<CodeUnit>> byFqName,
+                        Map<String, List<CodeUnit>> byIdentifier,
+                        Map<ProjectFile, Set<CodeUnit>> byFile,
+                        Map<CodeUnit, List<CodeUnit>> childrenByParent)
+    {
+        this.byFqName = byFqName;
+        this.byIdentifier = byIdentifier;
+        this.byFile = byFile;
+        this.childrenByParent = childrenByParent;
+    }
+
+    /**
+     * Builds the index from per-file top-level declarations and the parent -> children map.
+     * Every CodeUnit reachable from a file's top-level declarations is attributed to that file.
+     */
+    static SymbolIndex build(Map<ProjectFile, List<CodeUnit>> topLevelDeclarations,
+                             Map<CodeUnit, List<CodeUnit>> childrenByParent)
+    {
+        var byFqName = new HashMap<String, List<CodeUnit>>();
+        var byIdentifier = new HashMap<String, List<CodeUnit>>();
+        var byFile = new HashMap<ProjectFile, Set<CodeUnit>>(topLevelDeclarations.size() * 2);
+
+        topLevelDeclarations.forEach((file, topCUs) -> {
+            var declarations = reachableFrom(topCUs, childrenByParent);
+            byFile.put(file, declarations);
+            declarations.forEach(cu -> {
+                append(byFqName, cu.fqName(), cu);
+                append(byIdentifier, cu.identifier(), cu);
+            });
+        });
+        // parents and children that are not reachable from any top-level declaration (e.g. unresolved nesting)
+        childrenByParent.forEach((parent, kids) -> Stream.concat(Stream.of(parent), kids.stream()).forEach(cu -> {
+            append(byFqName, cu.fqName(), cu);
+            append(byIdentifier, cu.identifier(), cu);
+        }));
+        byFqName.replaceAll((k, v) -> v.stream().sorted(KIND_PREFERENCE).toList());
+        byIdentifier.replaceAll((k, v) -> v.stream().sorted(KIND_PREFERENCE).toList());
+
+        return new SymbolIndex(PersistentMap.copyOf(byFqName),
+                               PersistentMap.copyOf(byIdentifier),
+                               PersistentMap.copyOf(byFile),
+                               Collections.unmodifiableMap(childrenByParent));
+    }
+
+    /**
+     * Returns a new index in which the declarations of {@code changedFiles} reflect the given (already updated)
+     * analyzer maps. Files no longer present in {@code topLevelDeclarations} are dropped. Cost is proportional
+     * to the size of the changed files; the lookup tables are persistent, so copying them takes constant time.
+     */
+    SymbolIndex withFilesReplaced(Set<ProjectFile> changedFiles,
+                                  Map<ProjectFile, List<CodeUnit>> topLevelDeclarations,
+                                  Map<CodeUnit, List<CodeUnit>> childrenByParent)
+    {
+        var newByFqName = PersistentMap.copyOf(byFqName);
+        var newByIdentifier = PersistentMap.copyOf(byIdentifier);
+        var newByFile = PersistentMap.copyOf(byFile);
+
+        for (var file : changedFiles) {
+            var old = newByFile.remove(file);
+            if (old == null) {
+                continue;
+            }
+            old.stream()
+               .filter(cu -> cu.source().equals(file))
+               .forEach(cu -> {
+                   remove(newByFqName, cu.fqName(), cu);
+                   remove(newByIdentifier, cu.identifier(), cu);
+               });
+        }
+        for (var file : changedFiles) {
+            var topCUs = topLevelDeclarations.get(file);
+            if (topCUs == null) {
+                continue;
+            }
+            var declarations = reachableFrom(topCUs, childrenByParent);
+            newByFile.put(file, declarations);
+            declarations.forEach(cu -> {
+                add(newByFqName, cu.fqName(), cu);
+                add(newByIdentifier, cu.identifier(), cu);
+            });
+        }
+
+        return new SymbolIndex(newByFqName, newByIdentifier, newByFile, Collections.unmodifiableMap(childrenByParent));
+    }
+
+    private static Set<CodeUnit> reachableFrom(List<CodeUnit> topCUs, Map<CodeUnit, List<CodeUnit>> childrenByParent) {
+        var declarations = new LinkedHashSet<CodeUnit>();
+        var toProcess = new ArrayDeque<>(topCUs);
+        while (!toProcess.isEmpty()) {
+            var current = toProcess.poll();
+            if (declarations.add(current)) {
+                toProcess.addAll(childrenByParent.getOrDefault(current, List.of()));
+            }
+        }
+        return Collections.unmodifiableSet(declarations);
+    }
+
+    /** Bulk-build insert into a mutable bucket; buckets are sorted and frozen once the build completes. */
+    private static void append(Map<String, List<CodeUnit>> index, String key, CodeUnit cu) {
+        var bucket = index.computeIfAbsent(key, k -> new ArrayList<>(1));
+        if (bucket.stream().noneMatch(other -> sameDeclaration(other, cu))) {
+            bucket.add(cu);
+        }
+    }
+
+    /** Copy-on-write insert keeping one entry per (CodeUnit, source file) and kind-preference order. */
+    private static void add(Map<String, List<CodeUnit>> index, String key, CodeUnit cu) {
+        var existing = index.getOrDefault(key, List.of());
+        if (existing.stream().anyMatch(other -> sameDeclaration(other, cu))) {
+            return;
+        }
+        index.put(key, Stream.concat(existing.stream(), Stream.of(cu)).sorted(KIND_PREFERENCE).toList());
+    }
+
+    private static void remove(Map<String, List<CodeUnit>> index, String key, CodeUnit cu) {
+        var existing = index.get(key);
+        if (existing == null) {
+            return;
+        }
+        var remaining = existing.stream().filter(other -> !sameDeclaration(other, cu)).toList();
+        if (remaining.isEmpty()) {
+            index.remove(key);
+        } else {
+            index.put(key, remaining);
+        }
+    }
+
+    private static boolean sameDeclaration(CodeUnit a, CodeUnit b) {
+        return a.equals(b) && a.source().equals(b.source());
+    }
+
+    /** The preferred CodeUnit for the given fully-qualified name (class over method over field). */
+    Optional<CodeUnit> definition(String fqName) {
+        var matches = byFqName.get(fqName);
+        return matches == null ? Optional.empty() : Optional.of(matches.getFirst());
+    }
+
+    /** All CodeUnits (of any kind) with the given fully-qualified name, in kind-preference order. */
+    List<CodeUnit> definitions(String fqName) {
+        return byFqName.getOrDefault(fqName, List.of());
+    }
+
+    /** All CodeUnits whose {@link CodeUnit#identifier()} equals the given simple name. */
+    List<CodeUnit> byIdentifier(String identifier) {
+        return byIdentifier.getOrDefault(identifier, List.of());
+    }
+
+    /** Every declaration in the file, including nested members. */
+    Set<CodeUnit> declarationsIn(ProjectFile file) {
+        return byFile.getOrDefault(file, Set.of());
+    }
+
+    List<CodeUnit> childrenOf(CodeUnit parent) {
+        return childrenByParent.getOrDefault(parent, List.of());
+    }
+
+    /** Every known CodeUnit exactly once. */
+    Stream<CodeUnit> all() {
+        // equal CodeUnits always share an fqName, so de-duplicating within each bucket is sufficient
+        return byFqName.values().stream()
+                       .flatMap(cus -> cus.size() == 1 ? cus.stream() : cus.stream().distinct());
+    }
+
+    int size() {
+        return byFqName.size();
+    }
+}
@@ -0,0 +1,574 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * Substring, regex and camel-hump search over a fixed set of declarations, shared by the CPG and tree-sitter
+ * analyzers so that symbol search does not test every symbol.
+ * <p>
+ * Every trigram of every (lowercased) fqName maps to the sorted ids of the units containing it. A query is
+ * answered by intersecting the posting lists of the trigrams it must contain, shortest first, and testing only
+ * the candidates that survive. An identifier is always a suffix of its fqName, so the same postings narrow
+ * identifier queries. Camel-hump queries use a second, much smaller table keyed by the first one and two
+ * characters of every hump of every identifier.
+ * <p>
+ * Units are kept in fqName order, so limited results are the alphabetically first matches. Immutable.
+ */
+final class SymbolSearchIndex {
+    static final SymbolSearchIndex EMPTY = build(List.of());
+
+    /** Inline flags that turn on comment mode, where whitespace and # in the regex are not literals. */
+    private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-wyzA-Z-]*x");
+    /** Below this many symbols per chunk, indexing in parallel is not worth the merge. */
+    private static final int MIN_CHUNK_SIZE = 50_000;
+
+    private final CodeUnit[] units; // sorted by fqName
+    private final List<CodeUnit> all; // the same list every time, so callers can tell when the index changed
+    private final String[] lowerFqNames;
+    private final PostingTable trigrams;
+    private final PostingTable humpStarts;
+
+    private SymbolSearchIndex(CodeUnit[] units, String[] lowerFqNames, PostingTable trigrams, PostingTable humpStarts) {
+        this.units = units;
+        this.all = Collections.unmodifiableList(Arrays.asList(units));
+        this.lowerFqNames = lowerFqNames;
+        this.trigrams = trigrams;
+        this.humpStarts = humpStarts;
+    }
+
+    static SymbolSearchIndex build(Collection<CodeUnit> declarations) {
+        var units = declarations.stream().distinct().sorted().toArray(CodeUnit[]::new);
+        var lowerFqNames = new String[units.length];
+        // ids are split into contiguous chunks indexed in parallel; merging the chunks in order keeps lists ascending
+        int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), units.length / MIN_CHUNK_SIZE));
+        int chunkSize = (units.length + chunks - 1) / Math.max(1, chunks);
+        var parts = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    var part = new PostingTable[] {new PostingTable(), new PostingTable()};
+                    for (int id = chunk * chunkSize; id < Math.min(units.length, (chunk + 1) * chunkSize); id++) {
+                        index(id, units[id], lowerFqNames, part[0], part[1]);
+                    }
+                    return part;
+                })
+                .toList();
+        var trigrams = PostingTable.merge(parts.stream().map(part -> part[0]).toList());
+        var humpStarts = PostingTable.merge(parts.stream().map(part -> part[1]).toList());
+        return new SymbolSearchIndex(units, lowerFqNames, trigrams, humpStarts);
+    }
+
+    private static void index(int id, CodeUnit unit, String[] lowerFqNames, PostingTable trigrams, PostingTable humpStarts) {
+        lowerFqNames[id] = lower(unit.fqName());
+        for (long key : distinctTrigrams(lowerFqNames[id])) {
+            trigrams.add(key, id);
+        }
+        var humps = humps(unit.identifier());
+        var starts = new long[humps.size() * 2];
+        int n = 0;
+        for (var hump : humps) {
+            starts[n++] = humpStartKey(hump, 1);
+            if (hump.length() > 1) {
+                starts[n++] = humpStartKey(hump, 2);
+            }
+        }
+        for (long key : distinct(starts, n)) {
+            humpStarts.add(key, id);
+        }
+    }
+
+    int size() {
+        return units.length;
+    }
+
+    /** Every unit, in fqName order; the same instance on every call. */
+    List<CodeUnit> all() {
+        return all;
+    }
+
+    /** Units whose fqName contains the text, optionally ignoring case. */
+    List<CodeUnit> containing(String text, boolean ignoreCase, int limit) {
+        var lowerText = lower(text);
+        IntPredicate matches = ignoreCase
+                               ? id -> lowerFqNames[id].contains(lowerText)
+                               : id -> units[id].fqName().contains(text);
+        return collect(candidates(List.of(lowerText)), matches, limit);
+    }
+
+    /**
+     * Units whose identifier the regex matches in full. Only units containing every literal the regex requires
+     * (see {@link #requiredLiterals}) are tested, so the index helps exactly when the regex has such a literal.
+     */
+    List<CodeUnit> matchingIdentifier(Pattern regex, int limit) {
+        var literals = requiredLiterals(regex.pattern()).stream().map(SymbolSearchIndex::lower).toList();
+        return collect(candidates(literals), id -> regex.matcher(units[id].identifier()).matches(), limit);
+    }
+
+    /**
+     * Units whose identifier matches a camel-hump abbreviation: every hump of the query (split before each upper
+     * case letter and at separators) is a prefix of a hump of the identifier, in order. For example {@code NPE},
+     * {@code NuPoEx} and {@code PointerExc} all match {@code NullPointerException}. Case is ignored.
+     */
+    List<CodeUnit> camelHumps(String query, int limit) {
+        var segments = queryHumps(query);
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        var lists = new ArrayList<int[]>();
+        for (var segment : segments) {
+            var ids = humpStarts.get(humpStartKey(segment, Math.min(2, segment.length())));
+            if (ids == null) {
+                return List.of();
+            }
+            lists.add(ids);
+        }
+        return collect(intersectAll(lists), id -> matchesHumps(humps(units[id].identifier()), segments), limit);
+    }
+
+    private List<CodeUnit> collect(int[] candidateIds, IntPredicate matches, int limit) {
+        var result = new ArrayList<CodeUnit>();
+        int count = candidateIds == null ? units.length : candidateIds.length;
+        for (int i = 0; i < count && result.size() < limit; i++) {
+            int id = candidateIds == null ? i : candidateIds[i];
+            if (matches.test(id)) {
+                result.add(units[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ids of the units whose lowercased fqName contains every trigram of the given lowercased literals, or null
+     * if the literals have no trigrams and every unit is a candidate.
+     */
+    private int[] candidates(Collection<String> lowerLiterals) {
+        var lists = new ArrayList<int[]>();
+        for (var literal : lowerLiterals) {
+            for (long key : distinctTrigrams(literal)) {
+                var ids = trigrams.get(key);
+                if (ids == null) {
+                    return new int[0];
+                }
+                lists.add(ids);
+            }
+        }
+        return lists.isEmpty() ? null : intersectAll(lists);
+    }
+
+    private static int[] intersectAll(List<int[]> lists) {
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        var result = lists.getFirst();
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i));
+        }
+        return result;
+    }
+
+    /** Intersection of two sorted id lists; binary searches the longer one when the lengths are far apart. */
+    private static int[] intersect(int[] shorter, int[] longer) {
+        var out = new int[shorter.length];
+        int n = 0;
+        if (longer.length > 8 * shorter.length) {
+            int from = 0;
+            for (int id : shorter) {
+                int pos = Arrays.binarySearch(longer, from, longer.length, id);
+                if (pos >= 0) {
+                    out[n++] = id;
+                    from = pos + 1;
+                } else {
+                    from = -pos - 1;
+                }
+            }
+        } else {
+            for (int i = 0, j = 0; i < shorter.length && j < longer.length; ) {
+                if (shorter[i] < longer[j]) {
+                    i++;
+                } else if (shorter[i] > longer[j]) {
+                    j++;
+                } else {
+                    out[n++] = shorter[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static long[] distinctTrigrams(String s) {
+        if (s.length() < 3) {
+            return new long[0];
+        }
+        var keys = new long[s.length() - 2];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+        return distinct(keys, keys.length);
+    }
+
+    /** The first {@code n} keys, sorted and without duplicates. */
+    private static long[] distinct(long[] keys, int n) {
+        Arrays.sort(keys, 0, n);
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (m == 0 || keys[i] != keys[m - 1]) {
+                keys[m++] = keys[i];
+            }
+        }
+        return m == keys.length ? keys : Arrays.copyOf(keys, m);
+    }
+
+    /** The first one or two characters of a lowercased hump, as a key. */
+    private static long humpStartKey(String hump, int length) {
+        return ((long) hump.charAt(0) << 16) | (length == 1 ? 0xFFFF : hump.charAt(1));
+    }
+
+    /** Lower case char by char, so that a lowered string contains the lowered form of everything the original contains. */
+    private static String lower(String s) {
+        var chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /* ---------- camel humps ---------- */
+
+    /**
+     * Lowercased humps of an identifier: a hump starts after a separator, at an upper case letter following a
+     * lower case letter or digit, and at the last upper case letter of a run followed by lower case
+     * ({@code HTTPServer} is {@code http}, {@code server}).
+     */
+    static List<String> humps(String identifier) {
+        var humps = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i < identifier.length(); i++) {
+            char c = identifier.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                if (start >= 0) {
+                    humps.add(lower(identifier.substring(start, i)));
+                    start = -1;
+                }
+                continue;
+            }
+            if (start >= 0 && Character.isUpperCase(c)) {
+                char prev = identifier.charAt(i - 1);
+                boolean endsAcronym = i + 1 < identifier.length() && Character.isLowerCase(identifier.charAt(i + 1));
+                if (!Character.isUpperCase(prev) || endsAcronym) {
+                    humps.add(lower(identifier.substring(start, i)));
+                    start = i;
+                }
+            }
+            if (start < 0) {
+                start = i;
+            }
+        }
+        if (start >= 0) {
+            humps.add(lower(identifier.substring(start)));
+        }
+        return humps;
+    }
+
+    /** Lowercased humps of a query, where every upper case letter starts a new hump. */
+    private static List<String> queryHumps(String query) {
+        var segments = new ArrayList<String>();
+        var current = new StringBuilder();
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (!Character.isLetterOrDigit(c) || Character.isUpperCase(c)) {
+                if (!current.isEmpty()) {
+                    segments.add(current.toString());
+                    current.setLength(0);
+                }
+                if (!Character.isLetterOrDigit(c)) {
+                    continue;
+                }
+            }
+            current.append(Character.toLowerCase(c));
+        }
+        if (!current.isEmpty()) {
+            segments.add(current.toString());
+        }
+        return segments;
+    }
+
+    /** Greedy is exact here: taking the earliest hump each segment fits never rules out a later segment. */
+    private static boolean matchesHumps(List<String> humps, List<String> segments) {
+        int h = 0;
+        for (var segment : segments) {
+            while (h < humps.size() && !humps.get(h).startsWith(segment)) {
+                h++;
+            }
+            if (h == humps.size()) {
+                return false;
+            }
+            h++;
+        }
+        return true;
+    }
+
+    /* ---------- regex literals ---------- */
+
+    /**
+     * Literal strings of at least three characters that every match of the regex contains. This is conservative:
+     * literals inside groups and character classes are ignored, a character made optional by a quantifier ends
+     * the literal before it, and a regex with alternation or comment mode requires nothing.
+     */
+    static List<String> requiredLiterals(String regex) {
+        if (regex.indexOf('|') >= 0 || COMMENTS_FLAG.matcher(regex).find()) {
+            return List.of();
+        }
+        var literals = new ArrayList<String>();
+        var run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            String literal = null; // the literal this token matches, or null if it matches something else
+            int next;
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                if (escaped == 'Q') {
+                    int end = regex.indexOf("\\E", i + 2);
+                    literal = end < 0 ? regex.substring(i + 2) : regex.substring(i + 2, end);
+                    next = end < 0 ? regex.length() : end + 2;
+                } else if (Character.isLetterOrDigit(escaped)) {
+                    next = skipEscape(regex, i + 1);
+                } else {
+                    literal = String.valueOf(escaped);
+                    next = i + 2;
+                }
+            } else if (c == '[') {
+                next = skipClass(regex, i);
+            } else if (c == '(') {
+                next = skipGroup(regex, i);
+            } else if (c == '.' || c == '^' || c == '$' || c == ')') {
+                next = i + 1;
+            } else {
+                literal = String.valueOf(c);
+                next = i + 1;
+            }
+
+            // a quantifier applies to the last character of the token
+            boolean optional = false;
+            boolean repeated = false;
+            if (next < regex.length()) {
+                char q = regex.charAt(next);
+                if (q == '?' || q == '*' || q == '+') {
+                    optional = q != '+';
+                    repeated = true;
+                    next++;
+                } else if (q == '{') {
+                    int close = regex.indexOf('}', next);
+                    optional = next + 1 < regex.length() && regex.charAt(next + 1) == '0';
+                    repeated = true;
+                    next = close < 0 ? regex.length() : close + 1;
+                }
+                if (repeated && next < regex.length() && (regex.charAt(next) == '?' || regex.charAt(next) == '+')) {
+                    next++; // lazy or possessive
+                }
+            }
+
+            if (literal != null && literal.isEmpty()) {
+                i = next; // an empty \Q\E block matches nothing
+                continue;
+            }
+            if (literal != null) {
+                run.append(optional ? literal.substring(0, literal.length() - 1) : literal);
+            }
+            if (literal == null || repeated) {
+                flush(run, literals);
+            }
+            i = next;
+        }
+        flush(run, literals);
+        return literals;
+    }
+
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() >= 3) {
+            literals.add(run.toString());
+        }
+        run.setLength(0);
+    }
+
+    /** Index after an escape that starts with a letter or digit at {@code i} (e.g. \w, \x41, \p{Lu}, \k<name>). */
+    private static int skipEscape(String regex, int i) {
+        char c = regex.charAt(i);
+        int next = i + 1;
+        if ((c == 'p' || c == 'P' || c == 'x' || c == 'N') && next < regex.length() && regex.charAt(next) == '{') {
+            int close = regex.indexOf('}', next);
+            return close < 0 ? regex.length() : close + 1;
+        }
+        if (c == 'k' && next < regex.length() && regex.charAt(next) == '<') {
+            int close = regex.indexOf('>', next);
+            return close < 0 ? regex.length() : close + 1;
+        }
+        int fixed = switch (c) {
+            case 'x' -> 2;
+            case 'u' -> 4;
+            case 'c', 'p', 'P' -> 1;
+            default -> 0;
+        };
+        next = Math.min(regex.length(), next + fixed);
+        if (c == '0' || Character.isDigit(c)) {
+            while (next < regex.length() && Character.isDigit(regex.charAt(next))) {
+                next++;
+            }
+        }
+        return next;
+    }
+
+    /** Index after the character class opening at {@code i}. */
+    private static int skipClass(String regex, int i) {
+        int j = i + 1;
+        if (j < regex.length() && regex.charAt(j) == '^') {
+            j++;
+        }
+        if (j < regex.length() && regex.charAt(j) == ']') {
+            j++; // a leading ] is literal
+        }
+        int depth = 1;
+        while (j < regex.length() && depth > 0) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+            j++;
+        }
+        return j;
+    }
+
+    /** Index after the group opening at {@code i}, including nested groups and classes. */
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        int j = i;
+        while (j < regex.length()) {
+            char c = regex.charAt(j);
+            if (c == '\\') {
+                j += 2;
+                continue;
+            }
+            if (c == '[') {
+                j = skipClass(regex, j);
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return j + 1;
+            }
+            j++;
+        }
+        return j;
+    }
+
+    /**
+     * Posting lists by key. Keys are looked up in an open-addressing table of primitive longs, since that lookup
+     * is most of the build time; the lists are filled in ascending id order, then merged and frozen into arrays.
+     */
+    private static final class PostingTable {
+        private long[] keys = new long[1024]; // key + 1, so that 0 marks an empty slot
+        private int[] listIndexes = new int[1024];
+        private int size;
+        private List<IntList> building = new ArrayList<>();
+        private int[][] lists;
+
+        void add(long key, int id) {
+            listFor(key).add(id);
+        }
+
+        /** One table holding the lists of all parts, each list concatenated in the order of the parts. */
+        static PostingTable merge(List<PostingTable> parts) {
+            var merged = parts.getFirst();
+            for (var part : parts.subList(1, parts.size())) {
+                for (int slot = 0; slot < part.keys.length; slot++) {
+                    if (part.keys[slot] != 0) {
+                        merged.listFor(part.keys[slot] - 1).addAll(part.building.get(part.listIndexes[slot]));
+                    }
+                }
+            }
+            merged.lists = merged.building.stream().map(IntList::toArray).toArray(int[][]::new);
+            merged.building = null;
+            return merged;
+        }
+
+        private IntList listFor(long key) {
+            int slot = slot(key);
+            if (keys[slot] == 0) {
+                keys[slot] = key + 1;
+                listIndexes[slot] = building.size();
+                building.add(new IntList());
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                slot = slot(key);
+            }
+            return building.get(listIndexes[slot]);
+        }
+
+        /** The ascending ids added under the key, or null if there are none. */
+        int[] get(long key) {
+            int slot = slot(key);
+            return keys[slot] == 0 ? null : lists[listIndexes[slot]];
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+            while (keys[slot] != 0 && keys[slot] != key + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            var oldKeys = keys;
+            var oldIndexes = listIndexes;
+            keys = new long[oldKeys.length * 2];
+            listIndexes = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slot(oldKeys[i] - 1);
+                    keys[slot] = oldKeys[i];
+                    listIndexes[slot] = oldIndexes[i];
+                }
+            }
+        }
+    }
+
+    /** Growable list of ascending ids. */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            if (size + other.size > values.length) {
+                values = Arrays.copyOf(values, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
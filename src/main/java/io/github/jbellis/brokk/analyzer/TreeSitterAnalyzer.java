@@ -1,9 +1,14 @@
 package io.github.jbellis.brokk.analyzer;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import io.github.jbellis.brokk.IProject;
+import io.github.jbellis.brokk.git.GitRepo;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.treesitter.*;
+import scala.Tuple2;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -13,8 +18,9 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Generic, language-agnostic skeleton extractor backed by Tree-sitter.
@@ -23,21 +29,43 @@ import java.util.concurrent.ConcurrentHashMap;
  * Subclasses provide the language–specific bits: which Tree-sitter grammar,
  * which file extensions, which query, and how to map a capture to a {@link CodeUnit}.
  */
-public abstract class TreeSitterAnalyzer implements IAnalyzer {
+public abstract class TreeSitterAnalyzer implements IAnalyzer, Cloneable {
     protected static final Logger log = LoggerFactory.getLogger(TreeSitterAnalyzer.class);
     // Native library loading is assumed automatic by the io.github.bonede.tree_sitter library.
 
+    /** Projects with at least this many files of the language are analyzed lazily; override with -Dbrokk.analyzer.lazyMinFiles. */
+    static final String LAZY_MIN_FILES_PROPERTY = "brokk.analyzer.lazyMinFiles";
+    private static final int DEFAULT_LAZY_MIN_FILES = 20_000;
+    private static final int MIN_WARMUP_BATCH = 256;
+    static final Interner<String> REFERENCE_NAMES = Interners.newWeakInterner(); // identifiers recur across files; shared with TreeSitterCache
+
     /* ---------- instance state ---------- */
+    // The maps below belong to one generation of the analyzer: update() gives the copy it returns its own (see copy),
+    // which shares their structure, so deriving a generation costs only what the changed files touch
     private final ThreadLocal<TSLanguage> threadLocalLanguage = ThreadLocal.withInitial(this::createTSLanguage);
     private final ThreadLocal<TSQuery> query;
-    final Map<ProjectFile, List<CodeUnit>> topLevelDeclarations = new ConcurrentHashMap<>(); // package-private for testing
-    final Map<CodeUnit, List<CodeUnit>> childrenByParent = new ConcurrentHashMap<>(); // package-private for testing
-    final Map<CodeUnit, List<String>> signatures = new ConcurrentHashMap<>(); // package-private for testing
-    private final Map<CodeUnit, List<Range>> sourceRanges = new ConcurrentHashMap<>();
+    PersistentMap<ProjectFile, List<CodeUnit>> topLevelDeclarations = new PersistentMap<>(); // package-private for testing
+    PersistentMap<CodeUnit, List<CodeUnit>> childrenByParent = new PersistentMap<>(); // package-private for testing
+    PersistentMap<CodeUnit, List<String>> signatures = new PersistentMap<>(); // package-private for testing
+    private PersistentMap<CodeUnit, List<Range>> sourceRanges = new PersistentMap<>();
+    private PersistentMap<ProjectFile, FileAnalysisResult> fileResults = new PersistentMap<>(); // per-file contributions, for incremental updates
+    private volatile SymbolIndex symbolIndex;
+    private volatile PersistentMap<CodeUnit, String> skeletonCache = new PersistentMap<>(); // replaced, not cleared, when files load
+    private final ThreadLocal<EncodedSource> lastEncodedSource = new ThreadLocal<>(); // see utf8Bytes
     private final IProject project;
     private final Language language;
     protected final Set<String> normalizedExcludedFiles;
 
+    /* ---------- lazy mode: see ensureLoaded ---------- */
+    private PersistentMap.KeySet<ProjectFile> pendingFiles = new PersistentMap.KeySet<>(); // analyzable but not yet parsed
+    // Shared by every generation
+    private final Map<String, List<ProjectFile>> filesByName = new HashMap<>(); // lower-case file stem or directory name -> files
+    private final Queue<ProjectFile> warmupHints = new ConcurrentLinkedQueue<>(); // see prioritize
+    private final AtomicReference<TreeSitterCache> cache = new AtomicReference<>(); // empty until loaded, or if the project has no cache dir
+    private final AtomicReference<TreeSitterAnalyzer> latest = new AtomicReference<>(this); // the generation the warmer loads into
+    private volatile ReferenceGraph referenceGraph; // built on first use, dropped whenever files are (re)loaded
+    private volatile SymbolSearchIndex searchIndex; // likewise
+
     protected record LanguageSyntaxProfile(
         Set<String> classLikeNodeTypes,
         Set<String> functionLikeNodeTypes,
@@ -68,12 +96,21 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
 
     public record Range(int startByte, int endByte, int startLine, int endLine) {}
 
-    private record FileAnalysisResult(List<CodeUnit> topLevelCUs,
-                                      Map<CodeUnit, List<CodeUnit>> children,
-                                      Map<CodeUnit, List<String>> signatures,
-                                      Map<CodeUnit, List<Range>> sourceRanges,
-                                      List<String> importStatements // Added for module-level imports
-                                      ) {}
+    private record EncodedSource(String src, byte[] bytes) {}
+
+    record FileAnalysisResult(List<CodeUnit> topLevelCUs,
+                              Map<CodeUnit, List<CodeUnit>> children,
+                              Map<CodeUnit, List<String>> signatures,
+                              Map<CodeUnit, List<Range>> sourceRanges,
+                              List<String> importStatements, // Added for module-level imports
+                              Map<CodeUnit, Map<String, Integer>> references // identifier -> occurrences, per innermost declaration
+                              ) {
+        static final FileAnalysisResult EMPTY = new FileAnalysisResult(List.of(), Map.of(), Map.of(), Map.of(), List.of(), Map.of());
+
+        boolean isEmpty() {
+            return topLevelCUs.isEmpty() && signatures.isEmpty() && sourceRanges.isEmpty();
+        }
+    }
 
     /* ---------- constructor ---------- */
     protected TreeSitterAnalyzer(IProject project, Language language, Set<String> excludedFiles) {
@@ -109,112 +146,472 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
                  this.language, getQueryResource());
 
 
-        var validExtensions = this.language.getExtensions();
-        log.trace("Filtering project files for extensions: {}", validExtensions);
+        log.trace("Filtering project files for extensions: {}", this.language.getExtensions());
 
-        project.getAllFiles().stream()
-                .filter(pf -> {
-                    var pathStr = pf.absPath().toString();
-                    if (this.normalizedExcludedFiles.contains(pathStr)) {
-                        log.trace("Skipping excluded file: {}", pf);
-                        return false;
-                    }
-                    return validExtensions.stream().anyMatch(pathStr::endsWith);
-                })
-                .parallel()
-                .forEach(pf -> {
-                    log.trace("Processing file: {}", pf);
-                    // TSParser is not threadsafe, so we create a parser per thread
-                    var localParser = new TSParser();
-                    try {
-                        if (!localParser.setLanguage(getTSLanguage())) {
-                            log.error("Failed to set language on thread-local TSParser for language {} in file {}", getTSLanguage().getClass().getSimpleName(), pf);
-                            return; // Skip this file if parser setup fails
-                        }
-                        var analysisResult = analyzeFileDeclarations(pf, localParser);
-                        if (!analysisResult.topLevelCUs().isEmpty() || !analysisResult.signatures().isEmpty() || !analysisResult.sourceRanges().isEmpty()) {
-                            topLevelDeclarations.put(pf, analysisResult.topLevelCUs()); // Already unmodifiable from result
-
-                            analysisResult.children().forEach((parentCU, newChildCUs) -> childrenByParent.compute(parentCU, (p, existingChildCUs) -> {
-                                if (existingChildCUs == null) {
-                                    return newChildCUs; // Already unmodifiable
-                                }
-                                List<CodeUnit> combined = new ArrayList<>(existingChildCUs);
-                                for (CodeUnit newKid : newChildCUs) {
-                                    if (!combined.contains(newKid)) {
-                                        combined.add(newKid);
-                                    }
-                                }
-                                if (combined.size() == existingChildCUs.size()) {
-                                    boolean changed = false;
-                                    for (int i = 0; i < combined.size(); ++i) {
-                                        if (!combined.get(i).equals(existingChildCUs.get(i))) {
-                                            changed = true;
-                                            break;
-                                        }
-                                    }
-                                    if (!changed) return existingChildCUs;
-                                }
-                                return Collections.unmodifiableList(combined);
-                            }));
-
-                            analysisResult.signatures().forEach((cu, newSignaturesList) -> signatures.compute(cu, (key, existingSignaturesList) -> {
-                                if (existingSignaturesList == null) {
-                                    return newSignaturesList; // Already unmodifiable from result
-                                }
-                                List<String> combined = new ArrayList<>(existingSignaturesList);
-                                combined.addAll(newSignaturesList);
-                                // Assuming order from newSignaturesList is appropriate to append.
-                                // If global ordering or deduplication of signatures for a CU is needed, add here.
-                                return Collections.unmodifiableList(combined);
-                            }));
-
-                            analysisResult.sourceRanges().forEach((cu, newRangesList) -> sourceRanges.compute(cu, (key, existingRangesList) -> {
-                                if (existingRangesList == null) {
-                                    return newRangesList; // Already unmodifiable
-                                }
-                                List<Range> combined = new ArrayList<>(existingRangesList);
-                                combined.addAll(newRangesList);
-                                return Collections.unmodifiableList(combined);
-                            }));
-
-                            log.trace("Processed file {}: {} top-level CUs, {} signatures, {} parent-child relationships, {} source range entries.",
-                                      pf, analysisResult.topLevelCUs().size(), analysisResult.signatures().size(), analysisResult.children().size(), analysisResult.sourceRanges().size());
-                        } else {
-                            log.trace("analyzeFileDeclarations returned empty result for file: {}", pf);
-                        }
-                    } catch (Exception e) {
-                        log.warn("Error analyzing {}: {}", pf, e, e);
-                    }
-                });
+        var analyzableFiles = project.getAllFiles().stream().filter(this::isAnalyzable).toList();
+        int lazyMinFiles = Integer.getInteger(LAZY_MIN_FILES_PROPERTY, DEFAULT_LAZY_MIN_FILES);
+        if (analyzableFiles.size() >= lazyMinFiles) {
+            // Lazy mode: only index file names now; files are parsed on first access and by the warmer
+            for (var pf : analyzableFiles) {
+                var stem = com.google.common.io.Files.getNameWithoutExtension(pf.getFileName());
+                filesByName.computeIfAbsent(stem.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(pf);
+                var dir = pf.getParent().getFileName();
+                if (dir != null && !dir.toString().isEmpty()) {
+                    filesByName.computeIfAbsent(dir.toString().toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(pf);
+                }
+            }
+            pendingFiles.addAll(analyzableFiles);
+            this.symbolIndex = SymbolIndex.EMPTY;
+            log.debug("Deferred parsing of {} {} files to first use", analyzableFiles.size(), this.language);
+            return;
+        }
+
+        var loadedCache = loadCache();
+        cache.set(loadedCache);
+        analyzableFiles.parallelStream().forEach(pf -> analyzeFileCached(pf).ifPresent(analysisResult -> {
+            fileResults.put(pf, analysisResult);
+            mergeFileResult(pf, analysisResult);
+        }));
+        if (loadedCache != null) {
+            loadedCache.save();
+        }
+
+        this.symbolIndex = SymbolIndex.build(topLevelDeclarations, childrenByParent);
+        log.debug("Indexed {} symbols across {} files for {}", symbolIndex.size(), topLevelDeclarations.size(), this.language);
     }
 
     protected TreeSitterAnalyzer(IProject project, Language language) {
         this(project, language, Collections.emptySet());
     }
 
-    /* ---------- Helper methods for accessing CodeUnits ---------- */
-    /**  All CodeUnits we know about (top-level + children). */
-    private Stream<CodeUnit> allCodeUnits() {
-        // Stream top-level declarations
-        Stream<CodeUnit> topLevelStream = topLevelDeclarations.values().stream().flatMap(Collection::stream);
+    /** True if the file has one of this language's extensions and is not excluded. */
+    private boolean isAnalyzable(ProjectFile pf) {
+        var pathStr = pf.absPath().toString();
+        if (normalizedExcludedFiles.contains(pathStr)) {
+            log.trace("Skipping excluded file: {}", pf);
+            return false;
+        }
+        return language.getExtensions().stream().anyMatch(pathStr::endsWith);
+    }
+
+    private TreeSitterCache loadCache() {
+        return project.getAnalyzerCacheDir()
+                .map(dir -> TreeSitterCache.load(dir.resolve(language.internalName().toLowerCase() + ".tscache"),
+                                                 language,
+                                                 TreeSitterCache.configKey(normalizedExcludedFiles)))
+                .orElse(null);
+    }
+
+    /* ---------- lazy mode ---------- */
+
+    /**
+     * Starts background indexing if this analyzer was built in lazy mode; otherwise does nothing. Called once the
+     * analyzer is fully constructed, so the warmer never sees a subclass whose own fields are not yet set.
+     * Without it, files are still parsed on first access.
+     */
+    TreeSitterAnalyzer startWarmUp() {
+        if (!pendingFiles.isEmpty()) {
+            var warmer = new Thread(this::warmUp, "TreeSitterWarmer-" + language.internalName());
+            warmer.setDaemon(true);
+            warmer.setPriority(Thread.MIN_PRIORITY);
+            warmer.start();
+        }
+        return this;
+    }
+
+    /**
+     * Background indexing for lazy mode: parses the files nobody has asked for yet, workspace files (see
+     * {@link #prioritize}) first, then uncommitted files, then the rest by most recently modified. Batches grow
+     * with the number of files already loaded so that re-deriving the symbol index stays linear overall.
+     * Files are loaded into the newest generation, so after an {@link #update} earlier generations stop warming.
+     */
+    private void warmUp() {
+        long startTime = System.currentTimeMillis();
+        try {
+            cache.set(loadCache());
+            var order = warmupOrder();
+            int next = 0;
+            while (true) {
+                var target = latest.get();
+                if (target.pendingFiles.isEmpty()) {
+                    break;
+                }
+                var batch = new LinkedHashSet<ProjectFile>();
+                for (ProjectFile hint; (hint = warmupHints.poll()) != null; ) {
+                    if (target.pendingFiles.contains(hint)) batch.add(hint);
+                }
+                int batchSize = Math.max(MIN_WARMUP_BATCH, target.fileResults.size() / 4);
+                while (batch.size() < batchSize && next < order.size()) {
+                    var pf = order.get(next++);
+                    if (target.pendingFiles.contains(pf)) batch.add(pf);
+                }
+                if (batch.isEmpty()) {
+                    break;
+                }
+                target.loadFiles(batch);
+            }
+            var cache = this.cache.get();
+            if (cache != null) {
+                cache.save();
+            }
+            log.debug("Warmed up {} {} files in {} ms", latest.get().fileResults.size(), language, System.currentTimeMillis() - startTime);
+        } catch (RuntimeException e) {
+            // files that were not warmed are still parsed on demand
+            log.error("Error warming up {} analyzer", language, e);
+        }
+    }
+
+    private List<ProjectFile> warmupOrder() {
+        Set<ProjectFile> uncommitted = Set.of();
+        try {
+            if (project.getRepo() instanceof GitRepo gitRepo) {
+                uncommitted = gitRepo.getModifiedFiles().stream().map(GitRepo.ModifiedFile::file).collect(Collectors.toSet());
+            }
+        } catch (GitAPIException | RuntimeException e) {
+            log.debug("Unable to list uncommitted files for warmup order: {}", e.getMessage());
+        }
+
+        var mtimes = new ConcurrentHashMap<ProjectFile, Long>();
+        pendingFiles.parallelStream().forEach(pf -> {
+            try {
+                mtimes.put(pf, pf.mtime());
+            } catch (IOException e) {
+                mtimes.put(pf, 0L);
+            }
+        });
+        var hot = uncommitted;
+        return mtimes.keySet().stream()
+                .sorted(Comparator.comparing((ProjectFile pf) -> !hot.contains(pf))
+                                  .thenComparing(pf -> mtimes.get(pf), Comparator.reverseOrder()))
+                .toList();
+    }
+
+    /**
+     * Parses whichever of the given files are still pending and adds them to the analyzer. Parsing happens
+     * outside the lock; a file loaded concurrently, or re-analyzed by {@link #update} meanwhile, is skipped.
+     */
+    private void loadFiles(Collection<ProjectFile> files) {
+        var toLoad = files.stream().filter(pendingFiles::contains).collect(Collectors.toSet());
+        if (toLoad.isEmpty()) {
+            return;
+        }
+        var results = new ConcurrentHashMap<ProjectFile, FileAnalysisResult>();
+        toLoad.parallelStream().forEach(pf -> analyzeFileCached(pf).ifPresent(result -> results.put(pf, result)));
+
+        synchronized (this) {
+            var loaded = new HashSet<ProjectFile>();
+            var affected = new HashSet<CodeUnit>();
+            for (var pf : toLoad) {
+                if (!pendingFiles.remove(pf)) {
+                    continue;
+                }
+                loaded.add(pf);
+                var result = results.get(pf);
+                if (result != null) {
+                    fileResults.put(pf, result);
+                    mergeFileResult(pf, result);
+                    affected.addAll(result.signatures().keySet());
+                    affected.addAll(result.children().keySet());
+                }
+            }
+            if (!loaded.isEmpty()) {
+                symbolIndex = symbolIndex.withFilesReplaced(loaded, topLevelDeclarations, childrenByParent);
+                referenceGraph = null;
+                searchIndex = null;
+                // a class split across files (e.g. C# partial classes) gains members when another part loads
+                invalidateSkeletons(affected);
+            }
+        }
+    }
+
+    /** Makes sure the given files are parsed; a no-op once everything is loaded. */
+    private void ensureLoaded(Collection<ProjectFile> files) {
+        if (!pendingFiles.isEmpty()) {
+            loadFiles(files);
+        }
+    }
+
+    /**
+     * Parses the files whose name or directory matches a segment of the fqName, which is where the symbol is
+     * declared in all but unusual layouts. A symbol declared elsewhere is not found until the warmer reaches its
+     * file; parsing everything that is still pending would stall the lookup on the whole project, so callers that
+     * need to tell "not loaded yet" from "does not exist" check {@link #isFullyIndexed}. Other declarations of an
+     * already loaded symbol (e.g. further parts of a partial class) may arrive later too.
+     */
+    private void ensureLoadedFor(String fqName) {
+        if (pendingFiles.isEmpty() || symbolIndex.definition(fqName).isPresent()) {
+            return;
+        }
+        var candidates = Arrays.stream(fqName.split("[.$:/\\\\]+"))
+                .map(segment -> filesByName.getOrDefault(segment.toLowerCase(Locale.ROOT), List.of()))
+                .flatMap(List::stream)
+                .collect(Collectors.toSet());
+        loadFiles(candidates);
+    }
+
+    /** Parses everything that is still pending, for queries that span the whole project. */
+    private void ensureAllLoaded() {
+        if (!pendingFiles.isEmpty()) {
+            loadFiles(Set.copyOf(pendingFiles));
+        }
+    }
+
+    @Override
+    public boolean isFullyIndexed() {
+        return pendingFiles.isEmpty();
+    }
+
+    @Override
+    public void prioritize(Collection<ProjectFile> files) {
+        if (pendingFiles.isEmpty()) {
+            return;
+        }
+        files.stream().filter(pendingFiles::contains).forEach(warmupHints::add);
+    }
+
+    /** Parses a single file; empty if the file yields no declarations or cannot be analyzed. */
+    private Optional<FileAnalysisResult> analyzeFile(ProjectFile pf) {
+        try {
+            return analyzeFile(pf, Files.readAllBytes(pf.absPath()));
+        } catch (IOException e) {
+            log.warn("Error reading {}: {}", pf, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /** Parses a single file from the given contents. */
+    private Optional<FileAnalysisResult> analyzeFile(ProjectFile pf, byte[] fileBytes) {
+        log.trace("Processing file: {}", pf);
+        // TSParser is not threadsafe, so we create a parser per thread
+        var localParser = new TSParser();
+        try {
+            if (!localParser.setLanguage(getTSLanguage())) {
+                log.error("Failed to set language on thread-local TSParser for language {} in file {}", getTSLanguage().getClass().getSimpleName(), pf);
+                return Optional.empty(); // Skip this file if parser setup fails
+            }
+            var analysisResult = analyzeFileDeclarations(pf, fileBytes, localParser);
+            if (analysisResult.isEmpty()) {
+                log.trace("analyzeFileDeclarations returned empty result for file: {}", pf);
+                return Optional.empty();
+            }
+            log.trace("Processed file {}: {} top-level CUs, {} signatures, {} parent-child relationships, {} source range entries.",
+                      pf, analysisResult.topLevelCUs().size(), analysisResult.signatures().size(), analysisResult.children().size(), analysisResult.sourceRanges().size());
+            return Optional.of(analysisResult);
+        } catch (Exception e) {
+            log.warn("Error analyzing {}: {}", pf, e, e);
+            return Optional.empty();
+        } finally {
+            lastEncodedSource.remove(); // don't pin the file's bytes to a pool thread
+        }
+    }
+
+    /**
+     * Returns the cached result for the file if it is still current, otherwise parses the file and records
+     * the result (including an empty one) in the cache, stamped with the hash of the bytes that were parsed
+     * and the mtime from before they were read, so a write during the read is seen on the next validation.
+     * Without a cache this just parses the file.
+     */
+    private Optional<FileAnalysisResult> analyzeFileCached(ProjectFile pf) {
+        var cache = this.cache.get();
+        if (cache == null) {
+            return analyzeFile(pf);
+        }
+        var context = cacheContext(pf);
+        var cached = cache.get(pf, context);
+        if (cached.isPresent()) {
+            log.trace("Using cached analysis for {}", pf);
+            return cached.filter(r -> !r.isEmpty());
+        }
+        long mtime;
+        byte[] fileBytes;
+        try {
+            mtime = Files.getLastModifiedTime(pf.absPath()).toMillis();
+            fileBytes = Files.readAllBytes(pf.absPath());
+        } catch (IOException e) {
+            log.warn("Error reading {}: {}", pf, e.getMessage());
+            return Optional.empty();
+        }
+        var result = analyzeFile(pf, fileBytes);
+        cache.put(pf, TreeSitterCache.FileStamp.of(fileBytes, mtime), context, result.orElse(FileAnalysisResult.EMPTY));
+        return result;
+    }
+
+    /**
+     * Whatever a file's analysis depends on besides the file's path and contents, such as the package markers
+     * in its directories; a cached result is only reused while this is unchanged. Empty by default, for
+     * languages whose results depend on nothing else.
+     */
+    protected String cacheContext(ProjectFile file) {
+        return "";
+    }
+
+    /** Adds one file's declarations to the project-wide maps, combining with entries contributed by other files. */
+    private void mergeFileResult(ProjectFile pf, FileAnalysisResult analysisResult) {
+        topLevelDeclarations.put(pf, analysisResult.topLevelCUs()); // Already unmodifiable from result
+
+        analysisResult.children().forEach((parentCU, newChildCUs) -> childrenByParent.compute(parentCU, (p, existingChildCUs) -> {
+            if (existingChildCUs == null) {
+                return newChildCUs; // Already unmodifiable
+            }
+            List<CodeUnit> combined = new ArrayList<>(existingChildCUs);
+            for (CodeUnit newKid : newChildCUs) {
+                if (!combined.contains(newKid)) {
+                    combined.add(newKid);
+                }
+            }
+            if (combined.size() == existingChildCUs.size()) {
+                boolean changed = false;
+                for (int i = 0; i < combined.size(); ++i) {
+                    if (!combined.get(i).equals(existingChildCUs.get(i))) {
+                        changed = true;
+                        break;
+                    }
+                }
+                if (!changed) return existingChildCUs;
+            }
+            return List.copyOf(combined);
+        }));
+
+        analysisResult.signatures().forEach((cu, newSignaturesList) -> signatures.compute(cu, (key, existingSignaturesList) -> {
+            if (existingSignaturesList == null) {
+                return newSignaturesList; // Already unmodifiable from result
+            }
+            List<String> combined = new ArrayList<>(existingSignaturesList);
+            combined.addAll(newSignaturesList);
+            // Assuming order from newSignaturesList is appropriate to append.
+            // If global ordering or deduplication of signatures for a CU is needed, add here.
+            return List.copyOf(combined);
+        }));
+
+        analysisResult.sourceRanges().forEach((cu, newRangesList) -> sourceRanges.compute(cu, (key, existingRangesList) -> {
+            if (existingRangesList == null) {
+                return newRangesList; // Already unmodifiable
+            }
+            List<Range> combined = new ArrayList<>(existingRangesList);
+            combined.addAll(newRangesList);
+            return RangeList.copyOf(combined);
+        }));
+    }
+
+    /**
+     * Inverse of {@link #mergeFileResult}: removes exactly what this file contributed. Signatures and ranges are
+     * appended per file, so one occurrence of each is removed; children are a set union, so a child that another
+     * file also declares under the same parent (e.g. an overload split across C# partial classes) is dropped too.
+     */
+    private void removeFileResult(ProjectFile pf, FileAnalysisResult analysisResult) {
+        topLevelDeclarations.remove(pf);
+
+        analysisResult.signatures().forEach((cu, oldSignatures) -> signatures.computeIfPresent(cu, (key, existing) -> {
+            var remaining = new ArrayList<>(existing);
+            oldSignatures.forEach(remaining::remove);
+            return remaining.isEmpty() ? null : List.copyOf(remaining);
+        }));
+
+        analysisResult.sourceRanges().forEach((cu, oldRanges) -> sourceRanges.computeIfPresent(cu, (key, existing) -> {
+            var remaining = new ArrayList<>(existing);
+            oldRanges.forEach(remaining::remove);
+            return remaining.isEmpty() ? null : RangeList.copyOf(remaining);
+        }));
+
+        // every declared CU has a (possibly empty) children entry, so drop the entry once nothing declares the parent
+        analysisResult.children().forEach((parentCU, oldKids) -> childrenByParent.computeIfPresent(parentCU, (key, existing) -> {
+            var remaining = existing.stream().filter(kid -> !oldKids.contains(kid)).toList();
+            return remaining.isEmpty() && !signatures.containsKey(parentCU) ? null : remaining;
+        }));
+    }
+
+    /**
+     * Re-analyzes only the given files and returns a new analyzer in which their declarations are replaced; files
+     * that no longer exist are removed. This analyzer is left as it was, so a caller holding it keeps getting
+     * consistent answers. The new analyzer shares its maps with this one (see {@link PersistentMap}), so the
+     * update costs what the changed files contribute, not the size of the project. Results are read from and
+     * written to the persistent cache. Files of other languages or excluded files are ignored.
+     */
+    @Override
+    public synchronized IAnalyzer update(Set<ProjectFile> changedFiles) {
+        var relevantFiles = changedFiles.stream().filter(this::isAnalyzable).collect(Collectors.toSet());
+        if (relevantFiles.isEmpty()) {
+            return this;
+        }
+
+        long startTime = System.currentTimeMillis();
+        var newResults = new ConcurrentHashMap<ProjectFile, FileAnalysisResult>();
+        relevantFiles.parallelStream()
+                     .filter(pf -> Files.exists(pf.absPath()))
+                     .forEach(pf -> analyzeFileCached(pf).ifPresent(result -> newResults.put(pf, result)));
+        var cache = this.cache.get();
+        if (cache != null) {
+            cache.save(); // so the next session does not parse these files again
+        }
 
-        // Stream parents from childrenByParent (they might not be in topLevelDeclarations if they are nested)
-        Stream<CodeUnit> parentStream = childrenByParent.keySet().stream();
+        // holding our lock, so no lazily loaded file is half-merged into the maps being copied
+        var updated = copy();
+        var staleSkeletons = new HashSet<CodeUnit>();
+        updated.pendingFiles.removeAll(relevantFiles); // parsed just now, so lazy loading must not add them again
+        for (var pf : relevantFiles) {
+            SourceBuffers.SHARED.invalidate(pf);
+            var oldResult = updated.fileResults.remove(pf);
+            if (oldResult != null) {
+                updated.removeFileResult(pf, oldResult);
+                staleSkeletons.addAll(oldResult.signatures().keySet());
+                staleSkeletons.addAll(oldResult.children().keySet());
+            }
+            var newResult = newResults.get(pf);
+            if (newResult != null) {
+                updated.fileResults.put(pf, newResult);
+                updated.mergeFileResult(pf, newResult);
+                staleSkeletons.addAll(newResult.signatures().keySet());
+                staleSkeletons.addAll(newResult.children().keySet());
+            }
+        }
+        updated.symbolIndex = symbolIndex.withFilesReplaced(relevantFiles, updated.topLevelDeclarations, updated.childrenByParent);
+        updated.skeletonCache.removeAll(staleSkeletons); // not published yet, so no reader can race this
+        latest.set(updated);
 
-        // Stream children from childrenByParent
-        Stream<CodeUnit> childrenStream = childrenByParent.values().stream().flatMap(Collection::stream);
+        log.debug("Updated {} {} files in {} ms", relevantFiles.size(), language, System.currentTimeMillis() - startTime);
+        return updated;
+    }
 
-        return Stream.of(topLevelStream, parentStream, childrenStream).flatMap(s -> s);
+    /**
+     * A new generation of this analyzer with its own copies of the lookup maps, taken in constant time; the copies
+     * share their structure, and the lists and per-file results in them, which are never modified, with this
+     * generation. Everything else, including the fields of subclasses, is language configuration or a cache keyed
+     * by file contents, and is shared.
+     */
+    private TreeSitterAnalyzer copy() {
+        TreeSitterAnalyzer copy;
+        try {
+            copy = (TreeSitterAnalyzer) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+        copy.topLevelDeclarations = topLevelDeclarations.copy();
+        copy.childrenByParent = childrenByParent.copy();
+        copy.signatures = signatures.copy();
+        copy.sourceRanges = sourceRanges.copy();
+        copy.fileResults = fileResults.copy();
+        copy.pendingFiles = pendingFiles.copy();
+        copy.skeletonCache = skeletonCache.copy();
+        copy.referenceGraph = null;
+        copy.searchIndex = null;
+        return copy;
     }
 
-    /**  De-duplicate and materialise into a List once. */
-    private List<CodeUnit> uniqueCodeUnitList() {
-        return allCodeUnits().distinct().toList();
+    /**
+     * Swaps in a new skeleton cache rather than removing entries in place, so that a reader that computed a
+     * skeleton from half-updated maps can only have written it into the discarded cache.
+     */
+    private void invalidateSkeletons(Set<CodeUnit> stale) {
+        if (stale.isEmpty()) {
+            return;
+        }
+        var newSkeletonCache = skeletonCache.copy();
+        newSkeletonCache.removeAll(stale);
+        skeletonCache = newSkeletonCache;
     }
 
     /* ---------- IAnalyzer ---------- */
-    @Override public boolean isEmpty() { return topLevelDeclarations.isEmpty() && signatures.isEmpty() && childrenByParent.isEmpty() && sourceRanges.isEmpty(); }
+    @Override public boolean isEmpty() { return pendingFiles.isEmpty() && topLevelDeclarations.isEmpty() && signatures.isEmpty() && childrenByParent.isEmpty() && sourceRanges.isEmpty(); }
 
     @Override public boolean isCpg() { return false; }
 
@@ -227,26 +624,24 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
 
     @Override
     public List<CodeUnit> getMembersInClass(String fqClass) {
-        Optional<CodeUnit> parent = uniqueCodeUnitList().stream()
-                                                        .filter(cu -> cu.fqName().equals(fqClass) && cu.isClass())
-                                                        .findFirst();
-        return parent.map(p -> List.copyOf(childrenByParent.getOrDefault(p, List.of())))
-                     .orElse(List.of());
+        ensureLoadedFor(fqClass);
+        return symbolIndex.definitions(fqClass).stream()
+                          .filter(CodeUnit::isClass)
+                          .findFirst()
+                          .map(symbolIndex::childrenOf)
+                          .orElse(List.of());
     }
 
     @Override
     public Optional<ProjectFile> getFileFor(String fqName) {
-        return uniqueCodeUnitList().stream()
-                                   .filter(cu -> cu.fqName().equals(fqName))
-                                   .map(CodeUnit::source)
-                                   .findFirst();
+        ensureLoadedFor(fqName);
+        return symbolIndex.definition(fqName).map(CodeUnit::source);
     }
 
     @Override
     public Optional<CodeUnit> getDefinition(String fqName) {
-        return uniqueCodeUnitList().stream()
-                                   .filter(cu -> cu.fqName().equals(fqName))
-                                   .findFirst();
+        ensureLoadedFor(fqName);
+        return symbolIndex.definition(fqName);
     }
 
     @Override
@@ -254,22 +649,38 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
         if (pattern == null || pattern.isEmpty()) {
             return List.of();
         }
-        return uniqueCodeUnitList().stream()
-                                   .filter(cu -> cu.fqName().contains(pattern))
-                                   .toList();
+        if (pattern.equals(".*")) {
+            return searchIndex().all(); // everything, as for the CPG analyzers
+        }
+        return searchIndex().containing(pattern, false, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<CodeUnit> searchDefinitions(String pattern, int limit) {
+        if (pattern == null || pattern.isEmpty()) {
+            return List.of();
+        }
+        if (pattern.equals(".*")) {
+            var all = searchIndex().all();
+            return all.subList(0, Math.min(Math.max(limit, 0), all.size()));
+        }
+        return searchIndex().containing(pattern, false, limit);
+    }
+
+    @Override
+    public List<CodeUnit> searchCamelHumps(String query, int limit) {
+        return searchIndex().camelHumps(query, limit);
     }
 
     @Override
     public List<CodeUnit> getAllDeclarations() {
-        Set<CodeUnit> allClasses = new HashSet<>();
-        topLevelDeclarations.values().forEach(allClasses::addAll);
-        childrenByParent.values().forEach(allClasses::addAll); // Children lists
-        allClasses.addAll(childrenByParent.keySet());          // Parent CUs themselves
-        return allClasses.stream().filter(CodeUnit::isClass).distinct().toList();
+        ensureAllLoaded();
+        return symbolIndex.all().filter(CodeUnit::isClass).toList();
     }
 
     @Override
     public Map<CodeUnit, String> getSkeletons(ProjectFile file) {
+        ensureLoaded(List.of(file));
         List<CodeUnit> topCUs = topLevelDeclarations.getOrDefault(file, List.of());
         if (topCUs.isEmpty()) return Map.of();
 
@@ -282,33 +693,32 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
 
 
         for (CodeUnit cu : sortedTopCUs) {
-            resultSkeletons.put(cu, reconstructFullSkeleton(cu));
+            resultSkeletons.put(cu, cachedSkeleton(cu));
         }
         log.trace("getSkeletons: file={}, count={}", file, resultSkeletons.size());
         return Collections.unmodifiableMap(resultSkeletons);
     }
 
     @Override
-    public Set<CodeUnit> getDeclarationsInFile(ProjectFile file) {
-        List<CodeUnit> topCUs = topLevelDeclarations.getOrDefault(file, List.of());
-        if (topCUs.isEmpty()) return Set.of();
-
-        Set<CodeUnit> allDeclarationsInFile = new HashSet<>();
-        Queue<CodeUnit> toProcess = new LinkedList<>(topCUs);
-        Set<CodeUnit> visited = new HashSet<>(topCUs); // Track visited to avoid cycles and redundant processing
+    public Map<CodeUnit, String> getSkeletons(Collection<ProjectFile> files) {
+        ensureLoaded(files); // one batch, rather than one symbol index update per file
+        return IAnalyzer.super.getSkeletons(files);
+    }
 
-        while(!toProcess.isEmpty()) {
-            CodeUnit current = toProcess.poll();
-            allDeclarationsInFile.add(current); // Add all encountered CodeUnits
+    @Override
+    public Set<CodeUnit> getDeclarationsInFile(ProjectFile file) {
+        ensureLoaded(List.of(file));
+        var declarations = symbolIndex.declarationsIn(file);
+        log.trace("getDeclarationsInFile: file={}, count={}", file, declarations.size());
+        return declarations;
+    }
 
-            childrenByParent.getOrDefault(current, List.of()).forEach(child -> {
-                if (visited.add(child)) { // Add to queue only if not visited
-                    toProcess.add(child);
-                }
-            });
-        }
-        log.trace("getDeclarationsInFile: file={}, count={}", file, allDeclarationsInFile.size());
-        return Collections.unmodifiableSet(allDeclarationsInFile);
+    /**
+     * Skeletons only change when one of the files declaring the CodeUnit or its children is re-analyzed,
+     * so they are memoized per generation (see {@link #update}).
+     */
+    private String cachedSkeleton(CodeUnit cu) {
+        return skeletonCache.computeIfAbsent(cu, this::reconstructFullSkeleton);
     }
 
     private String reconstructFullSkeleton(CodeUnit cu) {
@@ -354,11 +764,12 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
 
     @Override
     public Optional<String> getSkeleton(String fqName) {
-        Optional<CodeUnit> cuOpt = signatures.keySet().stream()
-                                          .filter(c -> c.fqName().equals(fqName))
-                                          .findFirst();
+        ensureLoadedFor(fqName);
+        Optional<CodeUnit> cuOpt = symbolIndex.definitions(fqName).stream()
+                                              .filter(signatures::containsKey)
+                                              .findFirst();
         if (cuOpt.isPresent()) {
-            String skeleton = reconstructFullSkeleton(cuOpt.get());
+            String skeleton = cachedSkeleton(cuOpt.get());
             log.trace("getSkeleton: fqName='{}', found=true", fqName);
             return Optional.of(skeleton);
         }
@@ -379,13 +790,7 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
 
         // For classes, expect one primary definition range.
         var range = ranges.getFirst();
-        String src;
-        try {
-            src = cu.source().read();
-        } catch (IOException e) {
-            return "";
-        }
-        return src.substring(range.startByte(), range.endByte());
+        return SourceBuffers.SHARED.slice(cu.source(), range.startByte(), range.endByte()).orElse("");
     }
 
     @Override
@@ -399,25 +804,10 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
                     return Optional.empty();
                 }
 
-                String fileContent;
-                try {
-                    fileContent = cu.source().read();
-                } catch (IOException e) {
-                    log.warn("Could not read source for CU {} (fqName {}): {}", cu, fqName, e.getMessage());
-                    return Optional.empty();
-                }
-
                 List<String> individualMethodSources = new ArrayList<>();
                 for (Range range : rangesForOverloads) {
-                    // Ensure range is within fileContent bounds, though it should be by construction.
-                    int startByte = Math.max(0, range.startByte());
-                    int endByte = Math.min(fileContent.length(), range.endByte());
-                    if (startByte < endByte) {
-                        individualMethodSources.add(fileContent.substring(startByte, endByte));
-                    } else {
-                        log.warn("Invalid range [{}, {}] for CU {} (fqName {}) in file of length {}. Skipping this range.",
-                                 range.startByte(), range.endByte(), cu, fqName, fileContent.length());
-                    }
+                    SourceBuffers.SHARED.slice(cu.source(), range.startByte(), range.endByte())
+                            .ifPresent(individualMethodSources::add);
                 }
 
                 if (individualMethodSources.isEmpty()) {
@@ -429,6 +819,67 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
     }
 
 
+    @Override
+    public boolean hasReferenceGraph() {
+        return true;
+    }
+
+    /** Pagerank over the class-level {@link ReferenceGraph}; waits for lazy indexing to finish. */
+    @Override
+    public List<Tuple2<CodeUnit, Double>> getPagerank(Map<String, Double> seedClassWeights, int k, boolean reversed) {
+        return referenceGraph().pagerank(seedClassWeights, k, reversed);
+    }
+
+    /**
+     * Declarations that refer to the symbol by name, as resolved by the {@link ReferenceGraph}; for a class,
+     * this includes references to its name in type positions, heritage clauses, imports and constructor calls.
+     */
+    @Override
+    public List<CodeUnit> getUses(String fqName) {
+        var graph = referenceGraph();
+        var targets = symbolIndex.definitions(fqName);
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("Symbol '" + fqName + "' not found as a method, field, or class");
+        }
+        return targets.stream()
+                .flatMap(target -> graph.uses(target).stream())
+                .distinct()
+                .sorted()
+                .toList();
+    }
+
+    private ReferenceGraph referenceGraph() {
+        var graph = referenceGraph;
+        if (graph != null) {
+            return graph;
+        }
+        ensureAllLoaded();
+        synchronized (this) {
+            if (referenceGraph == null) {
+                long startTime = System.currentTimeMillis();
+                referenceGraph = ReferenceGraph.build(fileResults.values());
+                log.debug("Built {} reference graph in {} ms", language, System.currentTimeMillis() - startTime);
+            }
+            return referenceGraph;
+        }
+    }
+
+    private SymbolSearchIndex searchIndex() {
+        var index = searchIndex;
+        if (index != null) {
+            return index;
+        }
+        ensureAllLoaded();
+        synchronized (this) {
+            if (searchIndex == null) {
+                long startTime = System.currentTimeMillis();
+                searchIndex = SymbolSearchIndex.build(symbolIndex.all().toList());
+                log.debug("Built {} symbol search index in {} ms", language, System.currentTimeMillis() - startTime);
+            }
+            return searchIndex;
+        }
+    }
+
     /* ---------- abstract hooks ---------- */
     /** Creates a new TSLanguage instance for the specific language. Called by ThreadLocal initializer. */
     protected abstract TSLanguage createTSLanguage();
@@ -510,6 +961,15 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
     /** Captures that should be ignored entirely. */
     protected Set<String> getIgnoredCaptures() { return Set.of(); }
 
+    /**
+     * Whether a leaf node of this type names something that may be declared elsewhere in the project.
+     * The default covers the identifier node types of the bundled grammars (identifier, type_identifier,
+     * field_identifier, property_identifier, ... and PHP's name).
+     */
+    protected boolean isReferenceNode(String nodeType) {
+        return nodeType.endsWith("identifier") || nodeType.equals("name");
+    }
+
     /** Language-specific indentation string, e.g., "  " or "    ". */
     protected String getLanguageSpecificIndent() { return "  "; } // Default
 
@@ -526,12 +986,11 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
 
     /* ---------- core parsing ---------- */
     /** Analyzes a single file and extracts declaration information. */
-    private FileAnalysisResult analyzeFileDeclarations(ProjectFile file, TSParser localParser) throws IOException {
+    private FileAnalysisResult analyzeFileDeclarations(ProjectFile file, byte[] fileBytes, TSParser localParser) {
         log.trace("analyzeFileDeclarations: Parsing file: {}", file);
 
         // this is needed because especially Visual Studio is adding a UTF8 BOM at the beginning of files
-        // Read as byte array first to preserve exact UTF-8 encoding
-        byte[] fileBytes = Files.readAllBytes(file.absPath());
+        // The caller reads a byte array to preserve exact UTF-8 encoding
         // Strip UTF-8 BOM if present (EF BB BF)
         if (fileBytes.length >= 3 &&
             (fileBytes[0] & 0xFF) == 0xEF &&
@@ -556,7 +1015,7 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
         TSNode rootNode = tree.getRootNode();
         if (rootNode.isNull()) {
             log.warn("Parsing failed or produced null root node for {}", file);
-            return new FileAnalysisResult(List.of(), Map.of(), Map.of(), Map.of(), List.of());
+            return FileAnalysisResult.EMPTY;
         }
         // Log root node type
         String rootNodeType = rootNode.getType();
@@ -888,18 +1347,81 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
         log.trace("Finished analyzing {}: found {} top-level CUs (includes {} imports), {} total signatures, {} parent entries, {} source range entries.",
                   file, localTopLevelCUs.size(), localImportStatements.size(), localSignatures.size(), localChildren.size(), localSourceRanges.size());
 
-        // Make internal lists unmodifiable before returning in FileAnalysisResult
+        // Freeze into compact immutable lists (exact-size, and field-only for 0-2 elements) since these are retained
         Map<CodeUnit, List<CodeUnit>> finalLocalChildren = new HashMap<>();
-        localChildren.forEach((p, kids) -> finalLocalChildren.put(p, Collections.unmodifiableList(kids)));
+        localChildren.forEach((p, kids) -> finalLocalChildren.put(p, List.copyOf(kids)));
+
+        Map<CodeUnit, List<String>> finalLocalSignatures = new HashMap<>();
+        localSignatures.forEach((c, sigs) -> finalLocalSignatures.put(c, List.copyOf(sigs)));
 
         Map<CodeUnit, List<Range>> finalLocalSourceRanges = new HashMap<>();
-        localSourceRanges.forEach((c, ranges) -> finalLocalSourceRanges.put(c, Collections.unmodifiableList(ranges)));
+        localSourceRanges.forEach((c, ranges) -> finalLocalSourceRanges.put(c, RangeList.copyOf(ranges)));
 
-        return new FileAnalysisResult(Collections.unmodifiableList(localTopLevelCUs),
+        return new FileAnalysisResult(List.copyOf(localTopLevelCUs),
                                       finalLocalChildren,
-                                      localSignatures,
+                                      finalLocalSignatures,
                                       finalLocalSourceRanges,
-                                      Collections.unmodifiableList(localImportStatements));
+                                      List.copyOf(localImportStatements),
+                                      collectReferences(rootNode, src, localSourceRanges));
+    }
+
+    /**
+     * Counts the identifiers used inside each declaration, attributing every identifier to the innermost
+     * declaration whose range contains it (the MODULE unit, if the file has one, spans the whole file).
+     * A declaration's own name is not counted. These are unresolved names; {@link ReferenceGraph} matches
+     * them against the symbol table once every file is known.
+     */
+    private Map<CodeUnit, Map<String, Integer>> collectReferences(TSNode rootNode, String src, Map<CodeUnit, List<Range>> ranges) {
+        record Span(CodeUnit cu, int start, int end) {}
+        var spans = ranges.entrySet().stream()
+                .flatMap(e -> e.getValue().stream().map(r -> new Span(e.getKey(), r.startByte(), r.endByte())))
+                .sorted(Comparator.comparingInt(Span::start).thenComparing(Comparator.comparingInt(Span::end).reversed()))
+                .toList();
+        if (spans.isEmpty()) {
+            return Map.of();
+        }
+
+        var counts = new HashMap<CodeUnit, Map<String, Integer>>();
+        var open = new ArrayDeque<Span>(); // enclosing spans, innermost first
+        int nextSpan = 0;
+        var cursor = new TSTreeCursor(rootNode);
+        boolean more = true;
+        while (more) {
+            var node = cursor.currentNode();
+            if (node.getChildCount() == 0 && isReferenceNode(node.getType())) {
+                int at = node.getStartByte();
+                while (nextSpan < spans.size() && spans.get(nextSpan).start() <= at) {
+                    var span = spans.get(nextSpan++);
+                    while (!open.isEmpty() && open.peek().end() <= span.start()) {
+                        open.pop();
+                    }
+                    open.push(span);
+                }
+                while (!open.isEmpty() && open.peek().end() <= at) {
+                    open.pop();
+                }
+                var owner = open.peek();
+                if (owner != null) {
+                    var name = textSlice(node, src);
+                    if (!name.isEmpty() && !name.equals(owner.cu().identifier())) {
+                        counts.computeIfAbsent(owner.cu(), k -> new HashMap<>()).merge(REFERENCE_NAMES.intern(name), 1, Integer::sum);
+                    }
+                }
+            }
+            if (cursor.gotoFirstChild()) {
+                continue;
+            }
+            while (!cursor.gotoNextSibling()) {
+                if (!cursor.gotoParent()) {
+                    more = false;
+                    break;
+                }
+            }
+        }
+
+        var frozen = new HashMap<CodeUnit, Map<String, Integer>>();
+        counts.forEach((cu, names) -> frozen.put(cu, Map.copyOf(names)));
+        return frozen;
     }
 
 
@@ -1229,39 +1751,28 @@ public abstract class TreeSitterAnalyzer implements IAnalyzer {
     /** Extracts a substring from the source code based on node boundaries. */
     protected String textSlice(TSNode node, String src) {
         if (node == null || node.isNull()) return "";
-        
-        // Get the byte array representation of the source 
-        // This may be cached for better performance in a real implementation
-        byte[] bytes;
-        try {
-            bytes = src.getBytes(StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            // Fallback in case of encoding error
-            log.warn("Error getting bytes from source: {}. Falling back to substring (may truncate UTF-8 content)", e.getMessage());
-            return src.substring(Math.min(node.getStartByte(), src.length()), 
-                                Math.min(node.getEndByte(), src.length()));
-        }
-        
-        // Extract using correct byte indexing
-        return textSliceFromBytes(node.getStartByte(), node.getEndByte(), bytes);
+        return textSliceFromBytes(node.getStartByte(), node.getEndByte(), utf8Bytes(src));
     }
 
     /** Extracts a substring from the source code based on byte offsets. */
     protected String textSlice(int startByte, int endByte, String src) {
-        // Get the byte array representation of the source
-        byte[] bytes;
-        try {
-            bytes = src.getBytes(StandardCharsets.UTF_8);
-        } catch (Exception e) {
-            // Fallback in case of encoding error
-            log.warn("Error getting bytes from source: {}. Falling back to substring (may truncate UTF-8 content)", e.getMessage());
-            return src.substring(Math.min(startByte, src.length()), 
-                                Math.min(endByte, src.length()));
+        return textSliceFromBytes(startByte, endByte, utf8Bytes(src));
+    }
+
+    /**
+     * UTF-8 encoding of {@code src}, reused across the many slices taken while analyzing one file
+     * instead of re-encoding the whole file for every node.
+     */
+    private byte[] utf8Bytes(String src) {
+        var cached = lastEncodedSource.get();
+        if (cached != null && cached.src() == src) {
+            return cached.bytes();
         }
-        
-        return textSliceFromBytes(startByte, endByte, bytes);
+        var encoded = new EncodedSource(src, src.getBytes(StandardCharsets.UTF_8));
+        lastEncodedSource.set(encoded);
+        return encoded.bytes();
     }
-    
+
     /** Helper method that correctly extracts UTF-8 byte slice into a String */
     private String textSliceFromBytes(int startByte, int endByte, byte[] bytes) {
         if (startByte < 0 || endByte > bytes.length || startByte >= endByte) {
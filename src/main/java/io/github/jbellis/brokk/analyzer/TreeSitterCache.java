@@ -0,0 +1,445 @@
+package io.github.jbellis.brokk.analyzer;
+
+import io.github.jbellis.brokk.BuildInfo;
+import io.github.jbellis.brokk.util.AtomicWrites;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * On-disk cache of per-file tree-sitter analysis results, stored under .brokk/ so that startup only
+ * re-parses files that changed since the previous session.
+ * <p>
+ * Entries are keyed by project-relative path and validated individually: a matching size and mtime is
+ * a hit; otherwise a matching content hash (e.g. after a git checkout that rewrote identical content) is
+ * also a hit. Each entry also records the analyzer's context for the file, whatever outside the file's own
+ * bytes its result depends on (see {@link TreeSitterAnalyzer#cacheContext}), and misses if that changed.
+ * The cache file is read into memory once, but each entry is only decoded when it is requested and validated.
+ * <p>
+ * Format (big-endian): magic, format version, Brokk version, language, configuration key, entry count, then
+ * per entry: path, size, mtime, SHA-1, context, payload length, payload. Any mismatch in the header discards
+ * the whole cache.
+ */
+final class TreeSitterCache {
+    private static final Logger logger = LogManager.getLogger(TreeSitterCache.class);
+
+    private static final int MAGIC = 0x42545343; // "BTSC"
+    private static final int FORMAT_VERSION = 3;
+    private static final int HASH_LENGTH = 20;
+
+    private final Path cacheFile;
+    private final Language language;
+    private final String configKey;
+    private final byte[] data; // raw cache file contents; payloads are decoded lazily
+    private final Map<String, Entry> entries; // as read from disk
+    private final Map<String, Entry> retained = new ConcurrentHashMap<>(); // validated hits, rewritten as-is
+    private final Map<String, PendingEntry> fresh = new ConcurrentHashMap<>(); // newly parsed files
+    private volatile boolean dirty;
+
+    /** Size, modification time and content hash of a file at the moment it was read for parsing. */
+    record FileStamp(long size, long mtime, byte[] hash) {
+        /** Stamps the bytes that were actually parsed, with the mtime taken before they were read. */
+        static FileStamp of(byte[] contents, long mtime) {
+            return new FileStamp(contents.length, mtime, TreeSitterCache.hash(contents));
+        }
+
+        static Optional<FileStamp> of(ProjectFile file) {
+            try {
+                var path = file.absPath();
+                long size = Files.size(path);
+                long mtime = Files.getLastModifiedTime(path).toMillis();
+                return Optional.of(new FileStamp(size, mtime, TreeSitterCache.hash(path)));
+            } catch (IOException e) {
+                logger.debug("Unable to stamp {} for caching: {}", file, e.getMessage());
+                return Optional.empty();
+            }
+        }
+    }
+
+    private record Entry(FileStamp stamp, String context, int payloadOffset, int payloadLength) {}
+
+    private record PendingEntry(FileStamp stamp, String context, TreeSitterAnalyzer.FileAnalysisResult result) {}
+
+    private TreeSitterCache(Path cacheFile, Language language, String configKey, byte[] data, Map<String, Entry> entries) {
+        this.cacheFile = cacheFile;
+        this.language = language;
+        this.configKey = configKey;
+        this.data = data;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the cache index from disk. A missing, corrupt, or outdated cache yields an empty cache
+     * that will be rewritten by {@link #save()}. So does a cache written under a different configKey, which
+     * stands for the analyzer settings that apply to every file (see {@link #configKey}).
+     */
+    static TreeSitterCache load(Path cacheFile, Language language, String configKey) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(cacheFile);
+        } catch (NoSuchFileException e) {
+            logger.debug("No tree-sitter cache at {}", cacheFile);
+            return new TreeSitterCache(cacheFile, language, configKey, new byte[0], Map.of());
+        } catch (IOException e) {
+            logger.warn("Unable to read tree-sitter cache {}: {}", cacheFile, e.getMessage());
+            return new TreeSitterCache(cacheFile, language, configKey, new byte[0], Map.of());
+        }
+
+        try {
+            var buf = ByteBuffer.wrap(data);
+            if (buf.getInt() != MAGIC
+                || buf.getInt() != FORMAT_VERSION
+                || !readString(buf).equals(BuildInfo.version())
+                || !readString(buf).equals(language.internalName())
+                || !readString(buf).equals(configKey)) {
+                logger.debug("Ignoring tree-sitter cache {} written by a different format, version or configuration", cacheFile);
+                return new TreeSitterCache(cacheFile, language, configKey, new byte[0], Map.of());
+            }
+            int count = buf.getInt();
+            var entries = new HashMap<String, Entry>(count * 2);
+            for (int i = 0; i < count; i++) {
+                var relPath = readString(buf);
+                long size = buf.getLong();
+                long mtime = buf.getLong();
+                var hash = new byte[HASH_LENGTH];
+                buf.get(hash);
+                var context = readString(buf);
+                int length = buf.getInt();
+                entries.put(relPath, new Entry(new FileStamp(size, mtime, hash), context, buf.position(), length));
+                buf.position(buf.position() + length);
+            }
+            logger.debug("Loaded tree-sitter cache index with {} entries from {}", count, cacheFile);
+            return new TreeSitterCache(cacheFile, language, configKey, data, entries);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            logger.warn("Discarding corrupt tree-sitter cache {}: {}", cacheFile, e.toString());
+            return new TreeSitterCache(cacheFile, language, configKey, new byte[0], Map.of());
+        }
+    }
+
+    /**
+     * Returns the cached result for the file if it is still valid for the file's current contents and was
+     * computed in the given context.
+     */
+    Optional<TreeSitterAnalyzer.FileAnalysisResult> get(ProjectFile file, String context) {
+        var key = file.toString();
+        var entry = entries.get(key);
+        if (entry == null || !entry.context().equals(context)) {
+            return Optional.empty();
+        }
+
+        var current = validate(file, entry.stamp());
+        if (current.isEmpty()) {
+            return Optional.empty();
+        }
+
+        try {
+            var result = decode(file, ByteBuffer.wrap(data, entry.payloadOffset(), entry.payloadLength()));
+            // keep the payload bytes, but with the current stamp so that the next validation is a cheap stat
+            retained.put(key, new Entry(current.get(), context, entry.payloadOffset(), entry.payloadLength()));
+            if (current.get() != entry.stamp()) {
+                dirty = true;
+            }
+            return Optional.of(result);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+            logger.debug("Corrupt tree-sitter cache entry for {}: {}", file, e.toString());
+            return Optional.empty();
+        }
+    }
+
+    /** Records a freshly parsed result, stamped with the bytes it was parsed from, and the context it was computed in. */
+    void put(ProjectFile file, FileStamp stamp, String context, TreeSitterAnalyzer.FileAnalysisResult result) {
+        fresh.put(file.toString(), new PendingEntry(stamp, context, result));
+        dirty = true;
+    }
+
+    /**
+     * Rewrites the cache file if anything was parsed, re-stamped, or dropped since it was loaded.
+     * Entries that were neither hit nor freshly parsed (deleted or no longer analyzable files) are dropped.
+     * The warmer and {@link TreeSitterAnalyzer#update} may both save, so saves run one at a time.
+     */
+    synchronized void save() {
+        if (!dirty && retained.size() == entries.size()) {
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        var kept = retained.entrySet().stream()
+                           .filter(e -> !fresh.containsKey(e.getKey()))
+                           .toList();
+        int count = kept.size() + fresh.size();
+        try {
+            var bytes = new ByteArrayOutputStream(Math.max(data.length, 1 << 16));
+            var out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, BuildInfo.version());
+            writeString(out, language.internalName());
+            writeString(out, configKey);
+            out.writeInt(count);
+            for (var e : kept) {
+                var entry = e.getValue();
+                writeEntryHeader(out, e.getKey(), entry.stamp(), entry.context(), entry.payloadLength());
+                out.write(data, entry.payloadOffset(), entry.payloadLength());
+            }
+            for (var e : fresh.entrySet()) {
+                var payload = encode(e.getValue().result());
+                writeEntryHeader(out, e.getKey(), e.getValue().stamp(), e.getValue().context(), payload.length);
+                out.write(payload);
+            }
+            out.flush();
+
+            var written = bytes.toByteArray();
+            Files.createDirectories(cacheFile.getParent());
+            AtomicWrites.atomicOverwrite(cacheFile, written);
+            dirty = false;
+            logger.debug("Wrote tree-sitter cache with {} entries ({} bytes) to {} in {} ms",
+                         count, written.length, cacheFile, System.currentTimeMillis() - startTime);
+        } catch (IOException e) {
+            logger.warn("Unable to write tree-sitter cache {}: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the stamp to keep for a cached entry if the file still matches it: the stored stamp when
+     * size and mtime are unchanged, or a fresh stamp when only the mtime moved but the content hash is the same.
+     */
+    static Optional<FileStamp> validate(ProjectFile file, FileStamp stored) {
+        try {
+            var path = file.absPath();
+            long size = Files.size(path);
+            if (size != stored.size()) {
+                return Optional.empty();
+            }
+            long mtime = Files.getLastModifiedTime(path).toMillis();
+            if (mtime == stored.mtime()) {
+                return Optional.of(stored);
+            }
+            var hash = hash(path);
+            return MessageDigest.isEqual(hash, stored.hash())
+                   ? Optional.of(new FileStamp(size, mtime, hash))
+                   : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Key for the analyzer settings that apply to every file, here the set of excluded files, so that changing
+     * them starts the cache over instead of mixing results computed under different settings.
+     */
+    static String configKey(Collection<String> excludedFiles) {
+        var digest = sha1();
+        excludedFiles.stream().sorted().forEach(path -> {
+            digest.update(path.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+        });
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static byte[] hash(Path path) throws IOException {
+        var digest = sha1();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return digest.digest();
+    }
+
+    private static byte[] hash(byte[] contents) {
+        return sha1().digest(contents);
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /* ---------- payload encoding ---------- */
+
+    private static byte[] encode(TreeSitterAnalyzer.FileAnalysisResult result) throws IOException {
+        // CodeUnits are written once into a per-file table and referenced by index; their source is the file itself
+        var ids = new LinkedHashMap<CodeUnit, Integer>();
+        Function<CodeUnit, Integer> idOf = cu -> ids.computeIfAbsent(cu, k -> ids.size());
+        result.topLevelCUs().forEach(idOf::apply);
+        result.children().forEach((parent, kids) -> {
+            idOf.apply(parent);
+            kids.forEach(idOf::apply);
+        });
+        result.signatures().keySet().forEach(idOf::apply);
+        result.sourceRanges().keySet().forEach(idOf::apply);
+        result.references().keySet().forEach(idOf::apply);
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(ids.size());
+        for (var cu : ids.keySet()) {
+            out.writeByte(cu.kind().ordinal());
+            writeString(out, cu.packageName());
+            writeString(out, cu.shortName());
+        }
+
+        out.writeInt(result.topLevelCUs().size());
+        for (var cu : result.topLevelCUs()) {
+            out.writeInt(ids.get(cu));
+        }
+
+        out.writeInt(result.children().size());
+        for (var e : result.children().entrySet()) {
+            out.writeInt(ids.get(e.getKey()));
+            out.writeInt(e.getValue().size());
+            for (var kid : e.getValue()) {
+                out.writeInt(ids.get(kid));
+            }
+        }
+
+        out.writeInt(result.signatures().size());
+        for (var e : result.signatures().entrySet()) {
+            out.writeInt(ids.get(e.getKey()));
+            out.writeInt(e.getValue().size());
+            for (var signature : e.getValue()) {
+                writeString(out, signature);
+            }
+        }
+
+        out.writeInt(result.sourceRanges().size());
+        for (var e : result.sourceRanges().entrySet()) {
+            out.writeInt(ids.get(e.getKey()));
+            out.writeInt(e.getValue().size());
+            for (var range : e.getValue()) {
+                out.writeInt(range.startByte());
+                out.writeInt(range.endByte());
+                out.writeInt(range.startLine());
+                out.writeInt(range.endLine());
+            }
+        }
+
+        out.writeInt(result.importStatements().size());
+        for (var statement : result.importStatements()) {
+            writeString(out, statement);
+        }
+
+        out.writeInt(result.references().size());
+        for (var e : result.references().entrySet()) {
+            out.writeInt(ids.get(e.getKey()));
+            out.writeInt(e.getValue().size());
+            for (var reference : e.getValue().entrySet()) {
+                writeString(out, reference.getKey());
+                out.writeInt(reference.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static TreeSitterAnalyzer.FileAnalysisResult decode(ProjectFile file, ByteBuffer buf) {
+        var kinds = CodeUnitType.values();
+        var cus = new CodeUnit[buf.getInt()];
+        for (int i = 0; i < cus.length; i++) {
+            var kind = kinds[buf.get()];
+            cus[i] = new CodeUnit(file, kind, readString(buf), readString(buf));
+        }
+
+        var topLevel = new ArrayList<CodeUnit>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            topLevel.add(cus[buf.getInt()]);
+        }
+
+        var children = new HashMap<CodeUnit, List<CodeUnit>>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            var parent = cus[buf.getInt()];
+            var kids = new ArrayList<CodeUnit>();
+            for (int j = buf.getInt(); j > 0; j--) {
+                kids.add(cus[buf.getInt()]);
+            }
+            children.put(parent, List.copyOf(kids));
+        }
+
+        var signatures = new HashMap<CodeUnit, List<String>>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            var cu = cus[buf.getInt()];
+            var list = new ArrayList<String>();
+            for (int j = buf.getInt(); j > 0; j--) {
+                list.add(readString(buf));
+            }
+            signatures.put(cu, List.copyOf(list));
+        }
+
+        var ranges = new HashMap<CodeUnit, List<TreeSitterAnalyzer.Range>>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            var cu = cus[buf.getInt()];
+            var list = new ArrayList<TreeSitterAnalyzer.Range>();
+            for (int j = buf.getInt(); j > 0; j--) {
+                list.add(new TreeSitterAnalyzer.Range(buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt()));
+            }
+            ranges.put(cu, RangeList.copyOf(list));
+        }
+
+        var imports = new ArrayList<String>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            imports.add(readString(buf));
+        }
+
+        var references = new HashMap<CodeUnit, Map<String, Integer>>();
+        for (int i = buf.getInt(); i > 0; i--) {
+            var cu = cus[buf.getInt()];
+            var counts = new HashMap<String, Integer>();
+            for (int j = buf.getInt(); j > 0; j--) {
+                counts.put(TreeSitterAnalyzer.REFERENCE_NAMES.intern(readString(buf)), buf.getInt());
+            }
+            references.put(cu, Map.copyOf(counts));
+        }
+
+        return new TreeSitterAnalyzer.FileAnalysisResult(List.copyOf(topLevel),
+                                                         children,
+                                                         signatures,
+                                                         ranges,
+                                                         List.copyOf(imports),
+                                                         references);
+    }
+
+    private static void writeEntryHeader(DataOutputStream out, String relPath, FileStamp stamp, String context, int payloadLength) throws IOException {
+        writeString(out, relPath);
+        out.writeLong(stamp.size());
+        out.writeLong(stamp.mtime());
+        out.write(stamp.hash());
+        writeString(out, context);
+        out.writeInt(payloadLength);
+    }
+
+    /** Length-prefixed UTF-8; unlike writeUTF this has no 64KB limit, which large signatures can exceed. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        var s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+
+}
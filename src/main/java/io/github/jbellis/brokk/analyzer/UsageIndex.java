@@ -0,0 +1,289 @@
+package io.github.jbellis.brokk.analyzer;
+
+import io.github.jbellis.brokk.util.AtomicWrites;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Reverse references of a CPG, built in one pass by {@link JoernAnalyzer}: for every method, field and type,
+ * the code units that use it, by {@link Kind}. This lets getUses answer with map lookups instead of traversing
+ * the whole CPG with regexes for every symbol.
+ * <p>
+ * Stored next to the CPG as {@code <cpg>.uses} and stamped with the CPG file's size and mtime, so that an index
+ * written for a different CPG is never loaded.
+ * <p>
+ * Format (big-endian): magic, format version, CPG size and mtime, the code unit table (kind, file, package,
+ * short name), then per kind the keys and their refs (code unit index, owner type), then the subclass table.
+ */
+final class UsageIndex {
+    private static final Logger logger = LogManager.getLogger(UsageIndex.class);
+
+    private static final int MAGIC = 0x42555349; // "BUSI"
+    private static final int FORMAT_VERSION = 1;
+
+    enum Kind {
+        /** Keyed by the CPG fullName (with signature) of the called method. */
+        CALL,
+        /** Keyed by {@code <declaring type fullName>.<field name>}. */
+        FIELD_ACCESS,
+        // The following are keyed by the type's fullName, see normalizeType
+        FIELD_TYPE,
+        PARAMETER_TYPE,
+        LOCAL_TYPE,
+        RETURN_TYPE,
+        SUBCLASS
+    }
+
+    /**
+     * A code unit that uses the key, and the fullName of the type declaring it ({@code ""} if none), so that
+     * references from within the used class itself can be left out.
+     */
+    record Ref(CodeUnit user, String ownerType) {
+    }
+
+    private final Map<Kind, NavigableMap<String, List<Ref>>> refs;
+    private final Map<String, List<String>> subclasses; // type fullName -> fullNames of types directly inheriting from it
+
+    private UsageIndex(Map<Kind, NavigableMap<String, List<Ref>>> refs, Map<String, List<String>> subclasses) {
+        this.refs = refs;
+        this.subclasses = subclasses;
+    }
+
+    /** Users of the key as the given kind of reference. */
+    List<Ref> get(Kind kind, String key) {
+        return refs.get(kind).getOrDefault(key, List.of());
+    }
+
+    /**
+     * Users of the type or of its nested types ({@code Outer$Inner}) as the given kind of reference; for type
+     * keys, with {@code '$'} separating nested types as Joern names them.
+     */
+    List<Ref> getIncludingNested(Kind kind, String typeFullName) {
+        var byKey = refs.get(kind);
+        var result = new ArrayList<>(byKey.getOrDefault(typeFullName, List.of()));
+        // '%' sorts right after '$', so this is exactly the keys starting with "typeFullName$"
+        byKey.subMap(typeFullName + "$", true, typeFullName + "%", false).values().forEach(result::addAll);
+        return result;
+    }
+
+    /** FullNames of the types that directly inherit from the given one. */
+    List<String> directSubclasses(String typeFullName) {
+        return subclasses.getOrDefault(typeFullName, List.of());
+    }
+
+    /**
+     * The type a declared type name refers to, for indexing: C/C++ keyword prefixes and a single array
+     * suffix are dropped, so that {@code struct Foo} and {@code Foo[]} are both uses of {@code Foo}.
+     */
+    static String normalizeType(String typeFullName) {
+        var type = typeFullName;
+        for (var prefix : List.of("struct ", "class ", "union ", "enum ")) {
+            if (type.startsWith(prefix)) {
+                type = type.substring(prefix.length());
+                break;
+            }
+        }
+        return type.endsWith("[]") ? type.substring(0, type.length() - 2) : type;
+    }
+
+    static final class Builder {
+        private final Map<Kind, Map<String, List<Ref>>> refs = new EnumMap<>(Kind.class);
+        private final Map<String, List<String>> subclasses = new HashMap<>();
+
+        Builder() {
+            for (var kind : Kind.values()) {
+                refs.put(kind, new HashMap<>());
+            }
+        }
+
+        Builder add(Kind kind, String key, CodeUnit user, String ownerType) {
+            refs.get(kind).computeIfAbsent(key, k -> new ArrayList<>()).add(new Ref(user, ownerType));
+            return this;
+        }
+
+        Builder addSubclass(String parentFullName, String childFullName) {
+            subclasses.computeIfAbsent(parentFullName, k -> new ArrayList<>()).add(childFullName);
+            return this;
+        }
+
+        UsageIndex build() {
+            var frozen = new EnumMap<Kind, NavigableMap<String, List<Ref>>>(Kind.class);
+            refs.forEach((kind, byKey) -> {
+                var sorted = new TreeMap<String, List<Ref>>();
+                byKey.forEach((key, list) -> sorted.put(key, list.stream().distinct().toList()));
+                frozen.put(kind, sorted);
+            });
+            var subs = new HashMap<String, List<String>>();
+            subclasses.forEach((parent, children) -> subs.put(parent, children.stream().distinct().toList()));
+            return new UsageIndex(frozen, subs);
+        }
+    }
+
+    /* ---------- persistence ---------- */
+
+    /**
+     * Reads the index stored next to the given CPG; empty if there is none, it cannot be read, or it was written
+     * for a different version of the CPG file.
+     */
+    static Optional<UsageIndex> load(Path cpgPath, Path root) {
+        var indexFile = indexPath(cpgPath);
+        byte[] data;
+        try {
+            data = Files.readAllBytes(indexFile);
+        } catch (NoSuchFileException e) {
+            logger.debug("No usage index at {}", indexFile);
+            return Optional.empty();
+        } catch (IOException e) {
+            logger.warn("Unable to read usage index {}: {}", indexFile, e.getMessage());
+            return Optional.empty();
+        }
+
+        try {
+            var buf = ByteBuffer.wrap(data);
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+                logger.debug("Ignoring usage index {} written in a different format", indexFile);
+                return Optional.empty();
+            }
+            long cpgSize = buf.getLong();
+            long cpgMtime = buf.getLong();
+            if (cpgSize != Files.size(cpgPath) || cpgMtime != Files.getLastModifiedTime(cpgPath).toMillis()) {
+                logger.debug("Ignoring usage index {} written for a different CPG", indexFile);
+                return Optional.empty();
+            }
+
+            var kinds = CodeUnitType.values();
+            var files = new HashMap<String, ProjectFile>();
+            var units = new CodeUnit[buf.getInt()];
+            for (int i = 0; i < units.length; i++) {
+                var kind = kinds[buf.get()];
+                var file = files.computeIfAbsent(readString(buf), relPath -> new ProjectFile(root, relPath));
+                units[i] = new CodeUnit(file, kind, readString(buf), readString(buf));
+            }
+
+            var refs = new EnumMap<Kind, NavigableMap<String, List<Ref>>>(Kind.class);
+            for (var kind : Kind.values()) {
+                var byKey = new TreeMap<String, List<Ref>>();
+                for (int i = buf.getInt(); i > 0; i--) {
+                    var key = readString(buf);
+                    var list = new ArrayList<Ref>();
+                    for (int j = buf.getInt(); j > 0; j--) {
+                        list.add(new Ref(units[buf.getInt()], readString(buf)));
+                    }
+                    byKey.put(key, List.copyOf(list));
+                }
+                refs.put(kind, byKey);
+            }
+
+            var subclasses = new HashMap<String, List<String>>();
+            for (int i = buf.getInt(); i > 0; i--) {
+                var parent = readString(buf);
+                var children = new ArrayList<String>();
+                for (int j = buf.getInt(); j > 0; j--) {
+                    children.add(readString(buf));
+                }
+                subclasses.put(parent, List.copyOf(children));
+            }
+            return Optional.of(new UsageIndex(refs, subclasses));
+        } catch (BufferUnderflowException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            logger.warn("Discarding corrupt usage index {}: {}", indexFile, e.toString());
+            return Optional.empty();
+        } catch (IOException e) {
+            logger.debug("Unable to stat CPG {}: {}", cpgPath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /** Writes the index next to the given CPG, stamped with the CPG file as it is now. */
+    void save(Path cpgPath) {
+        var indexFile = indexPath(cpgPath);
+        try {
+            // code units are written once and referenced by index; most of them use many things
+            var ids = new LinkedHashMap<CodeUnit, Integer>();
+            Function<CodeUnit, Integer> idOf = cu -> ids.computeIfAbsent(cu, k -> ids.size());
+            refs.values().forEach(byKey -> byKey.values().forEach(list -> list.forEach(ref -> idOf.apply(ref.user()))));
+
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(Files.size(cpgPath));
+            out.writeLong(Files.getLastModifiedTime(cpgPath).toMillis());
+
+            out.writeInt(ids.size());
+            for (var cu : ids.keySet()) {
+                out.writeByte(cu.kind().ordinal());
+                writeString(out, cu.source().toString());
+                writeString(out, cu.packageName());
+                writeString(out, cu.shortName());
+            }
+
+            for (var kind : Kind.values()) {
+                var byKey = refs.get(kind);
+                out.writeInt(byKey.size());
+                for (var e : byKey.entrySet()) {
+                    writeString(out, e.getKey());
+                    out.writeInt(e.getValue().size());
+                    for (var ref : e.getValue()) {
+                        out.writeInt(ids.get(ref.user()));
+                        writeString(out, ref.ownerType());
+                    }
+                }
+            }
+
+            out.writeInt(subclasses.size());
+            for (var e : subclasses.entrySet()) {
+                writeString(out, e.getKey());
+                out.writeInt(e.getValue().size());
+                for (var child : e.getValue()) {
+                    writeString(out, child);
+                }
+            }
+            out.flush();
+            AtomicWrites.atomicOverwrite(indexFile, bytes.toByteArray());
+            logger.debug("Wrote usage index with {} code units to {}", ids.size(), indexFile);
+        } catch (IOException e) {
+            logger.warn("Unable to write usage index {}: {}", indexFile, e.getMessage());
+        }
+    }
+
+    private static Path indexPath(Path cpgPath) {
+        return cpgPath.resolveSibling(cpgPath.getFileName() + ".uses");
+    }
+
+    /** Length-prefixed UTF-8; unlike writeUTF this has no 64KB limit. */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        var s = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return s;
+    }
+}
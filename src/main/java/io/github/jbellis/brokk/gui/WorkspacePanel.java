@@ -618,12 +618,12 @@ public class WorkspacePanel extends JPanel {
 
         var allFragments = ctx.getAllFragmentsInDisplayOrder();
         int totalLines = 0;
-        StringBuilder fullText = new StringBuilder();
+        int approxTokens = 0; // summed per fragment, so unchanged fragments are counted from the token cache
         for (var frag : allFragments) {
             String locText;
             if (frag.isText() || frag instanceof ContextFragment.OutputFragment) {
                 var text = getTextSafe(frag);
-                fullText.append(text).append("\n");
+                approxTokens += Messages.getApproximateTokens(text) + 1; // and the newline between fragments
                 int loc = text.split("\\r?\\n", -1).length;
                 totalLines += loc;
                 locText = "%,d".formatted(loc);
@@ -652,7 +652,6 @@ public class WorkspacePanel extends JPanel {
             tableModel.addRow(new Object[]{locText, desc, fileReferences, frag});
         }
 
-        var approxTokens = Messages.getApproximateTokens(fullText.toString());
         var innerLabel = (JLabel) locSummaryLabel.getComponent(0);
 
         // Check for context size warnings against configured models
@@ -3,6 +3,8 @@ package io.github.jbellis.brokk.gui.dialogs;
 import io.github.jbellis.brokk.analyzer.CallSite;
 import io.github.jbellis.brokk.analyzer.CodeUnitType;
 import io.github.jbellis.brokk.analyzer.IAnalyzer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import javax.swing.*;
 import java.awt.*;
@@ -10,11 +12,16 @@ import java.awt.event.KeyEvent;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 /**
  * Dialog for configuring call graph analysis with method selection and depth control
  */
 public class CallGraphDialog extends JDialog {
+    private static final Logger logger = LogManager.getLogger(CallGraphDialog.class);
 
     private final SymbolSelectionPanel selectionPanel;
     private final JButton okButton;
@@ -32,8 +39,8 @@ public class CallGraphDialog extends JDialog {
     // Indicates if the user confirmed the selection
     private boolean confirmed = false;
 
-    // The call graph map (caller/callee methods -> list of call sites)
-    private Map<String, List<CallSite>> callGraph = null;
+    // Computes the call graph map (caller/callee methods -> list of call sites) for the current input
+    private SwingWorker<Map<String, List<CallSite>>, Integer> callGraphWorker = null;
 
     // Whether we're looking for callers (to) or callees (from)
     private boolean isCallerGraph = true;
@@ -110,6 +117,7 @@ public class CallGraphDialog extends JDialog {
         cancelButton = new JButton("Cancel");
         cancelButton.addActionListener(e -> {
             confirmed = false;
+            cancelCallGraph();
             dispose();
         });
         buttonPanel.add(okButton);
@@ -121,6 +129,7 @@ public class CallGraphDialog extends JDialog {
         getRootPane().registerKeyboardAction(e -> {
             confirmed = false;
             selectedMethod = null;
+            cancelCallGraph();
             dispose();
         }, escapeKeyStroke, JComponent.WHEN_IN_FOCUSED_WINDOW);
 
@@ -142,34 +151,59 @@ public class CallGraphDialog extends JDialog {
     }
 
     /**
-     * Updates the call graph map when the method or depth changes
+     * Recomputes the call graph in the background when the method or depth changes, showing the number of
+     * call sites found so far; a computation for previous input is canceled.
      */
     private void updateCallGraph() {
+        cancelCallGraph();
         String methodName = selectionPanel.getSymbolText();
         if (methodName == null || methodName.isEmpty()) {
-            callGraph = null;
+            callGraphWorker = null;
             updateCallSitesCount(0);
             return;
         }
 
-        // Update the call graph map
-        if (isCallerGraph) {
-            callGraph = analyzer.getCallgraphTo(methodName, depth);
-        } else {
-            callGraph = analyzer.getCallgraphFrom(methodName, depth);
-        }
+        int graphDepth = depth;
+        callGraphWorker = new SwingWorker<>() {
+            @Override
+            protected Map<String, List<CallSite>> doInBackground() {
+                var found = new AtomicInteger();
+                BiConsumer<String, CallSite> onCallSite = (method, callSite) -> publish(found.incrementAndGet());
+                return isCallerGraph
+                       ? analyzer.getCallgraphTo(methodName, graphDepth, onCallSite)
+                       : analyzer.getCallgraphFrom(methodName, graphDepth, onCallSite);
+            }
+
+            @Override
+            protected void process(List<Integer> counts) {
+                if (!isCancelled()) {
+                    updateCallSitesCount(counts.getLast());
+                }
+            }
+
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+                    updateCallSitesCount(get().values().stream().mapToInt(List::size).sum());
+                } catch (InterruptedException | ExecutionException e) {
+                    logger.warn("Failed to build call graph for {}", methodName, e);
+                    callSitesLabel.setText("Call sites: unavailable");
+                }
+            }
+        };
+        updateCallSitesCount(0);
+        callGraphWorker.execute();
+    }
 
-        // Count total call sites
-        int totalCallSites = 0;
-        if (callGraph != null) {
-            totalCallSites = callGraph.values().stream()
-                    .mapToInt(List::size)
-                    .sum();
+    private void cancelCallGraph() {
+        if (callGraphWorker != null && !callGraphWorker.isDone()) {
+            callGraphWorker.cancel(true);
         }
-        
-        updateCallSitesCount(totalCallSites);
     }
-    
+
     /**
      * Updates the call sites count label
      */
@@ -215,9 +249,23 @@ public class CallGraphDialog extends JDialog {
     }
     
     /**
-     * Return the call graph map (callers or callees)
+     * Return the call graph map (callers or callees) for the confirmed input, or null if there is none.
+     * Waits for the background computation to finish, so this must not be called on the EDT.
      */
     public Map<String, List<CallSite>> getCallGraph() {
-        return callGraph;
+        assert !SwingUtilities.isEventDispatchThread();
+        var worker = callGraphWorker;
+        if (worker == null) {
+            return null;
+        }
+        try {
+            return worker.get();
+        } catch (CancellationException | ExecutionException e) {
+            logger.warn("Call graph unavailable for {}", selectedMethod, e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
     }
 }
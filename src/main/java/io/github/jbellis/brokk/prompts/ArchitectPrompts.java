@@ -11,20 +11,16 @@ public abstract class ArchitectPrompts extends CodePrompts {
 
     @Override
     public SystemMessage systemMessage(IContextManager cm, String reminder) {
-        var workspaceSummary = formatWorkspaceDescriptions(cm);
         var styleGuide = cm.getProject().getStyleGuide();
 
         var text = """
           <instructions>
           %s
           </instructions>
-          <workspace-summary>
-          %s
-          </workspace-summary>
           <style_guide>
           %s
           </style_guide>
-          """.stripIndent().formatted(systemIntro(reminder), workspaceSummary, styleGuide).trim();
+          """.stripIndent().formatted(systemIntro(reminder), styleGuide).trim();
         return new SystemMessage(text);
     }
 
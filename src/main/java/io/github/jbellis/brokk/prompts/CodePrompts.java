@@ -17,6 +17,11 @@ import java.util.stream.Collectors;
 
 /**
  * Generates prompts for the main coding agent loop, including instructions for SEARCH/REPLACE blocks.
+ * <p>
+ * Messages are laid out from most to least stable: system prompt and style guide, then task history, then this
+ * task's messages so far, then the Workspace, then the request. Providers cache the longest previously seen prefix
+ * of a prompt, so content that changes between requests (like the Workspace) goes after content that does not.
+ * For the same reason the system message holds nothing that changes during a session.
  */
 public abstract class CodePrompts {
     public static final CodePrompts instance = new CodePrompts() {}; // Changed instance creation
@@ -76,8 +81,8 @@ public abstract class CodePrompts {
         var messages = new ArrayList<ChatMessage>();
 
         messages.add(systemMessage(cm, ""));
-        messages.addAll(cm.getWorkspaceContentsMessages());
         messages.addAll(cm.getHistoryMessages());
+        messages.addAll(cm.getWorkspaceContentsMessages());
         messages.add(askRequest(input));
 
         return messages;
@@ -102,20 +107,16 @@ public abstract class CodePrompts {
     }
 
     protected SystemMessage systemMessage(IContextManager cm, String reminder) {
-        var workspaceSummary = formatWorkspaceDescriptions(cm);
         var styleGuide = cm.getProject().getStyleGuide();
 
         var text = """
           <instructions>
           %s
           </instructions>
-          <workspace-summary>
-          %s
-          </workspace-summary>
           <style_guide>
           %s
           </style_guide>
-          """.stripIndent().formatted(systemIntro(reminder), workspaceSummary, styleGuide).trim();
+          """.stripIndent().formatted(systemIntro(reminder), styleGuide).trim();
 
         return new SystemMessage(text);
     }
@@ -24,6 +24,8 @@ import java.util.stream.Collectors;
  */
 public class SearchTools {
     private static final Logger logger = LogManager.getLogger(SearchTools.class);
+    private static final Pattern CAMEL_HUMP_QUERY = Pattern.compile("[A-Za-z][A-Za-z0-9_$]*");
+    private static final int MAX_CAMEL_HUMP_RESULTS = 100;
 
     private final IContextManager contextManager; // Needed for file operations
 
@@ -229,6 +231,14 @@ public class SearchTools {
                 allDefinitions.addAll(getAnalyzer().searchDefinitions(pattern));
             }
         }
+        if (allDefinitions.isEmpty()) {
+            // a bare abbreviation like NPE or AbsUsrDao matches nothing as a regex; try it as camel humps
+            for (String pattern : patterns) {
+                if (CAMEL_HUMP_QUERY.matcher(pattern).matches()) {
+                    allDefinitions.addAll(getAnalyzer().searchCamelHumps(pattern, MAX_CAMEL_HUMP_RESULTS));
+                }
+            }
+        }
         logger.debug("Raw definitions: {}", allDefinitions);
 
         if (allDefinitions.isEmpty()) {
@@ -253,7 +263,7 @@ public class SearchTools {
             @P("Explanation of what you're looking for in this request so the summarizer can accurately capture it.")
             String reasoning
     ) {
-        assert getAnalyzer().isCpg() : "Cannot search usages: CPG analyzer is not available.";
+        assert getAnalyzer().hasReferenceGraph() : "Cannot search usages: Code Intelligence is not available.";
         // Sanitize symbols: remove potential `(params)` suffix from LLM.
         symbols = stripParams(symbols);
         if (symbols.isEmpty()) {
@@ -286,7 +296,7 @@ public class SearchTools {
             @P("List of fully qualified class names to use as seeds for finding related classes.")
             List<String> classNames
     ) {
-        assert getAnalyzer().isCpg() : "Cannot find related classes: CPG analyzer is not available.";
+        assert getAnalyzer().hasReferenceGraph() : "Cannot find related classes: Code Intelligence is not available.";
         // Sanitize classNames: remove potential `(params)` suffix from LLM.
         classNames = stripParams(classNames);
         if (classNames.isEmpty()) {
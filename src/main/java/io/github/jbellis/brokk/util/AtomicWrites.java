@@ -2,11 +2,15 @@ package io.github.jbellis.brokk.util;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
 import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Properties;
 
 public class AtomicWrites {
@@ -22,12 +26,24 @@ public class AtomicWrites {
      * @throws IOException if an I/O error occurs during writing or moving the file.
      */
     public static void atomicOverwrite(Path targetPath, String content) throws IOException {
+        // Write the content using UTF-8 encoding.
+        atomicOverwrite(targetPath, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Overwrites the content of a file with the provided binary data, using the same
+     * write-to-temp-then-move strategy as {@link #atomicOverwrite(Path, String)}.
+     *
+     * @param targetPath the path to the target file that will be overwritten.
+     * @param content    the bytes to write.
+     * @throws IOException if an I/O error occurs during writing or moving the file.
+     */
+    public static void atomicOverwrite(Path targetPath, byte[] content) throws IOException {
         // Create a temporary file in the same directory as the target file.
         Path tempFile = Files.createTempFile(targetPath.getParent(), "temp-", ".tmp");
 
         try {
-            // Write the content to the temporary file using UTF-8 encoding.
-            Files.write(tempFile, content.getBytes(StandardCharsets.UTF_8));
+            Files.write(tempFile, content);
 
             try {
                 // Try to atomically move the temporary file to the target location.
@@ -45,6 +61,59 @@ public class AtomicWrites {
         }
     }
 
+    /**
+     * Like {@link #atomicOverwrite(Path, byte[])}, but forces the content to disk before the move, so that after a
+     * crash the target holds either its old content or all of the new. The move itself is durable once the
+     * directory is synced with {@link #syncDirectory(Path)}.
+     *
+     * @param targetPath the path to the target file that will be overwritten.
+     * @param content    the bytes to write.
+     * @throws IOException if an I/O error occurs during writing or moving the file.
+     */
+    public static void atomicOverwriteForced(Path targetPath, byte[] content) throws IOException {
+        Path tempFile = Files.createTempFile(targetPath.getParent(), "temp-", ".tmp");
+
+        try {
+            try (var channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                var buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+
+            try {
+                Files.move(tempFile, targetPath,
+                           StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, targetPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+    }
+
+    /**
+     * Forces the directory's entries to disk, so that files created, moved or deleted in it survive a crash.
+     * Does nothing on platforms that cannot open a directory for syncing, such as Windows.
+     *
+     * @param dir the directory to sync.
+     * @throws IOException if an I/O error occurs while syncing.
+     */
+    public static void syncDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (AccessDeniedException | UnsupportedOperationException e) {
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
     /**
      * Atomically saves a Properties object to a file.
      * <p>
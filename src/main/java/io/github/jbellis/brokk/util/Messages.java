@@ -1,5 +1,9 @@
 package io.github.jbellis.brokk.util;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import dev.langchain4j.agent.tool.ToolExecutionRequest;
 import dev.langchain4j.data.message.*;
 import dev.langchain4j.model.openai.OpenAiTokenizer;
@@ -19,6 +23,14 @@ public class Messages {
     // Tokenizer can remain static as it's stateless based on model ID
     private static final OpenAiTokenizer tokenizer = new OpenAiTokenizer("gpt-4o");
 
+    // Token counts of texts we have already encoded, keyed by a 128-bit hash of the text so that the cache does not
+    // pin large strings. Hashing is a single cheap pass, much faster than the BPE encode it saves
+    private static final Cache<HashCode, Integer> tokenCounts = CacheBuilder.newBuilder().maximumSize(100_000).build();
+    // Below this length encoding is about as cheap as hashing, so short texts are not cached
+    private static final int MIN_CACHED_LENGTH = 256;
+    // Average UTF-8 bytes per token of the tokenizer on English and source code
+    private static final int BYTES_PER_TOKEN = 4;
+
     /**
      * We render these as "System" messages in the output. We don't use actual System messages since those
      * are only allowed at the very beginning for some models.
@@ -119,18 +131,51 @@ public class Messages {
 
     /**
      * Estimates the token count of a text string.
-     * This can remain static as it only depends on the static tokenizer.
+     * This can remain static as it only depends on the static tokenizer. Counts are cached by content, so
+     * counting a text that was counted before (e.g. an unchanged fragment or history entry) does not re-encode it.
      */
     public static int getApproximateTokens(String text) {
         if (text == null || text.isEmpty()) {
             return 0;
         }
-        return tokenizer.encode(text).size();
+        if (text.length() < MIN_CACHED_LENGTH) {
+            return tokenizer.encode(text).size();
+        }
+        var key = Hashing.murmur3_128().hashUnencodedChars(text);
+        var cached = tokenCounts.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        int count = tokenizer.encode(text).size();
+        tokenCounts.put(key, count);
+        return count;
     }
 
+    /**
+     * Estimates the token count of the messages joined by newlines, as the sum of the (cached) counts of each
+     * message so that a prompt that shares most messages with an earlier one is mostly counted from cache.
+     */
     public static int getApproximateTokens(Collection<ChatMessage> messages) {
-        return getApproximateTokens(messages.stream()
-                                            .map(Messages::getText)
-                                            .collect(Collectors.joining("\n")));
+        int total = 0;
+        for (var message : messages) {
+            total += getApproximateTokens(getText(message));
+        }
+        return total + Math.max(0, messages.size() - 1); // the newlines between messages
+    }
+
+    /**
+     * A fast estimate of the token count from the UTF-8 length alone, without encoding. For budget checks that
+     * only need the right order of magnitude.
+     */
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3; // a surrogate pair is 4 bytes
+        }
+        return (int) ((bytes + BYTES_PER_TOKEN - 1) / BYTES_PER_TOKEN);
     }
 }
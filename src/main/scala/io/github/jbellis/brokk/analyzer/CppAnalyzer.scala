@@ -19,8 +19,10 @@ import scala.util.matching.Regex // Added for mutable.ListBuffer
 class CppAnalyzer private(sourcePath: Path, cpgInit: Cpg)
   extends JoernAnalyzer(sourcePath, cpgInit) {
 
-  def this(sourcePath: Path, preloadedPath: Path) =
+  def this(sourcePath: Path, preloadedPath: Path) = {
     this(sourcePath, io.joern.joerncli.CpgBasedTool.loadFromFile(preloadedPath.toString))
+    cpgPath = Some(preloadedPath)
+  }
 
   def this(sourcePath: Path, excludedFiles: java.util.Set[String]) =
     this(sourcePath, CppAnalyzer.createNewCpgForSource(sourcePath, excludedFiles))
@@ -29,6 +31,11 @@ class CppAnalyzer private(sourcePath: Path, cpgInit: Cpg)
 
   override def isCpg: Boolean = true
 
+  override protected def sourceExtensions: Set[String] = {
+    import scala.jdk.CollectionConverters.*
+    Language.C_CPP.getExtensions.asScala.toSet
+  }
+
   //---------------------------------------------------------------------
   // Language-specific helpers
   //---------------------------------------------------------------------
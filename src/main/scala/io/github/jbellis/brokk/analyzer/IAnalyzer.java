@@ -3,6 +3,8 @@ package io.github.jbellis.brokk.analyzer;
 import scala.Tuple2;
 
 import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 public interface IAnalyzer {
     // Basics
@@ -14,6 +16,43 @@ public interface IAnalyzer {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * True if {@link #getPagerank} and {@link #getUses} are supported: CPG analyzers answer them from the CPG,
+     * tree-sitter analyzers from a lighter name-based reference graph.
+     */
+    default boolean hasReferenceGraph() {
+        return isCpg();
+    }
+
+    /**
+     * Re-analyzes the given added, modified, or deleted files and returns an analyzer that reflects their
+     * current contents, without re-parsing the rest of the project. This analyzer must be left unchanged,
+     * so that callers still holding it get consistent answers; {@code this} is returned only if none of the
+     * files are relevant to it.
+     *
+     * @throws UnsupportedOperationException if only a full rebuild can pick up the changes
+     */
+    default IAnalyzer update(Set<ProjectFile> changedFiles) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * False while a lazily-built analyzer is still indexing files in the background. Project-wide queries
+     * such as {@link #getAllDeclarations()} wait for indexing to finish, so callers that only want
+     * statistics should check this first. Lookups by name do not wait, so until this is true a missing
+     * symbol may just not be indexed yet.
+     */
+    default boolean isFullyIndexed() {
+        return true;
+    }
+
+    /**
+     * Hint that these files are likely to be queried soon, e.g. because they are in the workspace.
+     * Lazily-built analyzers index them ahead of the rest; others ignore it.
+     */
+    default void prioritize(Collection<ProjectFile> files) {
+    }
+
     // CPG methods
     default List<CodeUnit> getUses(String fqName) {
         throw new UnsupportedOperationException();
@@ -25,6 +64,20 @@ public interface IAnalyzer {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Forward and reversed {@link #getPagerank} from the same seeds, with the scores of classes found in both
+     * directions summed, ordered by descending combined score.
+     */
+    default List<Tuple2<CodeUnit, Double>> getBidirectionalPagerank(Map<String, Double> seedClassWeights, int k) {
+        var combined = new HashMap<CodeUnit, Double>();
+        getPagerank(seedClassWeights, k, false).forEach(pair -> combined.put(pair._1(), pair._2()));
+        getPagerank(seedClassWeights, k, true).forEach(pair -> combined.merge(pair._1(), pair._2(), Double::sum));
+        return combined.entrySet().stream()
+                .sorted(Map.Entry.<CodeUnit, Double>comparingByValue().reversed())
+                .map(e -> new Tuple2<>(e.getKey(), e.getValue()))
+                .toList();
+    }
+
     default Map<String, List<CallSite>> getCallgraphTo(String methodName, int depth) {
         throw new UnsupportedOperationException();
     }
@@ -33,6 +86,27 @@ public interface IAnalyzer {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Like {@link #getCallgraphTo(String, int)}, but also reports each call site to {@code onCallSite} (keyed by
+     * the method it belongs to) as soon as it is found, so that callers can show partial graphs. If the calling
+     * thread is interrupted, implementations may stop early and return what they have found so far.
+     */
+    default Map<String, List<CallSite>> getCallgraphTo(String methodName, int depth, BiConsumer<String, CallSite> onCallSite) {
+        var graph = getCallgraphTo(methodName, depth);
+        graph.forEach((method, sites) -> sites.forEach(site -> onCallSite.accept(method, site)));
+        return graph;
+    }
+
+    /**
+     * Like {@link #getCallgraphFrom(String, int)}, reporting call sites as they are found; see
+     * {@link #getCallgraphTo(String, int, BiConsumer)}.
+     */
+    default Map<String, List<CallSite>> getCallgraphFrom(String methodName, int depth, BiConsumer<String, CallSite> onCallSite) {
+        var graph = getCallgraphFrom(methodName, depth);
+        graph.forEach((method, sites) -> sites.forEach(site -> onCallSite.accept(method, site)));
+        return graph;
+    }
+
     // Summarization
 
     /**
@@ -75,6 +149,16 @@ public interface IAnalyzer {
         return skeletons;
     }
 
+    /**
+     * Skeletons of the top-level declarations of all the given files. When a CodeUnit is declared
+     * in more than one of them, the first skeleton found wins.
+     */
+    default Map<CodeUnit, String> getSkeletons(Collection<ProjectFile> files) {
+        return files.parallelStream()
+                .flatMap(file -> getSkeletons(file).entrySet().stream())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (v1, v2) -> v1));
+    }
+
     default List<CodeUnit> getMembersInClass(String fqClass) {
         throw new UnsupportedOperationException();
     }
@@ -111,6 +195,22 @@ public interface IAnalyzer {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Like {@link #searchDefinitions(String)}, but returns only the first {@code limit} matches in fqName order,
+     * so that analyzers with an index can stop early.
+     */
+    default List<CodeUnit> searchDefinitions(String pattern, int limit) {
+        return searchDefinitions(pattern).stream().sorted().limit(limit).toList();
+    }
+
+    /**
+     * Declarations whose name matches a camel-hump abbreviation, e.g. {@code NPE} or {@code NuPoEx} for
+     * {@code NullPointerException}, ignoring case; the first {@code limit} in fqName order.
+     */
+    default List<CodeUnit> searchCamelHumps(String query, int limit) {
+        return List.of();
+    }
+
     /**
      * Gets a set of relevant symbol names (classes, methods, fields) defined within the given source CodeUnits.
      *
@@ -24,8 +24,10 @@ import boundary.break // Added for modern early exit
 class JavaAnalyzer private(sourcePath: Path, cpgInit: Cpg)
   extends JoernAnalyzer(sourcePath, cpgInit) {
 
-  def this(sourcePath: Path, preloadedPath: Path) =
+  def this(sourcePath: Path, preloadedPath: Path) = {
     this(sourcePath, CpgBasedTool.loadFromFile(preloadedPath.toString))
+    cpgPath = Some(preloadedPath)
+  }
 
   def this(sourcePath: Path, excludedFiles: java.util.Set[String]) =
     this(sourcePath, JavaAnalyzer.createNewCpgForSource(sourcePath, excludedFiles))
@@ -35,6 +37,11 @@ class JavaAnalyzer private(sourcePath: Path, cpgInit: Cpg)
 
   override def isCpg: Boolean = true
 
+  override protected def sourceExtensions: Set[String] = {
+    import scala.jdk.CollectionConverters.*
+    Language.JAVA.getExtensions.asScala.toSet
+  }
+
   /**
    * Java-specific method signature builder.
    */
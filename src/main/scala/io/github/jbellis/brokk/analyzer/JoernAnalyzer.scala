@@ -3,14 +3,12 @@ package io.github.jbellis.brokk.analyzer
 import flatgraph.storage.Serialization
 import io.github.jbellis.brokk.*
 import org.slf4j.LoggerFactory
-import io.joern.dataflowengineoss.layers.dataflows.OssDataFlow
 import io.joern.joerncli.CpgBasedTool
 import io.joern.x2cpg.{ValidationMode, X2Cpg}
 import io.shiftleft.codepropertygraph.generated.Cpg
 import io.shiftleft.codepropertygraph.generated.language.*
 import io.shiftleft.codepropertygraph.generated.nodes.{Call, Method, TypeDecl, NamespaceBlock}
 import io.shiftleft.semanticcpg.language.*
-import io.shiftleft.semanticcpg.layers.LayerCreatorContext
 
 import java.io.{Closeable, IOException}
 import java.nio.file.Path
@@ -23,7 +21,6 @@ import scala.concurrent.ExecutionContext
 import scala.io.Source
 import scala.util.Try
 import scala.util.matching.Regex
-import scala.jdk.OptionConverters.RichOptional
 
 /**
  * An abstract base for language-specific analyzers.
@@ -48,11 +45,18 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
   protected implicit val ec: ExecutionContext = ExecutionContext.global
   protected implicit val callResolver: ICallResolver = NoResolve
 
-  // Adjacency maps for pagerank
-  private var adjacency: Map[String, Map[String, Int]] = Map.empty
-  private var reverseAdjacency: Map[String, Map[String, Int]] = Map.empty
-  private var classesForPagerank: Set[String] = Set.empty
-  initializePageRank()
+  if (cpg.metaData.headOption.isEmpty)
+    throw new IllegalStateException("CPG root not found for " + absolutePath)
+
+  import JoernAnalyzer.{CallGraphIndex, MaxCachedPageranks, MaxCallSitesPerMethod, PageRankGraph}
+
+  // Built on first use, so that startup doesn't pay for it until pagerank is needed
+  @volatile private var pageRankGraphOpt: Option[PageRankGraph] = None
+  // Loaded from next to the CPG or built on first use, like the pagerank graph
+  @volatile private var usageIndexOpt: Option[UsageIndex] = None
+
+  // Where the CPG was loaded from or written to, so that the usage index can be persisted next to it
+  @volatile private[brokk] var cpgPath: Option[Path] = None
 
   /**
    * Secondary constructor: create a new analyzer, loading a pre-built CPG from `preloadedPath`.
@@ -119,24 +123,35 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
     td.nonEmpty && !(td.member.isEmpty && td.method.isEmpty && td.derivedTypeDecl.isEmpty)
   }
 
-  private def initializePageRank(): Unit = {
-    if (cpg.metaData.headOption.isEmpty)
-      throw new IllegalStateException("CPG root not found for " + absolutePath)
-
-    // Initialize adjacency map
-    adjacency = buildWeightedAdjacency()
-    val reverseMap = TrieMap[String, TrieMap[String, Int]]()
-
-    // Build reverse adjacency from the forward adjacency
-    adjacency.par.foreach { case (src, tgtMap) =>
-      tgtMap.foreach { case (dst, weight) =>
-        val targetMap = reverseMap.getOrElseUpdate(dst, TrieMap.empty)
-        targetMap.update(src, targetMap.getOrElse(src, 0) + weight)
+  private def pageRankGraph: PageRankGraph =
+    pageRankGraphOpt.getOrElse(synchronized {
+      pageRankGraphOpt.getOrElse {
+        val graph = buildPageRankGraph()
+        pageRankGraphOpt = Some(graph)
+        graph
       }
+    })
+
+  private def buildPageRankGraph(): PageRankGraph = {
+    val startTime = System.currentTimeMillis()
+    val adjacency = buildWeightedAdjacency()
+    val builder = new CsrGraph.Builder()
+    adjacency.foreach { case (src, tgtMap) =>
+      builder.node(src)
+      tgtMap.foreach { case (dst, weight) => builder.addEdge(src, dst, weight) }
+    }
+    val graph = builder.build()
+
+    // Resolve every node to its CodeUnit once, rather than querying the CPG for each class on every pagerank call
+    val declsByName = mutable.HashMap[String, TypeDecl]()
+    cpg.typeDecl.foreach(td => declsByName.getOrElseUpdate(td.fullName, td))
+    val units = (0 until graph.size()).map { id =>
+      val fqcn = graph.name(id)
+      declsByName.get(fqcn).flatMap(toFile).flatMap(file => Try(cuClass(fqcn, file)).toOption.flatten)
     }
-    reverseAdjacency = reverseMap.map { case (src, tgtMap) => src -> tgtMap.toMap }.toMap
 
-    classesForPagerank = (adjacency.keys ++ adjacency.values.flatMap(_.keys)).toSet
+    logger.debug(s"Built pagerank graph over ${graph.size()} classes in ${System.currentTimeMillis() - startTime} ms")
+    PageRankGraph(graph, units)
   }
 
   override def getMethodSource(fqName: String): Optional[String] = {
@@ -304,20 +319,137 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
       case -1 => full
       case idx => full.substring(0, idx)
 
+  private def usageIndex: UsageIndex =
+    usageIndexOpt.getOrElse(synchronized {
+      usageIndexOpt.getOrElse {
+        import scala.jdk.OptionConverters.*
+        val index = cpgPath.flatMap(path => UsageIndex.load(path, absolutePath).toScala).getOrElse {
+          val built = buildUsageIndex()
+          cpgPath.foreach(built.save)
+          built
+        }
+        usageIndexOpt = Some(index)
+        index
+      }
+    })
+
   /**
-   * For a given method node `m`, returns the CPG Method nodes of its callers.
-   * If `excludeSelfRefs` is true, we skip callers whose TypeDecl matches `m.typeDecl`.
+   * Collects in one pass over the CPG what getUses reports: the callers of every method, the methods accessing
+   * every field, and the declarations using every type (fields, parameters, locals, return types, subclasses).
    */
-  protected def callersOfMethodNode(m: Method, excludeSelfRefs: Boolean): List[Method] = {
-    var callNodes = m.callIn
-    if (excludeSelfRefs) {
-      m.typeDecl.fullName.headOption.foreach { selfSourceFqn =>
-        callNodes = callNodes.filterNot { call =>
-          call.method.typeDecl.fullName.headOption.exists(callerSourceFqn => partOfClass(selfSourceFqn, callerSourceFqn))
+  private def buildUsageIndex(): UsageIndex = {
+    import UsageIndex.Kind
+    val startTime = System.currentTimeMillis()
+    val builder = new UsageIndex.Builder()
+    val callerUnits = mutable.HashMap[Method, Option[CodeUnit]]()
+
+    cpg.call.foreach { call =>
+      val caller = call.method
+      callerUnits.getOrElseUpdate(caller, usageUnit(caller)).foreach { cu =>
+        val ownerType = caller.typeDecl.fullName.headOption.getOrElse("")
+        if (call.name == "<operator>.fieldAccess") {
+          for {
+            typeName <- Iterator.single(call).argument(1).typ.fullName
+            fieldName <- Iterator.single(call).argument(2).code
+          } builder.add(Kind.FIELD_ACCESS, s"$typeName.$fieldName", cu, ownerType)
+        } else {
+          call.callee.foreach(callee => builder.add(Kind.CALL, callee.fullName, cu, ownerType))
         }
       }
     }
-    callNodes.method.dedup.l // .method gets the calling method node(s)
+
+    cpg.typeDecl.foreach { td =>
+      val lastDot = td.fullName.lastIndexOf('.')
+      val packageName = if (lastDot > 0) td.fullName.substring(0, lastDot) else ""
+      val fileOpt = toFile(td)
+      fileOpt.foreach { file =>
+        td.member.foreach { member =>
+          Try(CodeUnit.field(file, packageName, s"${td.name}.${member.name}")).toOption.foreach { cu =>
+            builder.add(Kind.FIELD_TYPE, UsageIndex.normalizeType(member.typeFullName), cu, td.fullName)
+          }
+        }
+      }
+      td.inheritsFromTypeFullName.foreach { parent =>
+        builder.addSubclass(parent, td.fullName)
+        fileOpt.flatMap(file => Try(CodeUnit.cls(file, packageName, td.name)).toOption).foreach { cu =>
+          builder.add(Kind.SUBCLASS, parent, cu, td.fullName)
+        }
+      }
+    }
+
+    cpg.method.foreach { m =>
+      for {
+        ownerType <- m.typeDecl.fullName.headOption
+        cu <- typeUseUnit(m)
+      } {
+        m.parameter.foreach(p => builder.add(Kind.PARAMETER_TYPE, UsageIndex.normalizeType(p.typeFullName), cu, ownerType))
+        m.local.foreach(l => builder.add(Kind.LOCAL_TYPE, UsageIndex.normalizeType(l.typeFullName), cu, ownerType))
+        builder.add(Kind.RETURN_TYPE, UsageIndex.normalizeType(m.methodReturn.typeFullName), cu, ownerType)
+      }
+    }
+
+    val index = builder.build()
+    logger.debug(s"Built usage index in ${System.currentTimeMillis() - startTime} ms")
+    index
+  }
+
+  /** The FUNCTION CodeUnit that getUses reports for a method calling or accessing the symbol. */
+  private def usageUnit(cpgMethod: Method): Option[CodeUnit] = {
+    val fileOpt = if (cpgMethod.filename.nonEmpty) toFile(cpgMethod.filename) else cpgMethod.typeDecl.headOption.flatMap(toFile)
+    fileOpt.flatMap { file =>
+      // For global methods, CPG fullName might be "filename.ext:funcname".
+      // For class methods, it's "pkg.Cls.method:sig" or "Cls.method:sig".
+      // resolveMethodName(chopColon(...)) handles this.
+      val baseFqn = resolveMethodName(chopColon(cpgMethod.fullName))
+
+      val fqnForCu =
+        if !baseFqn.contains(".") && !baseFqn.contains(":") then
+          // synthesise package  "filename_ext"
+          val fn = baseFqn
+          val fileName = Path.of(file.toString).getFileName.toString
+          val dot = fileName.lastIndexOf('.')
+          val (stem, ext) = if dot > 0 then (fileName.substring(0, dot), fileName.substring(dot + 1))
+          else (fileName, "")
+          val pkg = if ext.nonEmpty then s"${stem}_${ext}" else stem
+          s"$pkg.$fn"
+        else baseFqn
+
+      cuFunction(fqnForCu, file)
+    }
+  }
+
+  /** The FUNCTION CodeUnit that getUses reports for a method using a type as parameter, local, or return type. */
+  private def typeUseUnit(m: Method): Option[CodeUnit] = {
+    m.typeDecl.headOption.flatMap { td =>
+      toFile(td).flatMap { file =>
+        val methodName = resolveMethodName(chopColon(m.fullName))
+        val lastDot = methodName.lastIndexOf('.')
+        if (lastDot > 0) {
+          val fullClassPath = methodName.substring(0, lastDot)
+          val classLastDot = fullClassPath.lastIndexOf('.')
+          val packageName = if (classLastDot > 0) fullClassPath.substring(0, classLastDot) else ""
+          val className = if (classLastDot > 0) fullClassPath.substring(classLastDot + 1) else fullClassPath
+          val memberName = methodName.substring(lastDot + 1)
+
+          Try(CodeUnit.fn(file, packageName, s"$className.$memberName")).toOption
+        } else {
+          cuFunction(methodName, file)
+        }
+      }
+    }
+  }
+
+  /**
+   * For a given method node `m`, returns the CodeUnits of its callers.
+   * If `excludeSelfRefs` is true, we skip callers whose TypeDecl matches `m.typeDecl`.
+   */
+  protected def callersOfMethodNode(m: Method, excludeSelfRefs: Boolean): List[CodeUnit] = {
+    import scala.jdk.CollectionConverters.*
+    val selfSource = if (excludeSelfRefs) m.typeDecl.fullName.headOption else None
+    usageIndex.get(UsageIndex.Kind.CALL, m.fullName).asScala
+      .filterNot(ref => selfSource.exists(partOfClass(_, ref.ownerType)))
+      .map(_.user)
+      .toList
   }
 
   protected def partOfClass(parentFqcn: String, childFqcn: String): Boolean = {
@@ -329,22 +461,12 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
   /**
    * Return all methods that reference a given field "classFullName.fieldName".
    */
-  protected def referencesToField(selfSource: String, fieldName: String, excludeSelfRefs: Boolean): List[String] = {
-    var calls = cpg.call
-      .nameExact("<operator>.fieldAccess")
-      .where(_.argument(1).typ.fullNameExact(selfSource))
-      .where(_.argument(2).codeExact(fieldName))
-
-    if (excludeSelfRefs) {
-      calls = calls.filterNot(call =>
-        partOfClass(selfSource, call.method.typeDecl.fullName.head)
-      )
-    }
-    calls.method
-      .fullName
-      .map(x => resolveMethodName(chopColon(x)))
-      .distinct
-      .l
+  protected def referencesToField(selfSource: String, fieldName: String, excludeSelfRefs: Boolean): List[CodeUnit] = {
+    import scala.jdk.CollectionConverters.*
+    usageIndex.get(UsageIndex.Kind.FIELD_ACCESS, s"$selfSource.$fieldName").asScala
+      .filterNot(ref => excludeSelfRefs && partOfClass(selfSource, ref.ownerType))
+      .map(_.user)
+      .toList
   }
 
   /**
@@ -353,140 +475,33 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
    * - parameters/locals typed with that class
    * - classes that inherit from that class
    * - methods that return that class
+   * Uses of its nested classes, and of arrays of it, count as well.
    */
   protected def referencesToClassAsType(classFullName: String): List[CodeUnit] = {
     import scala.jdk.CollectionConverters.*
-    val typePattern =
-      "^" +
-        "(?:struct |class |union |enum )?" + // optional C/C++ keyword prefix
-        Regex.quote(classFullName) +
-        "(\\$.*)?(\\[\\])?"
-
-    // Fields typed with this class → return as field CodeUnits
-    val fieldRefs = cpg.member
-      .typeFullName(typePattern)
-      .astParent
-      .isTypeDecl
-      .filter(td => !partOfClass(classFullName, td.fullName))
-      .flatMap { td => // td is the TypeDecl containing the field
-        toFile(td).map { file => // Use map here since we return a List[CodeUnit] below
-          // Find members matching the type pattern within this TypeDecl
-          td.member.typeFullName(typePattern).flatMap { member =>
-            // Here we have all the parts: package, class, member
-            val lastDot = td.fullName.lastIndexOf('.')
-            val packageName = if (lastDot > 0) td.fullName.substring(0, lastDot) else ""
-            val className = td.name
-            val fieldName = member.name
-
-            // Create using exact 3-parameter factory
-            Try(CodeUnit.field(file, packageName, s"$className.$fieldName")).toOption
-          }.toList // Convert the final Iterator[CodeUnit] to List[CodeUnit]
-        }.getOrElse(List.empty) // If toFile(td) was None, return empty list
-      } // This outer flatMap now correctly flattens List[List[CodeUnit]] into List[CodeUnit]
-
-    // Parameters typed with this class → return as function CodeUnits
-    val paramRefs = cpg.parameter
-      .typeFullName(typePattern)
-      .method
-      .filter(m => m.typeDecl.fullName.headOption.exists(ownerFqcn => !partOfClass(classFullName, ownerFqcn)))
-      .flatMap { m =>
-        m.typeDecl.headOption.flatMap { td =>
-          toFile(td).flatMap { file =>
-            val methodName = resolveMethodName(chopColon(m.fullName))
-            val lastDot = methodName.lastIndexOf('.')
-            if (lastDot > 0) {
-              val fullClassPath = methodName.substring(0, lastDot)
-              val classLastDot = fullClassPath.lastIndexOf('.')
-              val packageName = if (classLastDot > 0) fullClassPath.substring(0, classLastDot) else ""
-              val className = if (classLastDot > 0) fullClassPath.substring(classLastDot + 1) else fullClassPath
-              val memberName = methodName.substring(lastDot + 1)
-
-              Try(CodeUnit.fn(file, packageName, s"$className.$memberName")).toOption
-            } else {
-              cuFunction(methodName, file)
-            }
-          }
-        }
-      }
-      .l
-
-    // Locals typed with this class → return as function CodeUnits
-    val localRefs = cpg.local
-      .typeFullName(typePattern)
-      .method
-      .filter(m => m.typeDecl.fullName.headOption.exists(ownerFqcn => !partOfClass(classFullName, ownerFqcn)))
-      .flatMap { m =>
-        m.typeDecl.headOption.flatMap { td =>
-          toFile(td).flatMap { file =>
-            val methodName = resolveMethodName(chopColon(m.fullName))
-            val lastDot = methodName.lastIndexOf('.')
-            if (lastDot > 0) {
-              val fullClassPath = methodName.substring(0, lastDot)
-              val classLastDot = fullClassPath.lastIndexOf('.')
-              val packageName = if (classLastDot > 0) fullClassPath.substring(0, classLastDot) else ""
-              val className = if (classLastDot > 0) fullClassPath.substring(classLastDot + 1) else fullClassPath
-              val memberName = methodName.substring(lastDot + 1)
-
-              Try(CodeUnit.fn(file, packageName, s"$className.$memberName")).toOption
-            } else {
-              cuFunction(methodName, file)
-            }
-          }
-        }
-      }
-      .l
-
-    // Methods returning this class → return as function CodeUnits
-    val methodReturnRefs = cpg.method
-      .where(_.methodReturn.typeFullName(typePattern))
-      .filter(m => m.typeDecl.fullName.headOption.exists(ownerFqcn => !partOfClass(classFullName, ownerFqcn)))
-      .flatMap { m =>
-        m.typeDecl.headOption.flatMap { td =>
-          toFile(td).flatMap { file =>
-            val methodName = resolveMethodName(chopColon(m.fullName))
-            val lastDot = methodName.lastIndexOf('.')
-            if (lastDot > 0) {
-              val fullClassPath = methodName.substring(0, lastDot)
-              val classLastDot = fullClassPath.lastIndexOf('.')
-              val packageName = if (classLastDot > 0) fullClassPath.substring(0, classLastDot) else ""
-              val className = if (classLastDot > 0) fullClassPath.substring(classLastDot + 1) else fullClassPath
-              val memberName = methodName.substring(lastDot + 1)
-
-              Try(CodeUnit.fn(file, packageName, s"$className.$memberName")).toOption
-            } else {
-              cuFunction(methodName, file)
-            }
-          }
-        }
-      }
-      .l
-
-    // Classes that inherit from this class → return as class CodeUnits
-    val inheritingClasses = cpg.typeDecl
-      .filter(_.inheritsFromTypeFullName.contains(classFullName))
-      .filter(td => !partOfClass(classFullName, td.fullName))
-      .flatMap { td =>
-        toFile(td).flatMap { file =>
-          val lastDot = td.fullName.lastIndexOf('.')
-          val packageName = if (lastDot > 0) td.fullName.substring(0, lastDot) else ""
-          val className = td.name
-
-          Try(CodeUnit.cls(file, packageName, className)).toOption
-        }
-      }
-      .l
-
-    (fieldRefs ++ paramRefs ++ localRefs ++ methodReturnRefs ++ inheritingClasses).toList.distinct
+    import UsageIndex.Kind
+    val index = usageIndex
+    val typeRefs = List(Kind.FIELD_TYPE, Kind.PARAMETER_TYPE, Kind.LOCAL_TYPE, Kind.RETURN_TYPE)
+      .flatMap(kind => index.getIncludingNested(kind, classFullName).asScala)
+    val inheritingClasses = index.get(Kind.SUBCLASS, classFullName).asScala
+    (typeRefs ++ inheritingClasses)
+      .filterNot(ref => partOfClass(classFullName, ref.ownerType))
+      .map(_.user)
+      .distinct
   }
 
   /**
    * Recursively collects the fully-qualified names of all subclasses of the given class.
    */
   private[brokk] def allSubclasses(className: String): Set[String] = {
-    val direct = cpg.typeDecl.l.filter { td =>
-      td.inheritsFromTypeFullName.contains(className)
-    }.map(_.fullName).toSet
-    direct ++ direct.flatMap { sub => allSubclasses(sub) }
+    import scala.jdk.CollectionConverters.*
+    val index = usageIndex
+    val result = mutable.LinkedHashSet[String]()
+    var frontier = List(className)
+    while (frontier.nonEmpty) {
+      frontier = frontier.flatMap(c => index.directSubclasses(c).asScala).filter(result.add)
+    }
+    result.toSet
   }
 
   override def getUses(symbol: String): java.util.List[CodeUnit] = {
@@ -535,39 +550,7 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
 
     if (expandedMethodMatches.nonEmpty) {
       logger.debug(s"Processing ${expandedMethodMatches.size} matched methods")
-      // Collect all CPG Method nodes of callers from all matched methods
-      val callingCpgMethods = expandedMethodMatches.flatMap(m => callersOfMethodNode(m, excludeSelfRefs = false)).distinct
-      logger.debug(s"Found ${callingCpgMethods.size} distinct calling CPG methods.")
-
-      val results = callingCpgMethods.flatMap { cpgMethod =>
-        val fileOpt = if (cpgMethod.filename.nonEmpty) toFile(cpgMethod.filename) else cpgMethod.typeDecl.headOption.flatMap(toFile)
-        fileOpt.flatMap { file =>
-          val isGlobalMethod = cpgMethod.astParent match {
-            case parentNode: NamespaceBlock => true
-            case parentNode: TypeDecl => parentNode.name.endsWith("<global>")
-            case _ => false
-          }
-
-          // For global methods, CPG fullName might be "filename.ext:funcname".
-          // For class methods, it's "pkg.Cls.method:sig" or "Cls.method:sig".
-          // resolveMethodName(chopColon(...)) handles this.
-          val baseFqn = resolveMethodName(chopColon(cpgMethod.fullName))
-
-          val fqnForCu =
-            if !baseFqn.contains(".") && !baseFqn.contains(":") then
-              // synthesise package  “filename_ext”
-              val fn = baseFqn
-              val fileName = Path.of(file.toString).getFileName.toString
-              val dot = fileName.lastIndexOf('.')
-              val (stem, ext) = if dot > 0 then (fileName.substring(0, dot), fileName.substring(dot + 1))
-              else (fileName, "")
-              val pkg = if ext.nonEmpty then s"${stem}_${ext}" else stem
-              s"$pkg.$fn"
-            else baseFqn
-
-          cuFunction(fqnForCu, file)
-        }
-      }
+      val results = expandedMethodMatches.flatMap(m => callersOfMethodNode(m, excludeSelfRefs = false)).distinct
       logger.debug(s"Created ${results.size} CodeUnits for calling methods. Example: ${results.take(5).map(_.fqName()).mkString(", ")}")
       return results.asJava
     }
@@ -588,20 +571,7 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
           logger.debug(s"Found field declaration: $fieldPart")
           val refs = referencesToField(classPart, fieldPart, excludeSelfRefs = false)
           logger.debug(s"Found ${refs.size} references to field '$fieldPart'")
-
-          val result = refs.flatMap { methodName =>
-            val methods = cpg.method.fullName(s"$methodName:.*").l
-            if (methods.nonEmpty) {
-              methods.head.typeDecl.headOption.flatMap(toFile).flatMap { file =>
-                cuFunction(methodName, file)
-              }
-            } else {
-              logger.debug(s"No method node found for field reference: $methodName")
-              None
-            }
-          }
-          logger.debug(s"Returning ${result.size} field references")
-          return result.asJava
+          return refs.asJava
         } else {
           logger.debug(s"No field named '$fieldPart' found in class '$classPart'")
         }
@@ -627,19 +597,17 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
     val allClasses = (classDecls.map(_.fullName).toSet ++ subclasses).toList
     logger.debug(s"Processing ${allClasses.size} classes in total")
 
-    val methodUsesAsCpgMethods = allClasses.flatMap { cn =>
+    val methodUseUnits = allClasses.flatMap { cn =>
       cpg.typeDecl.fullNameExact(cn).l.flatMap { td =>
-        td.method.l.flatMap(m => callersOfMethodNode(m, true)) // callersOfMethodNode now returns List[Method]
+        td.method.l.flatMap(m => callersOfMethodNode(m, true))
       }
-    }.distinct // Ensure CPG methods are distinct before converting to CodeUnits
-    logger.debug(s"Found ${methodUsesAsCpgMethods.size} distinct CPG methods using class methods (transitively).")
+    }.distinct
+    logger.debug(s"Found ${methodUseUnits.size} distinct methods using class methods (transitively).")
 
-    // fieldRefUses already returns List[String] which are FQNs of methods referencing fields.
-    // This needs to be consistent or converted carefully. For now, assume it's List[String] of method FQNs.
-    val fieldRefMethodFqns = classDecls.flatMap { td =>
+    val fieldUseUnits = classDecls.flatMap { td =>
       td.member.l.flatMap(mem => referencesToField(td.fullName, mem.name, excludeSelfRefs = true))
     }.distinct
-    logger.debug(s"Found ${fieldRefMethodFqns.size} distinct method FQNs referencing fields.")
+    logger.debug(s"Found ${fieldUseUnits.size} distinct methods referencing fields.")
 
     val typeUses = allClasses.flatMap { cn =>
       val uses = referencesToClassAsType(cn)
@@ -648,54 +616,50 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
     }
     logger.debug(s"Total type uses: ${typeUses.size}")
 
-    // Convert methodUsesAsCpgMethods (List[Method]) to CodeUnits
-    val methodUseUnits = methodUsesAsCpgMethods.flatMap { cpgMethod =>
-      val fileOpt = if (cpgMethod.filename.nonEmpty) toFile(cpgMethod.filename) else cpgMethod.typeDecl.headOption.flatMap(toFile)
-      fileOpt.flatMap { file =>
-        val isGlobalMethod = cpgMethod.astParent match {
-          case parentNode: NamespaceBlock => true
-          case parentNode: TypeDecl => parentNode.name.endsWith("<global>")
-          case _ => false
-        }
-        val fqnForCu = resolveMethodName(chopColon(cpgMethod.fullName))
-        cuFunction(fqnForCu, file)
-      }
-    }
-    logger.debug(s"Converted ${methodUsesAsCpgMethods.size} CPG methods to ${methodUseUnits.size} CodeUnits.")
-
-    // Convert fieldRefMethodFqns (List[String] of method FQNs) to CodeUnits
-    val fieldUseUnits = fieldRefMethodFqns.flatMap { methodFqnString =>
-      // methodFqnString is already a resolved FQN of a method.
-      // methodsFromName should be able to find the CPG Method node(s).
-      val cpgMethods = methodsFromName(methodFqnString)
-      cpgMethods.headOption.flatMap { cpgMethod => // Take first if multiple, or handle ambiguity if needed
-        val fileOpt = if (cpgMethod.filename.nonEmpty) toFile(cpgMethod.filename) else cpgMethod.typeDecl.headOption.flatMap(toFile)
-        fileOpt.flatMap { file =>
-          // The fqnForCu should be the methodFqnString itself, as it's already resolved.
-          // Or, re-resolve from CPG method to be absolutely sure it's canonical.
-          val fqnForCuFromCpg = resolveMethodName(chopColon(cpgMethod.fullName))
-          cuFunction(fqnForCuFromCpg, file)
-        }
-      }
-    }
-    logger.debug(s"Converted ${fieldRefMethodFqns.size} field-referencing method FQNs to ${fieldUseUnits.size} CodeUnits.")
-
     val results = (methodUseUnits ++ fieldUseUnits ++ typeUses).distinct
     logger.debug(s"Final results: ${results.size} distinct usage references for '$symbol'")
     results.asJava
   }
 
+  // Method lookups for call graph traversal, built on first use
+  private lazy val callGraphIndex: CallGraphIndex = {
+    val startTime = System.currentTimeMillis()
+    val methods = cpg.method.l.toArray
+    val byName = methods.groupBy(m => chopColon(m.fullName)).view.mapValues(_.toIndexedSeq).toMap
+    val sorted = methods.sortBy(_.fullName)
+    logger.debug(s"Indexed ${methods.length} methods for call graphs in ${System.currentTimeMillis() - startTime} ms")
+    CallGraphIndex(byName, sorted.map(_.fullName), sorted)
+  }
+
+  /** Methods whose full name (including signature) starts with the given prefix, via binary search. */
+  private def methodsWithPrefix(prefix: String): List[Method] = {
+    val index = callGraphIndex
+    val insertion = java.util.Arrays.binarySearch(index.sortedFullNames.asInstanceOf[Array[AnyRef]], prefix)
+    val start = if (insertion >= 0) insertion else -insertion - 1
+    Iterator.range(start, index.sortedFullNames.length)
+      .takeWhile(i => index.sortedFullNames(i).startsWith(prefix))
+      .map(i => index.sortedMethods(i))
+      .toList
+  }
+
+  /** The FUNCTION CodeUnit for a call graph node, memoized per (name, method) since BFS revisits them. */
+  private def callSiteUnit(name: String, method: Method): Option[CodeUnit] =
+    callGraphIndex.units.computeIfAbsent((name, method),
+      _ => method.typeDecl.headOption.flatMap(toFile).flatMap(file => cuFunction(name, file)))
+
   /**
-   * Builds either a forward or reverse call graph from a starting method up to a given depth.
+   * Builds either a forward or reverse call graph from a starting method up to a given depth. Each method
+   * contributes at most MaxCallSitesPerMethod call sites, which are reported to `onCallSite` as they are found;
+   * if the thread is interrupted, the graph found so far is returned.
    */
   private def buildCallGraph(
                               startingMethod: String,
                               isIncoming: Boolean,
-                              maxDepth: Int
+                              maxDepth: Int,
+                              onCallSite: java.util.function.BiConsumer[String, CallSite]
                             ): java.util.Map[String, java.util.List[CallSite]] = {
-    import scala.jdk.CollectionConverters.*
     val result = new java.util.HashMap[String, java.util.List[CallSite]]()
-    val startMethods = cpg.method.filter(m => chopColon(m.fullName) == startingMethod).l
+    val startMethods = callGraphIndex.byName.getOrElse(startingMethod, IndexedSeq.empty).toList
     if (startMethods.isEmpty) return result
 
     val visited = mutable.Set[String]()
@@ -710,37 +674,38 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
         !methodName.startsWith("com.sun.")
     }
 
-    def getSourceLine(call: io.shiftleft.codepropertygraph.generated.nodes.Call): String =
+    def getSourceLine(call: Call): String =
       call.code.trim.replaceFirst("^this\\.", "")
 
     def addCallSite(methodName: String, callSite: CallSite): Unit = {
-      val existing = result.getOrDefault(methodName, new java.util.ArrayList[CallSite]())
-      existing.add(callSite)
-      result.put(methodName, existing)
+      result.computeIfAbsent(methodName, _ => new java.util.ArrayList[CallSite]()).add(callSite)
+      onCallSite.accept(methodName, callSite)
     }
 
     def explore(methods: List[Method], currentDepth: Int): Unit = {
       if (currentDepth > maxDepth || methods.isEmpty) return
       val nextMethods = mutable.ListBuffer[Method]()
 
-      methods.foreach { method =>
+      val pending = methods.iterator
+      while (pending.hasNext && !Thread.currentThread().isInterrupted) {
+        val method = pending.next()
         val methodName = resolveMethodName(chopColon(method.fullName))
-        val calls = if (isIncoming) method.callIn.l else method.call.l
+        val calls = if (isIncoming) method.callIn else method.call
+        var added = 0
 
-        calls.foreach { call =>
+        while (calls.hasNext && added < MaxCallSitesPerMethod) {
+          val call = calls.next()
           if (isIncoming) {
             // The caller is the next method
             val callerMethod = call.method
             val callerName = resolveMethodName(chopColon(callerMethod.fullName))
 
             if (!visited.contains(callerName) && shouldIncludeMethod(callerName)) {
-              val callerFileOpt = callerMethod.typeDecl.headOption.flatMap(toFile)
-              callerFileOpt.foreach { file =>
-                cuFunction(callerName, file).foreach { cu =>
-                  addCallSite(methodName, CallSite(cu, getSourceLine(call)))
-                  visited += callerName
-                  nextMethods += callerMethod
-                }
+              callSiteUnit(callerName, callerMethod).foreach { cu =>
+                addCallSite(methodName, CallSite(cu, getSourceLine(call)))
+                added += 1
+                visited += callerName
+                nextMethods += callerMethod
               }
             }
           } else {
@@ -749,48 +714,74 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
             val calleeName = resolveMethodName(calleeFullName)
 
             if (!visited.contains(calleeName) && shouldIncludeMethod(calleeName)) {
-              val calleePattern = s"^${Regex.quote(calleeFullName)}.*"
-              val calleeMethods = cpg.method.fullName(calleePattern).l
+              val calleeMethods = methodsWithPrefix(calleeFullName)
               if (calleeMethods.nonEmpty) {
-                calleeMethods.head.typeDecl.headOption.flatMap(toFile).foreach { file =>
-                  cuFunction(calleeName, file).foreach { cu =>
-                    addCallSite(methodName, CallSite(cu, getSourceLine(call)))
-                    visited += calleeName
-                    nextMethods ++= calleeMethods
-                  }
+                callSiteUnit(calleeName, calleeMethods.head).foreach { cu =>
+                  addCallSite(methodName, CallSite(cu, getSourceLine(call)))
+                  added += 1
+                  visited += calleeName
+                  nextMethods ++= calleeMethods
                 }
               }
             }
           }
         }
+        if (added >= MaxCallSitesPerMethod) {
+          logger.debug(s"Call graph for $startingMethod: stopped after $added call sites of $methodName")
+        }
+      }
+      if (!Thread.currentThread().isInterrupted) {
+        explore(nextMethods.toList, currentDepth + 1)
       }
-      explore(nextMethods.toList, currentDepth + 1)
     }
 
     explore(startMethods, 1)
     result
   }
 
-  override def getCallgraphTo(methodName: String, depth: Int): java.util.Map[String, java.util.List[CallSite]] = {
+  override def getCallgraphTo(methodName: String, depth: Int): java.util.Map[String, java.util.List[CallSite]] =
+    getCallgraphTo(methodName, depth, (_, _) => ())
+
+  override def getCallgraphTo(methodName: String,
+                              depth: Int,
+                              onCallSite: java.util.function.BiConsumer[String, CallSite]): java.util.Map[String, java.util.List[CallSite]] = {
     val resolvedMethodName = resolveMethodName(methodName)
-    buildCallGraph(resolvedMethodName, isIncoming = true, maxDepth = depth)
+    buildCallGraph(resolvedMethodName, isIncoming = true, maxDepth = depth, onCallSite)
   }
 
-  override def getCallgraphFrom(methodName: String, depth: Int): java.util.Map[String, java.util.List[CallSite]] = {
+  override def getCallgraphFrom(methodName: String, depth: Int): java.util.Map[String, java.util.List[CallSite]] =
+    getCallgraphFrom(methodName, depth, (_, _) => ())
+
+  override def getCallgraphFrom(methodName: String,
+                                depth: Int,
+                                onCallSite: java.util.function.BiConsumer[String, CallSite]): java.util.Map[String, java.util.List[CallSite]] = {
     val resolvedMethodName = resolveMethodName(methodName)
-    buildCallGraph(resolvedMethodName, isIncoming = false, maxDepth = depth)
+    buildCallGraph(resolvedMethodName, isIncoming = false, maxDepth = depth, onCallSite)
   }
 
-  override def searchDefinitions(pattern: String): java.util.List[CodeUnit] = {
-    import scala.jdk.CollectionConverters.*
-    // If the user did not include a wildcard, match the pattern anywhere
-    val preparedPattern =
-      if pattern.contains(".*") then pattern else s".*${Regex.quote(pattern)}.*"
-    val ciPattern = "(?i)" + preparedPattern // case-insensitive substring match
+  override def searchDefinitions(pattern: String): java.util.List[CodeUnit] =
+    searchDefinitions(pattern, Int.MaxValue)
+
+  override def searchDefinitions(pattern: String, limit: Int): java.util.List[CodeUnit] = {
+    if pattern == ".*" then
+      if limit >= searchIndex.size() then searchIndex.all() else searchIndex.all().subList(0, limit)
+    else
+      // If the user did not include a wildcard, match the pattern anywhere
+      val preparedPattern =
+        if pattern.contains(".*") then pattern else s".*${Regex.quote(pattern)}.*"
+      // case-insensitive match of the whole name
+      searchIndex.matchingIdentifier(java.util.regex.Pattern.compile("(?i)" + preparedPattern), limit)
+  }
 
+  override def searchCamelHumps(query: String, limit: Int): java.util.List[CodeUnit] =
+    searchIndex.camelHumps(query, limit)
+
+  // Every project class, method and field, for searchDefinitions; built on first use
+  private lazy val searchIndex: SymbolSearchIndex = {
+    import scala.jdk.CollectionConverters.*
+    val startTime = System.currentTimeMillis()
     // Classes
-    val matchingClasses = cpg.typeDecl
-      .name(ciPattern)
+    val classes = cpg.typeDecl
       .fullName
       .filter(isClassInProject)
       .flatMap { className =>
@@ -802,9 +793,8 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
       .l
 
     // Methods
-    val matchingMethods = cpg.method
+    val methods = cpg.method
       .nameNot("<.*>")
-      .name(ciPattern)
       .filter { m => // A method is relevant if its parent class is in project OR it's a global
         val isGlobalHeuristic = m.astParent match {
           case parentNode: NamespaceBlock => true // Directly in namespace (file scope)
@@ -842,9 +832,8 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
       .l
 
     // Fields
-    val matchingFields = cpg.member
+    val fields = cpg.member
       .nameNot("<.*>") // Exclude pseudo-members whose own name is e.g. "<init>"
-      .name(ciPattern)
       .filter { f =>
         val owningTypeDecl = f.typeDecl // This is the TypeDecl node for the class owning the field
         // Ensure the owning class itself is not a pseudo-class (e.g. "<operator>")
@@ -869,7 +858,9 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
       }
       .l // .l is now correctly called on the Traversal[CodeUnit] from flatMap
 
-    (matchingClasses ++ matchingMethods ++ matchingFields).asJava
+    val index = SymbolSearchIndex.build((classes ++ methods ++ fields).asJava)
+    logger.debug(s"Indexed ${index.size()} definitions for search in ${System.currentTimeMillis() - startTime} ms")
+    index
   }
 
   override def getDefinition(fqName: String): java.util.Optional[CodeUnit] = {
@@ -952,71 +943,58 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
                             reversed: Boolean
                           ): java.util.List[(CodeUnit, java.lang.Double)] = {
     import scala.jdk.CollectionConverters.*
-    val seedWeights = seedClassWeights.asScala.view.mapValues(_.doubleValue()).toMap
-    // restrict to classes (FQCNs) that are in the graph
-    var validSeeds = seedWeights.keys.toSeq.filter(classesForPagerank.contains)
-    if (validSeeds.isEmpty) validSeeds = classesForPagerank.toSeq
-
-    val danglingNodes = classesForPagerank.par.filter { c =>
-      adjacency.get(c).forall(_.isEmpty)
-    }
-    val damping = 0.85
-    val epsilon = 1e-4
-    val maxIter = 50
+    val pr = pageRankGraph
+    rankClasses(pr, seedClassWeights.asScala.keySet, pr.graph.pagerank(seedClassWeights, reversed), k).asJava
+  }
 
-    val scores = TrieMap[String, Double](classesForPagerank.toSeq.map(_ -> 0.0) *)
-    val nextScores = TrieMap[String, Double](classesForPagerank.toSeq.map(_ -> 0.0) *)
+  /**
+   * Both directions come from a single pass over the graph. Results are cached per normalized seed vector on
+   * the pagerank graph, which belongs to this analyzer generation: an update produces a new analyzer and graph,
+   * so cached rankings never outlive the code they were computed from.
+   */
+  override def getBidirectionalPagerank(
+                                         seedClassWeights: java.util.Map[String, java.lang.Double],
+                                         k: Int
+                                       ): java.util.List[(CodeUnit, java.lang.Double)] = {
+    import scala.jdk.CollectionConverters.*
+    val pr = pageRankGraph
+    val seedWeights = seedClassWeights.asScala.view.mapValues(_.doubleValue()).toMap
     val totalWeight = seedWeights.values.sum
-    validSeeds.foreach { c =>
-      scores(c) = seedWeights.getOrElse(c, 0.0) / (if (totalWeight == 0) 1 else totalWeight)
-    }
+    val key = (seedWeights.view.mapValues(_ / (if (totalWeight == 0) 1 else totalWeight)).toMap, k)
 
-    var iteration = 0
-    var diffSum = Double.MaxValue
+    val cached = pr.combinedCache.get(key)
+    if (cached != null) return cached
 
-    while (iteration < maxIter && diffSum > epsilon) {
-      // zero nextScores
-      classesForPagerank.par.foreach { c => nextScores(c) = 0.0 }
-
-      val localDiffs = classesForPagerank.par.map { node =>
-        val (inMap, outMap) = if (reversed) (adjacency, reverseAdjacency) else (reverseAdjacency, adjacency)
-        val inboundSum = inMap.get(node).map { inboundMap =>
-          inboundMap.foldLeft(0.0) { case (acc, (u, weight)) =>
-            val outLinks = outMap(u)
-            val outWeight = outLinks.values.sum.max(1)
-            acc + (scores(u) * weight / outWeight)
-          }
-        }.getOrElse(0.0)
-
-        var newScore = damping * inboundSum
-        if (validSeeds.contains(node)) {
-          newScore += (1.0 - damping) *
-            (seedWeights.getOrElse(node, 0.0) / (if (totalWeight == 0) 1 else totalWeight))
-        }
-        nextScores(node) = newScore
-        math.abs(scores(node) - newScore)
-      }.sum
-
-      // handle dangling nodes
-      val danglingScore = danglingNodes.par.map(scores).sum
-      if (danglingScore > 0.0 && validSeeds.nonEmpty) {
-        validSeeds.par.foreach { seed =>
-          val weight = seedWeights.getOrElse(seed, 0.0) / (if (totalWeight == 0) 1 else totalWeight)
-          nextScores(seed) += damping * danglingScore * weight
-        }
-        // zero out dangling
-        danglingNodes.par.foreach { dn => nextScores(dn) = 0.0 }
-      }
-
-      diffSum = localDiffs
-      classesForPagerank.foreach { node => scores(node) = nextScores(node) }
-      iteration += 1
+    val startTime = System.currentTimeMillis()
+    val scores = pr.graph.bidirectionalPagerank(seedClassWeights)
+    val combined = mutable.LinkedHashMap[CodeUnit, Double]()
+    rankClasses(pr, seedWeights.keySet, scores(0), k).foreach { case (cu, s) => combined(cu) = s.doubleValue }
+    rankClasses(pr, seedWeights.keySet, scores(1), k).foreach { case (cu, s) =>
+      combined(cu) = combined.getOrElse(cu, 0.0) + s.doubleValue
     }
+    val result = java.util.List.copyOf(
+      combined.toList.sortBy { case (_, s) => -s }.map { case (cu, s) => (cu, java.lang.Double.valueOf(s)) }.asJava
+    )
+    logger.debug(s"Bidirectional pagerank over ${seedWeights.size} seeds in ${System.currentTimeMillis() - startTime} ms")
 
-    val sortedAll = scores.toList.sortBy { case (_, s) => -s }
-    val filteredSortedAll = sortedAll.filterNot { case (cls, _) =>
-      // cls here is the FQCN string from the sorted scores
-      seedWeights.keys.exists(seed => partOfClass(seed, cls))
+    if (pr.combinedCache.size >= MaxCachedPageranks) pr.combinedCache.clear()
+    pr.combinedCache.put(key, result)
+    result
+  }
+
+  /**
+   * Turns raw pagerank scores into the top-k classes: drops the seeds and their inner classes, coalesces
+   * inner classes into their parents, and skips classes without a project file or with a zero score.
+   */
+  private def rankClasses(pr: PageRankGraph,
+                          seeds: collection.Set[String],
+                          scores: Array[Double],
+                          k: Int): List[(CodeUnit, java.lang.Double)] = {
+    val PageRankGraph(graph, units) = pr
+    import scala.jdk.CollectionConverters.*
+    val sortedAll = CsrGraph.byDescendingScore(scores).asScala.map(_.intValue).toList
+    val filteredSortedAll = sortedAll.filterNot { id =>
+      seeds.exists(seed => partOfClass(seed, graph.name(id)))
     }
 
     // Coalesce inner classes: if both parent and inner class are present, keep only the parent.
@@ -1060,18 +1038,16 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
       results // Buffer[(CodeUnit, Double)]
     }
 
-    // Map sorted FQCNs to CodeUnit tuples, filtering out those without files
-    val sortedCodeUnits = filteredSortedAll.flatMap { case (fqcn, score) =>
-      getFileFor(fqcn).toScala.flatMap { file => // Use flatMap here
-        cuClass(fqcn, file).map((_, score)) // Use cuClass
-      }
+    // Map sorted node ids to CodeUnit tuples, filtering out those without files
+    val sortedCodeUnits = filteredSortedAll.flatMap { id =>
+      units(id).map((_, scores(id)))
     }
 
     // Coalesce and convert score to Java Double, filtering out zero scores
     coalesceInnerClasses(sortedCodeUnits, k)
       .map { case (cu, d) => (cu, java.lang.Double.valueOf(d)) }
       .filter(_._2 > 0.0) // Filter out results with zero score
-      .asJava
+      .toList
   }
 
   override def getDeclarationsInFile(file: ProjectFile): java.util.Set[CodeUnit] = {
@@ -1162,6 +1138,25 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
    */
   def writeCpg(path: Path): Unit = {
     Serialization.writeGraph(cpg.graph, path)
+    cpgPath = Some(path)
+    usageIndexOpt.foreach(_.save(path))
+  }
+
+  /** Source file extensions this analyzer's frontend reads; changes to other files never require a rebuild. */
+  protected def sourceExtensions: Set[String]
+
+  /**
+   * Joern frontends and overlays only run over a whole source tree, so the CPG cannot be patched per file:
+   * changes to files the frontend does not read are ignored, and any other change requires a full rebuild.
+   */
+  override def update(changedFiles: java.util.Set[ProjectFile]): IAnalyzer = {
+    import scala.jdk.CollectionConverters.*
+    val relevant = changedFiles.asScala
+      .exists(f => sourceExtensions.contains(com.google.common.io.Files.getFileExtension(f.absPath().toString)))
+    if (relevant) {
+      throw new UnsupportedOperationException("A CPG can only be rebuilt from the whole source tree")
+    }
+    this
   }
 
   override def close(): Unit = cpg.close()
@@ -1215,3 +1210,31 @@ abstract class JoernAnalyzer protected(sourcePath: Path, private[brokk] val cpg:
     symbols
   }
 }
+
+object JoernAnalyzer {
+  /**
+   * The class-level weighted adjacency for pagerank as a CSR graph, and the CodeUnit of each graph node
+   * (by node id) if it is declared in a project file.
+   */
+  private case class PageRankGraph(graph: CsrGraph,
+                                   units: IndexedSeq[Option[CodeUnit]]) {
+    /** Bidirectional rankings by (seed weights normalized to sum to one, k). */
+    val combinedCache = new ConcurrentHashMap[(Map[String, Double], Int), java.util.List[(CodeUnit, java.lang.Double)]]()
+  }
+
+  /** Distinct workspaces whose rankings are kept per analyzer before the cache starts over. */
+  private val MaxCachedPageranks = 32
+
+  /** Bounds the fan-out of each method in a call graph, so that hub methods don't make deep graphs explode. */
+  private val MaxCallSitesPerMethod = 100
+
+  /**
+   * Methods by fullName without signature, and all methods sorted by full name for prefix lookups, plus the
+   * FUNCTION CodeUnits resolved so far, keyed by (resolved method name, method node).
+   */
+  private case class CallGraphIndex(byName: Map[String, IndexedSeq[Method]],
+                                    sortedFullNames: Array[String],
+                                    sortedMethods: Array[Method]) {
+    val units = new ConcurrentHashMap[(String, Method), Option[CodeUnit]]()
+  }
+}
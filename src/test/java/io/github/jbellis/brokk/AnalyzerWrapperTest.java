@@ -0,0 +1,87 @@
+package io.github.jbellis.brokk;
+
+import io.github.jbellis.brokk.analyzer.DisabledAnalyzer;
+import io.github.jbellis.brokk.analyzer.IAnalyzer;
+import io.github.jbellis.brokk.analyzer.Language;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnalyzerWrapperTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testLanguagesBuildConcurrently() {
+        var started = new CountDownLatch(2);
+        var delegates = AnalyzerWrapper.buildDelegates(Set.of(Language.JAVA, Language.PYTHON), lang -> {
+            started.countDown();
+            // each build waits for the other to start, so a sequential build would time out here
+            assertTrue(await(started));
+            return new DisabledAnalyzer();
+        }, executor, partial -> {});
+
+        assertEquals(Set.of(Language.JAVA, Language.PYTHON), delegates.keySet());
+    }
+
+    @Test
+    void testEachReadyLanguageIsReportedWithTheOnesBeforeIt() {
+        var java = new DisabledAnalyzer();
+        var python = new DisabledAnalyzer();
+        var pythonReported = new CountDownLatch(1);
+        var reported = new CopyOnWriteArrayList<Map<Language, IAnalyzer>>();
+
+        var delegates = AnalyzerWrapper.buildDelegates(Set.of(Language.JAVA, Language.PYTHON, Language.NONE), lang -> {
+            if (lang == Language.JAVA) {
+                assertTrue(await(pythonReported)); // so Python is always ready first
+                return java;
+            }
+            return python;
+        }, executor, partial -> {
+            reported.add(partial);
+            if (partial.containsKey(Language.PYTHON)) {
+                pythonReported.countDown();
+            }
+        });
+
+        assertEquals(List.of(Map.of(Language.PYTHON, python),
+                             Map.of(Language.PYTHON, python, Language.JAVA, java)),
+                     reported);
+        assertEquals(Map.of(Language.PYTHON, python, Language.JAVA, java), delegates);
+        // what was reported earlier is a copy, not a view of the delegates built later
+        assertThrows(UnsupportedOperationException.class, () -> reported.get(0).put(Language.JAVA, java));
+    }
+
+    @Test
+    void testFailedBuildIsRethrown() {
+        var e = assertThrows(IllegalStateException.class, () -> AnalyzerWrapper.buildDelegates(Set.of(Language.JAVA, Language.PYTHON), lang -> {
+            if (lang == Language.JAVA) {
+                throw new IllegalStateException("no JDK");
+            }
+            return new DisabledAnalyzer();
+        }, executor, partial -> {}));
+        assertEquals("no JDK", e.getMessage());
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -147,4 +147,19 @@ public class CompletionsTest {
         var completions = Completions.completeSymbols("Do", mock);
         assertEquals(Set.of("Do", "Do$Re", "Do$Re$Sub"), toShortValues(completions));
     }
+
+    @Test
+    public void testExtendedPatternReusesPreviousMatches() {
+        var declarations = new MockAnalyzer().searchDefinitions(".*");
+        var completer = new SymbolCompleter(declarations);
+        // each pattern extends the previous one, so only its matches are rescored
+        for (var pattern : List.of("d", "do", "dor", "dore", "dores")) {
+            assertEquals(new SymbolCompleter(declarations).complete(pattern, 10), completer.complete(pattern, 10));
+        }
+        // a shorter pattern scans everything again
+        assertEquals(Set.of("a.b.Do", "a.b.Do$Re", "a.b.Do$Re$Sub", "test.CamelClass.someMethod"),
+                     toValues(completer.complete("d", 10)));
+        // only the best matches are kept
+        assertEquals(2, completer.complete("d", 2).size());
+    }
 }
@@ -0,0 +1,278 @@
+package io.github.jbellis.brokk;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import io.github.jbellis.brokk.analyzer.ProjectFile;
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionJournalTest {
+    @TempDir
+    Path tempDir;
+    private IContextManager mockContextManager;
+    private Path historyDir;
+
+    @BeforeEach
+    void setup() {
+        mockContextManager = new IContextManager() {
+        };
+        historyDir = tempDir.resolve(".brokk").resolve("history");
+    }
+
+    @Test
+    void testRoundTripSharesFragments() {
+        var projectFile = new ProjectFile(tempDir, "src/Main.java");
+        var first = new Context(mockContextManager)
+                .addEditableFiles(List.of(new ContextFragment.ProjectPathFragment(projectFile)));
+        var second = first.addVirtualFragment(fragment("shared"));
+        var third = second.addVirtualFragment(fragment("third"))
+                .withOriginalContents(Map.of(projectFile, "old text"));
+        var undone = third.addVirtualFragment(fragment("undone"));
+        save(new ContextHistory.Stacks(List.of(first, second, third), List.of(undone)));
+
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        assertEquals(3, loaded.history().size());
+        assertEquals(1, loaded.redo().size());
+        var top = loaded.history().getLast();
+        assertEquals(List.of("shared", "third"), descriptions(top));
+        assertEquals(List.of("shared", "third", "undone"), descriptions(loaded.redo().getFirst()));
+        assertEquals(Map.of(projectFile, "old text"), top.originalContents);
+        assertEquals("Welcome back", top.getAction());
+        // a fragment shared by several contexts is loaded once
+        assertSame(loaded.history().get(1).virtualFragments.getFirst(), top.virtualFragments.getFirst());
+        assertSame(loaded.history().get(0).editableFiles.getFirst(), top.editableFiles.getFirst());
+    }
+
+    @Test
+    void testReplaysDeltas() {
+        var projectFile = new ProjectFile(tempDir, "src/Main.java");
+        var history = new ArrayList<Context>();
+        var context = new Context(mockContextManager)
+                .addEditableFiles(List.of(new ContextFragment.ProjectPathFragment(projectFile)));
+        history.add(context);
+        context = context.addVirtualFragment(fragment("first"));
+        history.add(context);
+        var second = fragment("second");
+        context = context.addVirtualFragment(second);
+        history.add(context);
+        context = context.addHistoryEntry(taskEntry(context, "What is the capital of France?"), null,
+                                          CompletableFuture.completedFuture("Task"), Map.of());
+        history.add(context);
+        context = context.removeVirtualFragments(List.of(second));
+        history.add(context);
+
+        try (var journal = journal()) {
+            for (int i = 1; i <= history.size(); i++) {
+                journal.append(new ContextHistory.Stacks(List.copyOf(history.subList(0, i)), List.of()));
+            }
+        }
+
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        var top = loaded.history().getLast();
+        assertEquals(List.of("src/Main.java"), top.editableFiles.stream().map(f -> f.file().toString()).toList());
+        assertEquals(List.of("first"), descriptions(top));
+        assertEquals(1, top.getTaskHistory().size());
+        assertEquals(context.getTaskHistory().getFirst().log().messages(), top.getTaskHistory().getFirst().log().messages());
+    }
+
+    @Test
+    void testUnchangedObjectsAreWrittenOnce() throws IOException {
+        var first = new Context(mockContextManager).addVirtualFragment(fragment("first"));
+        var second = first.addVirtualFragment(fragment("second"));
+        save(new ContextHistory.Stacks(List.of(first), List.of()));
+        long before = objectCount();
+
+        save(new ContextHistory.Stacks(List.of(first, second), List.of()));
+        // the new fragment and the new context's record
+        assertEquals(before + 2, objectCount());
+    }
+
+    @Test
+    void testUnreachableObjectsAreDeleted() throws IOException {
+        var first = new Context(mockContextManager).addVirtualFragment(fragment("first"));
+        var second = first.addVirtualFragment(fragment("second"));
+        save(new ContextHistory.Stacks(List.of(first, second), List.of()));
+        long before = objectCount();
+
+        save(new ContextHistory.Stacks(List.of(first), List.of()));
+        assertEquals(before - 2, objectCount());
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        assertEquals(List.of("first"), descriptions(loaded.history().getLast()));
+    }
+
+    @Test
+    void testSavesAreAppendedAsDeltas() throws IOException {
+        var first = new Context(mockContextManager).addVirtualFragment(fragment("first"));
+        var second = first.addVirtualFragment(fragment("second"));
+        save(new ContextHistory.Stacks(List.of(first), List.of()));
+        var checkpoint = Files.readAllBytes(journalFile());
+
+        try (var journal = journal()) {
+            journal.append(new ContextHistory.Stacks(List.of(first), List.of()));
+            journal.append(new ContextHistory.Stacks(List.of(first, second), List.of()));
+        }
+        // the first write of a session is a checkpoint; the next save only appends the pushed context's hash
+        var journal = Files.readAllBytes(journalFile());
+        assertArrayEquals(checkpoint, Arrays.copyOf(journal, checkpoint.length));
+        assertTrue(journal.length > checkpoint.length);
+
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        assertEquals(2, loaded.history().size());
+        assertEquals(List.of("first", "second"), descriptions(loaded.history().getLast()));
+    }
+
+    @Test
+    void testTornRecordIsIgnored() throws IOException {
+        var first = new Context(mockContextManager).addVirtualFragment(fragment("first"));
+        var second = first.addVirtualFragment(fragment("second"));
+        try (var journal = journal()) {
+            journal.append(new ContextHistory.Stacks(List.of(first), List.of()));
+            journal.append(new ContextHistory.Stacks(List.of(first, second), List.of()));
+        }
+
+        // a crash in the middle of appending the last record
+        var bytes = Files.readAllBytes(journalFile());
+        Files.write(journalFile(), Arrays.copyOf(bytes, bytes.length - 3));
+
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        assertEquals(1, loaded.history().size());
+        assertEquals(List.of("first"), descriptions(loaded.history().getLast()));
+    }
+
+    @Test
+    void testReplayAcrossCheckpoints() {
+        var history = new ArrayList<Context>();
+        var redo = new ArrayList<Context>();
+        var context = new Context(mockContextManager);
+        history.add(context);
+        try (var journal = journal()) {
+            for (int i = 0; i < 3 * SessionJournal.CHECKPOINT_INTERVAL; i++) {
+                if (i % 5 == 4) {
+                    redo.add(history.removeLast()); // an undo
+                } else {
+                    redo.clear();
+                    context = history.getLast().addVirtualFragment(fragment("fragment " + i));
+                    history.add(context);
+                }
+                journal.append(new ContextHistory.Stacks(List.copyOf(history), List.copyOf(redo)));
+            }
+            redo.add(history.removeLast());
+            journal.append(new ContextHistory.Stacks(List.copyOf(history), List.copyOf(redo)));
+        }
+
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        assertEquals(history.size(), loaded.history().size());
+        assertEquals(redo.size(), loaded.redo().size());
+        assertEquals(descriptions(history.getLast()), descriptions(loaded.history().getLast()));
+        assertEquals(descriptions(redo.getLast()), descriptions(loaded.redo().getLast()));
+    }
+
+    @Test
+    void testContextIsSavedAgainOnceSummarized() throws Exception {
+        var first = new Context(mockContextManager).addVirtualFragment(fragment("first"));
+        var action = new CompletableFuture<String>();
+        var summarizing = first.withParsedOutput(null, action);
+        var second = summarizing.addVirtualFragment(fragment("second"));
+        try (var journal = journal()) {
+            journal.append(new ContextHistory.Stacks(List.of(first, summarizing, second), List.of()));
+            for (int i = 0; i < 100 && !Files.exists(journalFile()); i++) {
+                Thread.sleep(50); // until the summarizing context has been stored
+            }
+            assertTrue(Files.exists(journalFile()));
+            action.complete("Summarized");
+        }
+
+        var loaded = journal().load(mockContextManager, "welcome back");
+        assertNotNull(loaded);
+        assertEquals("Summarized", loaded.history().get(1).getAction());
+    }
+
+    @Test
+    void testUnreadableContextKeepsTheNewerOnes() throws IOException {
+        var gone = new Context(mockContextManager).addVirtualFragment(fragment("gone"));
+        var kept = new Context(mockContextManager).addVirtualFragment(fragment("kept"));
+        save(new ContextHistory.Stacks(List.of(gone, kept), List.of()));
+        for (var file : objectFiles()) {
+            if (new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1).contains("gone content")) {
+                Files.delete(file);
+            }
+        }
+        var before = objectFiles();
+
+        try (var journal = journal()) {
+            var loaded = journal.load(mockContextManager, "welcome back");
+            assertNotNull(loaded);
+            assertEquals(1, loaded.history().size());
+            assertEquals(List.of("kept"), descriptions(loaded.history().getLast()));
+            journal.append(loaded);
+        }
+        // the load fell short, so the checkpoint written after it deletes nothing
+        assertTrue(objectFiles().containsAll(before));
+    }
+
+    @Test
+    void testMissingJournal() {
+        assertNull(journal().load(mockContextManager, "welcome back"));
+    }
+
+    /** Saves through a fresh journal and waits for the write, as across a restart. */
+    private void save(ContextHistory.Stacks stacks) {
+        try (var journal = journal()) {
+            journal.append(stacks);
+        }
+    }
+
+    private SessionJournal journal() {
+        return new SessionJournal(journalFile(), new ContextStore(historyDir.resolve("objects")));
+    }
+
+    private Path journalFile() {
+        return historyDir.resolve("session.journal");
+    }
+
+    private long objectCount() throws IOException {
+        return objectFiles().size();
+    }
+
+    private List<Path> objectFiles() throws IOException {
+        try (var files = Files.walk(historyDir.resolve("objects"))) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    private static ContextFragment.StringFragment fragment(String description) {
+        return new ContextFragment.StringFragment(description + " content", description, SyntaxConstants.SYNTAX_STYLE_NONE);
+    }
+
+    private static TaskEntry taskEntry(Context context, String question) {
+        var messages = List.<ChatMessage>of(UserMessage.from(question), AiMessage.from("Paris."));
+        var parsedOutput = new ContextFragment.TaskFragment(messages, "Test Task");
+        var result = new SessionResult(question, parsedOutput, Map.of(), new SessionResult.StopDetails(SessionResult.StopReason.SUCCESS));
+        return context.createTaskEntry(result);
+    }
+
+    private static List<String> descriptions(Context context) {
+        return context.virtualFragments.stream().map(ContextFragment::description).toList();
+    }
+}
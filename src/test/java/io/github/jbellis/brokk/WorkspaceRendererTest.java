@@ -0,0 +1,73 @@
+package io.github.jbellis.brokk;
+
+import io.github.jbellis.brokk.analyzer.ProjectFile;
+import org.fife.ui.rsyntaxtextarea.SyntaxConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkspaceRendererTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testResultsKeepFragmentOrder() throws IOException {
+        var renderer = new WorkspaceRenderer();
+        var fragments = List.<ContextFragment>of(fileFragment("A.java", "class A {}"),
+                                                 new ContextFragment.StringFragment("b", "B", SyntaxConstants.SYNTAX_STYLE_NONE),
+                                                 fileFragment("C.java", "class C {}"));
+        var results = renderer.render(fragments);
+        assertEquals(fragments, results.stream().map(WorkspaceRenderer.Result::fragment).toList());
+        assertTrue(results.get(0).rendered().text().contains("class A {}"));
+        assertTrue(results.get(2).rendered().text().contains("class C {}"));
+    }
+
+    @Test
+    void testFileIsRenderedAgainWhenItChanges() throws IOException {
+        var renderer = new WorkspaceRenderer();
+        var fragment = fileFragment("A.java", "class A {}");
+        var first = renderer.render(List.of(fragment)).getFirst().rendered();
+        // unchanged files come from the cache
+        assertSame(first, renderer.render(List.of(fragment)).getFirst().rendered());
+
+        Files.writeString(fragment.file().absPath(), "class A { int x; }");
+        var second = renderer.render(List.of(fragment)).getFirst().rendered();
+        assertTrue(second.text().contains("class A { int x; }"));
+    }
+
+    @Test
+    void testUnreadableFileIsReported() throws IOException {
+        var renderer = new WorkspaceRenderer();
+        var fragment = fileFragment("A.java", "class A {}");
+        Files.delete(fragment.file().absPath());
+        var result = renderer.render(List.of(fragment)).getFirst();
+        assertNotNull(result.error());
+        assertNull(result.rendered());
+    }
+
+    @Test
+    void testPasteIsCachedOnceSummarized() {
+        var renderer = new WorkspaceRenderer();
+        var description = new CompletableFuture<String>();
+        var paste = new ContextFragment.PasteTextFragment("pasted", description);
+        var summarizing = renderer.render(List.of(paste)).getFirst().rendered();
+        assertTrue(summarizing.text().contains("Summarizing"));
+
+        description.complete("some text");
+        var summarized = renderer.render(List.of(paste)).getFirst().rendered();
+        assertTrue(summarized.text().contains("Paste of some text"));
+        assertSame(summarized, renderer.render(List.of(paste)).getFirst().rendered());
+    }
+
+    private ContextFragment.ProjectPathFragment fileFragment(String name, String content) throws IOException {
+        Files.writeString(tempDir.resolve(name), content);
+        return new ContextFragment.ProjectPathFragment(new ProjectFile(tempDir, name));
+    }
+}
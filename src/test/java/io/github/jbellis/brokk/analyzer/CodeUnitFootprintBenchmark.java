@@ -0,0 +1,114 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap footprint of the analyzer's symbol tables for a synthetic project with one million symbols,
+ * comparing the original representation (record CodeUnit with per-symbol name Strings, ArrayList-backed
+ * lists of Range records) against the current one (interned names, cached fqName, compact lists, packed ranges).
+ * <p>
+ * Not a unit test; run manually with a fixed heap so the numbers are comparable, e.g.
+ * {@code java -Xms4g -Xmx4g -cp <test classpath> io.github.jbellis.brokk.analyzer.CodeUnitFootprintBenchmark}
+ */
+public final class CodeUnitFootprintBenchmark {
+    private static final int FILES = 10_000;
+    private static final int METHODS_PER_CLASS = 60;
+    private static final int FIELDS_PER_CLASS = 39; // 1 class + 60 methods + 39 fields = 100 symbols per file
+    private static final int PACKAGES = 500;
+
+    /** The shape of CodeUnit before it became a class: a plain record, no interning, fqName computed on demand. */
+    private record LegacyCodeUnit(ProjectFile source, CodeUnitType kind, String packageName, String shortName) {}
+
+    /** The analyzer's three per-symbol maps, typed loosely so both representations fit. */
+    private record Tables(Map<Object, List<?>> children, Map<Object, List<String>> signatures, Map<Object, List<?>> ranges) {}
+
+    public static void main(String[] args) {
+        var root = Path.of("/synthetic").toAbsolutePath();
+
+        long baseline = usedHeap();
+        var legacy = build(root, true);
+        long legacyBytes = usedHeap() - baseline;
+        System.out.printf("legacy:  %,d symbols, %,d MB%n", legacy.signatures().size(), legacyBytes >> 20);
+        legacy = null;
+
+        baseline = usedHeap();
+        var compact = build(root, false);
+        long compactBytes = usedHeap() - baseline;
+        System.out.printf("compact: %,d symbols, %,d MB%n", compact.signatures().size(), compactBytes >> 20);
+
+        System.out.printf("reduction: %,d MB (%.1f%%), %.0f bytes/symbol saved%n",
+                          (legacyBytes - compactBytes) >> 20,
+                          100.0 * (legacyBytes - compactBytes) / legacyBytes,
+                          (double) (legacyBytes - compactBytes) / compact.signatures().size());
+    }
+
+    private static Tables build(Path root, boolean legacy) {
+        var children = new HashMap<Object, List<?>>();
+        var signatures = new HashMap<Object, List<String>>();
+        var ranges = new HashMap<Object, List<?>>();
+
+        for (int f = 0; f < FILES; f++) {
+            var file = new ProjectFile(root, "src/pkg" + (f % PACKAGES) + "/Class" + f + ".java");
+            // names are fresh Strings per symbol, as they are when sliced out of each file's source
+            var packageName = "com.example.pkg" + (f % PACKAGES);
+            var className = "Class" + f;
+            Object cls = codeUnit(legacy, file, CodeUnitType.CLASS, packageName, className);
+
+            var kids = new ArrayList<Object>(METHODS_PER_CLASS + FIELDS_PER_CLASS);
+            for (int m = 0; m < METHODS_PER_CLASS + FIELDS_PER_CLASS; m++) {
+                boolean isMethod = m < METHODS_PER_CLASS;
+                var member = isMethod ? "method" + m : "field" + m;
+                Object kid = codeUnit(legacy, file, isMethod ? CodeUnitType.FUNCTION : CodeUnitType.FIELD,
+                                      "com.example.pkg" + (f % PACKAGES), className + "." + member);
+                kids.add(kid);
+                signatures.put(kid, list(legacy, List.of(isMethod ? "public void " + member + "(int x) {...}" : "int " + member + ";")));
+                ranges.put(kid, rangeList(legacy, m * 100, m * 100 + 80, m * 3, m * 3 + 2));
+                children.put(kid, list(legacy, List.of()));
+            }
+            signatures.put(cls, list(legacy, List.of("public class " + className + " {")));
+            ranges.put(cls, rangeList(legacy, 0, 10_000, 0, 300));
+            children.put(cls, list(legacy, kids));
+        }
+        return new Tables(children, signatures, ranges);
+    }
+
+    private static Object codeUnit(boolean legacy, ProjectFile file, CodeUnitType kind, String packageName, String shortName) {
+        return legacy
+               ? new LegacyCodeUnit(file, kind, packageName, shortName)
+               : new CodeUnit(file, kind, packageName, shortName);
+    }
+
+    /** Legacy lists were unmodifiable wrappers over growable ArrayLists; current ones are exact-size immutable lists. */
+    private static <T> List<T> list(boolean legacy, List<T> elements) {
+        if (legacy) {
+            var growable = new ArrayList<T>();
+            growable.addAll(elements);
+            return Collections.unmodifiableList(growable);
+        }
+        return List.copyOf(elements);
+    }
+
+    private static List<TreeSitterAnalyzer.Range> rangeList(boolean legacy, int startByte, int endByte, int startLine, int endLine) {
+        var range = new TreeSitterAnalyzer.Range(startByte, endByte, startLine, endLine);
+        return legacy ? list(true, List.of(range)) : RangeList.copyOf(List.of(range));
+    }
+
+    private static long usedHeap() {
+        var runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
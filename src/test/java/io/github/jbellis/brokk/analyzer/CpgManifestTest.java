@@ -0,0 +1,54 @@
+package io.github.jbellis.brokk.analyzer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CpgManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testStaleFilesByContent() throws IOException {
+        var a = write("A.java", "class A {}");
+        var b = write("B.java", "class B {}");
+        var c = write("C.java", "class C {}");
+        var cpgPath = tempDir.resolve(".brokk").resolve("java.cpg");
+
+        CpgManifest.capture(tempDir, List.of(a, b, c)).save(cpgPath);
+        var manifest = CpgManifest.load(tempDir, cpgPath).orElseThrow();
+        assertEquals(Set.of(), manifest.staleFiles(List.of(a, b, c)));
+
+        // touching a file without changing it (as a git checkout does) is not a change
+        Files.setLastModifiedTime(a.absPath(), FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        Files.writeString(b.absPath(), "class B { int x; }");
+        Files.delete(c.absPath());
+        var d = write("D.java", "class D {}");
+
+        assertEquals(Set.of(b, c, d), manifest.staleFiles(List.of(a, b, d)));
+
+        // a rebuild captures the files before it runs
+        CpgManifest.capture(tempDir, List.of(a, b, d)).save(cpgPath);
+        assertEquals(Set.of(), CpgManifest.load(tempDir, cpgPath).orElseThrow().staleFiles(List.of(a, b, d)));
+    }
+
+    @Test
+    void testMissingManifest() {
+        assertTrue(CpgManifest.load(tempDir, tempDir.resolve("java.cpg")).isEmpty());
+    }
+
+    private ProjectFile write(String name, String content) throws IOException {
+        var file = new ProjectFile(tempDir, name);
+        Files.writeString(file.absPath(), content);
+        return file;
+    }
+}
@@ -0,0 +1,162 @@
+package io.github.jbellis.brokk.analyzer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultiAnalyzerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSymbolDeclaredByOneDelegateIsOnlyLookedUpThere() {
+        var java = new StubAnalyzer(cls("A.java", "a", "Foo"));
+        var python = new StubAnalyzer(cls("b.py", "b", "Bar"));
+        var multi = new MultiAnalyzer(Map.of(Language.JAVA, java, Language.PYTHON, python));
+        multi.buildRouting();
+
+        assertEquals("a.Foo", multi.getDefinition("a.Foo").orElseThrow().fqName());
+        assertEquals("b.Bar", multi.getDefinition("b.Bar").orElseThrow().fqName());
+        assertEquals(1, java.lookups.get());
+        assertEquals(1, python.lookups.get());
+    }
+
+    @Test
+    void testSymbolDeclaredByBothDelegates() {
+        var java = new StubAnalyzer(cls("A.java", "a", "Foo"), cls("S.java", "c", "Shared"));
+        var python = new StubAnalyzer(cls("b.py", "b", "Bar"), cls("s.py", "c", "Shared"));
+        var go = new StubAnalyzer(cls("g.go", "g", "Baz"));
+        var multi = new MultiAnalyzer(Map.of(Language.JAVA, java, Language.PYTHON, python, Language.GO, go));
+        multi.buildRouting();
+
+        assertEquals("c.Shared", multi.getDefinition("c.Shared").orElseThrow().fqName());
+        assertEquals(1, java.lookups.get() + python.lookups.get()); // whichever is asked first answers
+        assertEquals(0, go.lookups.get());
+    }
+
+    @Test
+    void testNameSpelledDifferentlyAsksEveryDelegate() {
+        var java = new StubAnalyzer(cls("A.java", "a", "Outer.Inner"));
+        var python = new StubAnalyzer(cls("b.py", "b", "Bar"));
+        var multi = new MultiAnalyzer(Map.of(Language.JAVA, java, Language.PYTHON, python));
+        multi.buildRouting();
+
+        assertTrue(multi.getDefinition("no.Such").isEmpty());
+        assertEquals(1, java.lookups.get());
+        assertEquals(1, python.lookups.get());
+        // the routing table only knows "a.Outer.Inner", but the Java delegate also accepts the binary name
+        assertEquals("a.Outer.Inner", multi.getDefinition("a.Outer$Inner").orElseThrow().fqName());
+        assertEquals(2, java.lookups.get());
+    }
+
+    @Test
+    void testDelegateStillIndexingIsAlwaysAsked() {
+        var java = new StubAnalyzer(cls("A.java", "a", "Foo"));
+        var python = new StubAnalyzer(cls("b.py", "b", "Bar"));
+        python.fullyIndexed = false;
+        var multi = new MultiAnalyzer(Map.of(Language.JAVA, java, Language.PYTHON, python));
+        multi.buildRouting();
+
+        // the table was built without Python's symbols, so Python is asked whatever the name
+        assertFalse(multi.isFullyIndexed());
+        assertEquals("b.Bar", multi.getDefinition("b.Bar").orElseThrow().fqName());
+        assertEquals(1, python.lookups.get());
+
+        python.fullyIndexed = true;
+        multi.buildRouting();
+        assertTrue(multi.isFullyIndexed());
+        assertEquals("a.Foo", multi.getDefinition("a.Foo").orElseThrow().fqName());
+        assertEquals(1, python.lookups.get());
+    }
+
+    @Test
+    void testUpdateWhileRoutingIsBuilding() throws InterruptedException {
+        var building = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var java = new StubAnalyzer(cls("A.java", "a", "Foo")) {
+            @Override
+            public List<CodeUnit> searchDefinitions(String pattern) {
+                building.countDown();
+                await(release);
+                return super.searchDefinitions(pattern);
+            }
+        };
+        var renamed = new StubAnalyzer(cls("A.java", "a", "Renamed"));
+        java.next = renamed;
+        var python = new StubAnalyzer(cls("b.py", "b", "Bar"));
+        var multi = new MultiAnalyzer(Map.of(Language.JAVA, java, Language.PYTHON, python));
+
+        assertEquals("a.Foo", multi.getDefinition("a.Foo").orElseThrow().fqName()); // starts the background build
+        assertTrue(building.await(10, TimeUnit.SECONDS));
+        var updated = multi.update(Set.of(new ProjectFile(tempDir, "A.java")));
+        release.countDown();
+
+        assertNotSame(multi, updated);
+        assertEquals("a.Renamed", updated.getDefinition("a.Renamed").orElseThrow().fqName());
+        assertTrue(updated.getDefinition("a.Foo").isEmpty());
+        assertEquals("b.Bar", updated.getDefinition("b.Bar").orElseThrow().fqName());
+        // the analyzer the build started on still answers from its own delegates, wherever the build is
+        assertEquals("a.Foo", multi.getDefinition("a.Foo").orElseThrow().fqName());
+        assertTrue(multi.getDefinition("a.Renamed").isEmpty());
+    }
+
+    private CodeUnit cls(String file, String packageName, String shortName) {
+        return CodeUnit.cls(new ProjectFile(tempDir, file), packageName, shortName);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Declares a fixed set of symbols, also by their binary names, and counts lookups. */
+    private static class StubAnalyzer implements IAnalyzer {
+        final List<CodeUnit> symbols;
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile boolean fullyIndexed = true;
+        IAnalyzer next; // what update returns
+
+        StubAnalyzer(CodeUnit... symbols) {
+            this.symbols = List.of(symbols);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return symbols.isEmpty();
+        }
+
+        @Override
+        public boolean isFullyIndexed() {
+            return fullyIndexed;
+        }
+
+        @Override
+        public Optional<CodeUnit> getDefinition(String fqName) {
+            lookups.incrementAndGet();
+            return symbols.stream().filter(cu -> cu.fqName().equals(fqName.replace('$', '.'))).findFirst();
+        }
+
+        @Override
+        public List<CodeUnit> searchDefinitions(String pattern) {
+            return symbols.stream().filter(cu -> cu.fqName().matches(pattern)).sorted().toList();
+        }
+
+        @Override
+        public IAnalyzer update(Set<ProjectFile> changedFiles) {
+            return next;
+        }
+    }
+}
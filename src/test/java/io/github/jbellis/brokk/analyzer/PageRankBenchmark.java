@@ -0,0 +1,124 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Personalized pagerank over a synthetic 20k-class graph, comparing the original map-based iteration
+ * (nested hash maps, out-weight of each neighbor summed again for every edge) against {@link CsrGraph}.
+ * Also reports the largest score difference between the two, which should be zero up to rounding.
+ * <p>
+ * Not a unit test; run manually, e.g.
+ * {@code java -cp <test classpath> io.github.jbellis.brokk.analyzer.PageRankBenchmark}
+ */
+public final class PageRankBenchmark {
+    private static final int CLASSES = 20_000;
+    private static final int EDGES_PER_CLASS = 12;
+    private static final int SEEDS = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        var random = new Random(42);
+        var adjacency = new HashMap<String, Map<String, Integer>>();
+        for (int c = 0; c < CLASSES; c++) {
+            var targets = new HashMap<String, Integer>();
+            // a tenth of the classes reference nothing, like interfaces and value types
+            if (c % 10 != 0) {
+                for (int e = 0; e < EDGES_PER_CLASS; e++) {
+                    // skewed towards low ids, so that some classes are referenced from everywhere
+                    int target = (int) (CLASSES * Math.pow(random.nextDouble(), 3));
+                    targets.merge(name(target), 1 + random.nextInt(5), Integer::sum);
+                }
+            }
+            adjacency.put(name(c), targets);
+        }
+        var seeds = new HashMap<String, Double>();
+        for (int s = 0; s < SEEDS; s++) {
+            seeds.put(name(random.nextInt(CLASSES)), 1.0 + s);
+        }
+
+        long start = System.nanoTime();
+        var builder = new CsrGraph.Builder();
+        adjacency.forEach((src, targets) -> {
+            builder.node(src);
+            targets.forEach((dst, w) -> builder.addEdge(src, dst, w));
+        });
+        var graph = builder.build();
+        System.out.printf("csr build: %d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        for (boolean reversed : new boolean[] {false, true}) {
+            var legacy = Map.<String, Double>of();
+            long legacyNanos = Long.MAX_VALUE;
+            double[] csr = null;
+            long csrNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                start = System.nanoTime();
+                legacy = legacyPagerank(adjacency, seeds, reversed);
+                legacyNanos = Math.min(legacyNanos, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                csr = graph.pagerank(seeds, reversed);
+                csrNanos = Math.min(csrNanos, System.nanoTime() - start);
+            }
+
+            double maxDiff = 0;
+            for (int id = 0; id < graph.size(); id++) {
+                maxDiff = Math.max(maxDiff, Math.abs(csr[id] - legacy.get(graph.name(id))));
+            }
+            System.out.printf("%s: legacy %d ms, csr %d ms (%.1fx), max score difference %.2e%n",
+                              reversed ? "reversed" : "forward",
+                              legacyNanos / 1_000_000, csrNanos / 1_000_000,
+                              (double) legacyNanos / csrNanos, maxDiff);
+        }
+    }
+
+    private static String name(int id) {
+        return "com.example.pkg" + (id % 200) + ".Class" + id;
+    }
+
+    /** The algorithm as JoernAnalyzer.getPagerank ran it before the CSR graph, minus the Scala parallel collections. */
+    private static Map<String, Double> legacyPagerank(Map<String, Map<String, Integer>> adjacency,
+                                                      Map<String, Double> seedWeights,
+                                                      boolean reversed) {
+        var reverse = new HashMap<String, Map<String, Integer>>();
+        adjacency.forEach((src, targets) -> targets.forEach((dst, w) ->
+                reverse.computeIfAbsent(dst, k -> new HashMap<>()).merge(src, w, Integer::sum)));
+        Set<String> classes = adjacency.keySet();
+        var inMap = reversed ? adjacency : reverse;
+        var outMap = reversed ? reverse : adjacency;
+        var validSeeds = seedWeights.keySet().stream().filter(classes::contains).toList();
+        var dangling = classes.stream().filter(c -> adjacency.get(c).isEmpty()).toList();
+        double totalWeight = seedWeights.values().stream().mapToDouble(Double::doubleValue).sum();
+
+        var scores = new HashMap<String, Double>();
+        classes.forEach(c -> scores.put(c, 0.0));
+        validSeeds.forEach(c -> scores.put(c, seedWeights.get(c) / totalWeight));
+        double diff = Double.MAX_VALUE;
+        for (int iteration = 0; iteration < 50 && diff > 1e-4; iteration++) {
+            var next = new HashMap<String, Double>();
+            diff = 0;
+            for (var node : classes) {
+                double inbound = 0;
+                for (var e : inMap.getOrDefault(node, Map.of()).entrySet()) {
+                    int outWeight = Math.max(1, outMap.get(e.getKey()).values().stream().mapToInt(Integer::intValue).sum());
+                    inbound += scores.get(e.getKey()) * e.getValue() / outWeight;
+                }
+                double score = 0.85 * inbound;
+                if (validSeeds.contains(node)) {
+                    score += 0.15 * seedWeights.get(node) / totalWeight;
+                }
+                next.put(node, score);
+                diff += Math.abs(scores.get(node) - score);
+            }
+            double danglingScore = dangling.stream().mapToDouble(scores::get).sum();
+            if (danglingScore > 0) {
+                validSeeds.forEach(s -> next.merge(s, 0.85 * danglingScore * seedWeights.get(s) / totalWeight, Double::sum));
+                dangling.forEach(d -> next.put(d, 0.0));
+            }
+            scores.putAll(next);
+        }
+        return scores;
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.jbellis.brokk.analyzer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistentMapTest {
+    @Test
+    void testCopiesAreIndependent() {
+        var original = PersistentMap.copyOf(Map.of("a", 1, "b", 2));
+        var copy = original.copy();
+        copy.put("a", 10);
+        copy.remove("b");
+        copy.put("c", 3);
+        original.put("d", 4);
+
+        assertEquals(Map.of("a", 1, "b", 2, "d", 4), original);
+        assertEquals(Map.of("a", 10, "c", 3), copy);
+    }
+
+    @Test
+    void testComputeRemovesOnNull() {
+        var map = new PersistentMap<String, List<Integer>>();
+        map.compute("a", (k, v) -> v == null ? List.of(1) : List.of());
+        assertEquals(List.of(1), map.get("a"));
+        map.computeIfPresent("a", (k, v) -> null);
+        assertFalse(map.containsKey("a"));
+        assertNull(map.computeIfPresent("a", (k, v) -> List.of(2)));
+        assertTrue(map.isEmpty());
+
+        assertEquals(List.of(3), map.computeIfAbsent("b", k -> List.of(3)));
+        assertEquals(List.of(3), map.computeIfAbsent("b", k -> List.of(4)));
+        map.removeAll(Set.of("b", "c"));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void testKeySetCopy() {
+        var set = new PersistentMap.KeySet<String>();
+        assertTrue(set.add("a"));
+        assertFalse(set.add("a"));
+        set.add("b");
+        var copy = set.copy();
+        assertTrue(copy.remove("a"));
+        assertFalse(copy.remove("a"));
+
+        assertEquals(Set.of("a", "b"), set);
+        assertEquals(Set.of("b"), copy);
+    }
+}
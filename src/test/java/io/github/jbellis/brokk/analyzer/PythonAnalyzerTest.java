@@ -4,11 +4,14 @@ import io.github.jbellis.brokk.ContextFragment;
 import io.github.jbellis.brokk.IProject;
 import io.github.jbellis.brokk.git.IGitRepo;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -123,4 +126,203 @@ public final class PythonAnalyzerTest {
         assertTrue(topLevelDecls.contains(topValueCU), "Top-level declarations should include TOP_VALUE.");
         assertTrue(topLevelDecls.contains(exportLikeCU), "Top-level declarations should include export_like.");
     }
+
+    @Test
+    void testPythonSymbolLookups() {
+        TestProject project = createTestProject("testcode-py", io.github.jbellis.brokk.analyzer.Language.PYTHON);
+        PythonAnalyzer analyzer = new PythonAnalyzer(project);
+
+        ProjectFile fileA = new ProjectFile(project.getRoot(), "a/A.py");
+        var classA_CU = CodeUnit.cls(fileA, "a", "A");
+        var method1_CU = CodeUnit.fn(fileA, "a", "A.method1");
+
+        assertEquals(Optional.of(classA_CU), analyzer.getDefinition("a.A"));
+        assertEquals(Optional.of(method1_CU), analyzer.getDefinition("a.A.method1"));
+        assertEquals(Optional.of(fileA), analyzer.getFileFor("a.A.method1"));
+        assertTrue(analyzer.getDefinition("a.A.doesNotExist").isEmpty());
+
+        var members = analyzer.getMembersInClass("a.A");
+        assertTrue(members.contains(method1_CU), "Members of A should include method1. Found: " + members);
+        assertTrue(analyzer.getMembersInClass("a.A.method1").isEmpty(), "Methods are not classes");
+
+        assertTrue(analyzer.getAllDeclarations().contains(classA_CU));
+        assertTrue(analyzer.getAllDeclarations().stream().allMatch(CodeUnit::isClass));
+    }
+
+    @Test
+    void testPythonLazyMode() {
+        TestProject project = createTestProject("testcode-py", io.github.jbellis.brokk.analyzer.Language.PYTHON);
+        PythonAnalyzer eager = new PythonAnalyzer(project);
+        PythonAnalyzer lazy;
+        System.setProperty(TreeSitterAnalyzer.LAZY_MIN_FILES_PROPERTY, "0");
+        try {
+            lazy = (PythonAnalyzer) new PythonAnalyzer(project).startWarmUp();
+        } finally {
+            System.clearProperty(TreeSitterAnalyzer.LAZY_MIN_FILES_PROPERTY);
+        }
+
+        // point lookups parse what they need, whether or not the warmer got there first
+        ProjectFile fileA = new ProjectFile(project.getRoot(), "a/A.py");
+        assertFalse(lazy.isEmpty());
+        assertEquals(eager.getDefinition("a.A"), lazy.getDefinition("a.A"));
+        assertEquals(eager.getSkeletons(fileA), lazy.getSkeletons(fileA));
+        assertEquals(eager.getMembersInClass("a.A"), lazy.getMembersInClass("a.A"));
+
+        // project-wide queries see everything
+        assertEquals(Set.copyOf(eager.getAllDeclarations()), Set.copyOf(lazy.getAllDeclarations()));
+        assertTrue(lazy.isFullyIndexed());
+        assertTrue(lazy.getDefinition("a.A.doesNotExist").isEmpty());
+    }
+
+    @Test
+    void testPythonIncrementalUpdate(@TempDir Path tempDir) throws IOException {
+        Path root = tempDir.toAbsolutePath().normalize();
+        ProjectFile file = new ProjectFile(root, "m.py");
+        file.write("class Foo:\n    def bar(self):\n        pass\n");
+        PythonAnalyzer analyzer = new PythonAnalyzer(new TestProject(root, io.github.jbellis.brokk.analyzer.Language.PYTHON));
+        assertTrue(analyzer.getDefinition("Foo").isPresent());
+
+        // modified file: old declarations are replaced
+        file.write("class Baz:\n    def qux(self):\n        pass\n");
+        var updated = analyzer.update(Set.of(file));
+        assertNotSame(analyzer, updated);
+        assertTrue(updated.getDefinition("Foo").isEmpty(), "Foo should be gone after update");
+        assertTrue(updated.getDefinition("Foo.bar").isEmpty(), "Foo.bar should be gone after update");
+        assertTrue(updated.getDefinition("Baz").isPresent(), "Baz should be found after update");
+        assertTrue(updated.getMembersInClass("Baz").contains(CodeUnit.fn(file, "", "Baz.qux")));
+        assertTrue(updated.getSkeleton("Baz").orElseThrow().contains("def qux(self): ..."));
+
+        // the analyzer that was updated is a snapshot and still has the old declarations
+        assertTrue(analyzer.getDefinition("Foo").isPresent(), "Foo should still be in the previous analyzer");
+        assertTrue(analyzer.getDefinition("Baz").isEmpty(), "Baz should not leak into the previous analyzer");
+
+        // deleted file: everything it declared is removed
+        Files.delete(file.absPath());
+        var deleted = updated.update(Set.of(file));
+        assertTrue(deleted.isEmpty(), "Analyzer should be empty after its only file is deleted");
+        assertTrue(deleted.getDeclarationsInFile(file).isEmpty());
+        assertFalse(updated.isEmpty());
+    }
+    @Test
+    void testPythonSkeletonCacheInvalidation(@TempDir Path tempDir) throws IOException {
+        Path root = tempDir.toAbsolutePath().normalize();
+        ProjectFile file = new ProjectFile(root, "m.py");
+        file.write("class Foo:\n    def bar(self):\n        pass\n");
+        PythonAnalyzer analyzer = new PythonAnalyzer(new TestProject(root, io.github.jbellis.brokk.analyzer.Language.PYTHON));
+        assertTrue(analyzer.getSkeleton("Foo").orElseThrow().contains("def bar(self): ..."));
+
+        // same class, new members: the memoized skeleton must not survive the update
+        file.write("class Foo:\n    def baz(self):\n        pass\n");
+        var updated = analyzer.update(Set.of(file));
+        var skeleton = updated.getSkeleton("Foo").orElseThrow();
+        assertTrue(skeleton.contains("def baz(self): ..."), skeleton);
+        assertFalse(skeleton.contains("bar"), skeleton);
+
+        var bulk = updated.getSkeletons(List.of(file));
+        assertEquals(updated.getSkeletons(file), bulk);
+    }
+
+    @Test
+    void testPythonPersistentCache(@TempDir Path tempDir) throws IOException {
+        Path root = tempDir.toAbsolutePath().normalize();
+        ProjectFile file = new ProjectFile(root, "m.py");
+        file.write("class Foo:\n    def bar(self):\n        pass\n");
+        var files = new TestProject(root, io.github.jbellis.brokk.analyzer.Language.PYTHON);
+        IProject project = new IProject() {
+            @Override
+            public Path getRoot() {
+                return root;
+            }
+
+            @Override
+            public Set<ProjectFile> getAllFiles() {
+                return files.getAllFiles();
+            }
+
+            @Override
+            public Optional<Path> getAnalyzerCacheDir() {
+                return Optional.of(root.resolve(".brokk"));
+            }
+        };
+
+        var first = new PythonAnalyzer(project);
+        assertTrue(Files.exists(root.resolve(".brokk").resolve("python.tscache")), "Cache file should be written");
+
+        // unchanged file: results come from the cache and match a fresh parse
+        var second = new PythonAnalyzer(project);
+        assertEquals(first.getDeclarationsInFile(file), second.getDeclarationsInFile(file));
+        assertEquals(first.getSkeleton("Foo"), second.getSkeleton("Foo"));
+        assertEquals(first.getClassSource("Foo"), second.getClassSource("Foo"));
+
+        // changed file: the stale entry is ignored
+        file.write("class Baz:\n    def qux(self):\n        return 1\n");
+        var third = new PythonAnalyzer(project);
+        assertTrue(third.getDefinition("Foo").isEmpty(), "Stale cache entry should not be used");
+        assertTrue(third.getSkeleton("Baz").orElseThrow().contains("def qux(self): ..."));
+
+        // unchanged file whose package changed: an __init__.py makes a/b a package of its own
+        ProjectFile nested = new ProjectFile(root, "a/b/n.py");
+        nested.write("class Qux:\n    pass\n");
+        assertTrue(new PythonAnalyzer(project).getDefinition("a.b.Qux").isPresent());
+        new ProjectFile(root, "a/b/__init__.py").write("");
+        var fourth = new PythonAnalyzer(project);
+        assertTrue(fourth.getDefinition("b.Qux").isPresent(), "Cache entry from another package should not be used");
+        assertTrue(fourth.getDefinition("a.b.Qux").isEmpty());
+    }
+    @Test
+    void testPythonReferenceGraph(@TempDir Path tempDir) throws IOException {
+        Path root = tempDir.toAbsolutePath().normalize();
+        new ProjectFile(root, "models.py").write("""
+                                                 class Name:
+                                                     pass
+
+                                                 class User:
+                                                     def display_name(self):
+                                                         return Name()
+                                                 """);
+        var service = new ProjectFile(root, "service.py");
+        service.write("""
+                      from models import User
+
+                      class UserService:
+                          def find(self) -> User:
+                              return User()
+                      """);
+        new ProjectFile(root, "api.py").write("""
+                                              from service import UserService
+
+                                              class Api:
+                                                  def get(self):
+                                                      return UserService().find().display_name()
+                                              """);
+        PythonAnalyzer analyzer = new PythonAnalyzer(new TestProject(root, io.github.jbellis.brokk.analyzer.Language.PYTHON));
+        assertTrue(analyzer.hasReferenceGraph());
+
+        // Api -> UserService -> User -> Name; like the CPG pagerank, classes without outgoing references score zero
+        var ranked = analyzer.getPagerank(Map.of("Api", 1.0), 5, false).stream().map(t -> t._1().fqName()).toList();
+        assertEquals(Set.of("UserService", "User"), Set.copyOf(ranked));
+
+        var uses = analyzer.getUses("User").stream().map(CodeUnit::fqName).collect(Collectors.toSet());
+        assertTrue(uses.contains("UserService.find"), uses.toString());
+        assertFalse(uses.contains("User.display_name"), "a class does not use itself");
+        assertEquals(Set.of("Api.get"), analyzer.getUses("UserService.find").stream().map(CodeUnit::fqName).collect(Collectors.toSet()));
+
+        // dropping the reference removes the edge
+        service.write("class UserService:\n    def find(self):\n        return None\n");
+        var updated = analyzer.update(Set.of(service));
+        assertTrue(updated.getUses("User").stream().noneMatch(cu -> cu.fqName().startsWith("UserService")));
+        assertTrue(analyzer.getUses("User").stream().anyMatch(cu -> cu.fqName().startsWith("UserService")));
+    }
+
+    @Test
+    void testPythonNonAsciiSourceSlicing(@TempDir Path tempDir) throws IOException {
+        Path root = tempDir.toAbsolutePath().normalize();
+        ProjectFile file = new ProjectFile(root, "u.py");
+        // BOM plus multi-byte characters ahead of the declarations: ranges are UTF-8 byte offsets
+        file.write("\uFEFF# h\u00e9llo w\u00f6rld \u2603\nclass Foo:\n    def bar(self):\n        return '\u00e9'\n");
+        PythonAnalyzer analyzer = new PythonAnalyzer(new TestProject(root, io.github.jbellis.brokk.analyzer.Language.PYTHON));
+
+        assertEquals("class Foo:\n    def bar(self):\n        return '\u00e9'", analyzer.getClassSource("Foo").stripTrailing());
+        assertEquals("def bar(self):\n        return '\u00e9'", analyzer.getMethodSource("Foo.bar").orElseThrow().stripTrailing());
+    }
 }
@@ -0,0 +1,78 @@
+package io.github.jbellis.brokk.analyzer;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Symbol search over two million synthetic declarations, comparing a scan of every symbol (what
+ * searchDefinitions did before) against {@link SymbolSearchIndex}, for typical substring, regex and
+ * camel-hump queries.
+ * <p>
+ * Not a unit test; run manually, e.g.
+ * {@code java -Xmx4g -cp <test classpath> io.github.jbellis.brokk.analyzer.SymbolSearchBenchmark}
+ */
+public final class SymbolSearchBenchmark {
+    private static final int CLASSES = 40_000;
+    private static final int MEMBERS_PER_CLASS = 49; // 2M symbols
+    private static final int LIMIT = 1_000;
+    private static final int ROUNDS = 20;
+    private static final String[] WORDS = {
+            "abstract", "user", "account", "service", "manager", "request", "response", "handler", "cache",
+            "session", "token", "parser", "writer", "reader", "index", "query", "result", "event", "listener",
+            "config", "context", "builder", "factory", "provider", "stream", "buffer", "channel", "client",
+            "server", "router", "policy", "schema", "record", "entry", "node", "graph", "table", "column"
+    };
+
+    public static void main(String[] args) {
+        var random = new Random(42);
+        var root = Path.of("/synthetic").toAbsolutePath();
+        var units = new ArrayList<CodeUnit>(CLASSES * (MEMBERS_PER_CLASS + 1));
+        for (int c = 0; c < CLASSES; c++) {
+            var pkg = "com.example." + WORDS[c % WORDS.length] + ".p" + (c % 300);
+            var cls = camel(random, 3, true) + c;
+            var file = new ProjectFile(root, pkg.replace('.', '/') + "/" + cls + ".java");
+            units.add(CodeUnit.cls(file, pkg, cls));
+            for (int m = 0; m < MEMBERS_PER_CLASS; m++) {
+                var member = camel(random, 2, false) + m;
+                units.add(m % 5 == 0 ? CodeUnit.field(file, pkg, cls + "." + member) : CodeUnit.fn(file, pkg, cls + "." + member));
+            }
+        }
+
+        long start = System.nanoTime();
+        var index = SymbolSearchIndex.build(units);
+        System.out.printf("built index over %,d symbols in %d ms%n", index.size(), (System.nanoTime() - start) / 1_000_000);
+
+        var substring = "SessionToken";
+        var regex = Pattern.compile("(?i).*abstractuser.*");
+        var hump = "ASeTo";
+        time("substring scan", () -> units.stream().filter(cu -> cu.fqName().contains(substring)).limit(LIMIT).toList());
+        time("substring index", () -> index.containing(substring, false, LIMIT));
+        time("regex scan", () -> units.stream().filter(cu -> regex.matcher(cu.identifier()).matches()).limit(LIMIT).toList());
+        time("regex index", () -> index.matchingIdentifier(regex, LIMIT));
+        time("camel-hump index", () -> index.camelHumps(hump, LIMIT));
+    }
+
+    private static void time(String label, Supplier<List<CodeUnit>> query) {
+        long best = Long.MAX_VALUE;
+        int results = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            results = query.get().size();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-18s %8.2f ms, %d results%n", label, best / 1e6, results);
+    }
+
+    private static String camel(Random random, int words, boolean upperFirst) {
+        var sb = new StringBuilder();
+        for (int w = 0; w < words; w++) {
+            var word = WORDS[random.nextInt(WORDS.length)];
+            sb.append(w == 0 && !upperFirst ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.jbellis.brokk.analyzer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolSearchIndexTest {
+    private static final ProjectFile FILE = new ProjectFile(Path.of("/project").toAbsolutePath(), "src/Main.java");
+
+    private static final SymbolSearchIndex INDEX = SymbolSearchIndex.build(List.of(
+            CodeUnit.cls(FILE, "com.example", "NullPointerException"),
+            CodeUnit.cls(FILE, "com.example", "HTTPServer"),
+            CodeUnit.cls(FILE, "com.example", "Outer$PointerCache"),
+            CodeUnit.fn(FILE, "com.example", "HTTPServer.getURL"),
+            CodeUnit.fn(FILE, "com.example", "HTTPServer.get_user_name"),
+            CodeUnit.field(FILE, "com.example", "HTTPServer.port"),
+            CodeUnit.fn(FILE, "org.other", "Parser.parse")));
+
+    @Test
+    void testContaining() {
+        assertEquals(List.of("com.example.HTTPServer.port"), fqNames(INDEX.containing("Server.po", false, 10)));
+        assertEquals(List.of(), fqNames(INDEX.containing("server.PO", false, 10)));
+        assertEquals(List.of("com.example.HTTPServer.port"), fqNames(INDEX.containing("server.PO", true, 10)));
+        // shorter than a trigram: every symbol is tested
+        assertEquals(7, INDEX.containing("e", true, 10).size());
+        // results come in fqName order, and the limit keeps the first ones
+        assertEquals(List.of("com.example.HTTPServer", "com.example.HTTPServer.getURL"),
+                     fqNames(INDEX.containing("HTTPServer", false, 2)));
+    }
+
+    @Test
+    void testMatchingIdentifier() {
+        assertEquals(List.of("com.example.NullPointerException", "com.example.Outer$PointerCache"),
+                     fqNames(INDEX.matchingIdentifier(Pattern.compile("(?i).*pointer.*"), 10)));
+        // the regex has to match the whole identifier, not the fqName
+        assertEquals(List.of(), fqNames(INDEX.matchingIdentifier(Pattern.compile("(?i)example.*"), 10)));
+        assertEquals(List.of("org.other.Parser.parse"),
+                     fqNames(INDEX.matchingIdentifier(Pattern.compile("(?i)pars?e"), 10)));
+        assertEquals(List.of("com.example.HTTPServer.getURL", "com.example.HTTPServer.get_user_name"),
+                     fqNames(INDEX.matchingIdentifier(Pattern.compile("get(URL|_user_name)"), 10)));
+    }
+
+    @Test
+    void testCamelHumps() {
+        assertEquals(List.of("com.example.NullPointerException"), fqNames(INDEX.camelHumps("NPE", 10)));
+        assertEquals(List.of("com.example.NullPointerException"), fqNames(INDEX.camelHumps("NuPoEx", 10)));
+        assertEquals(List.of("com.example.NullPointerException", "com.example.Outer$PointerCache"),
+                     fqNames(INDEX.camelHumps("Pointer", 10)));
+        assertEquals(List.of("com.example.HTTPServer.getURL"), fqNames(INDEX.camelHumps("gUrl", 10)));
+        assertEquals(List.of("com.example.HTTPServer.getURL", "com.example.HTTPServer.get_user_name"),
+                     fqNames(INDEX.camelHumps("gU", 10)));
+        assertEquals(List.of("com.example.HTTPServer.get_user_name"), fqNames(INDEX.camelHumps("getUN", 10)));
+        assertEquals(List.of(), fqNames(INDEX.camelHumps("PENull", 10)));
+    }
+
+    @Test
+    void testHumps() {
+        assertEquals(List.of("http", "server"), SymbolSearchIndex.humps("HTTPServer"));
+        assertEquals(List.of("get", "url"), SymbolSearchIndex.humps("getURL"));
+        assertEquals(List.of("outer", "pointer", "cache"), SymbolSearchIndex.humps("Outer$PointerCache"));
+    }
+
+    @Test
+    void testRequiredLiterals() {
+        assertEquals(List.of("foo"), SymbolSearchIndex.requiredLiterals("(?i).*foo.*"));
+        assertEquals(List.of("abstract", "dao"), SymbolSearchIndex.requiredLiterals("abstract[A-Z]\\w*dao"));
+        // an optional character ends the literal before it
+        assertEquals(List.of("pars", "service"), SymbolSearchIndex.requiredLiterals("parse?service"));
+        assertEquals(List.of("a.b"), SymbolSearchIndex.requiredLiterals("\\Qa.b\\E"));
+        assertEquals(List.of("x.y"), SymbolSearchIndex.requiredLiterals("x\\.y+"));
+        assertEquals(List.of(), SymbolSearchIndex.requiredLiterals("foo|bar"));
+        assertEquals(List.of(), SymbolSearchIndex.requiredLiterals("(?x) f o o "));
+        assertEquals(List.of(), SymbolSearchIndex.requiredLiterals("\\x41BC"));
+    }
+
+    private static List<String> fqNames(List<CodeUnit> units) {
+        return units.stream().map(CodeUnit::fqName).toList();
+    }
+}
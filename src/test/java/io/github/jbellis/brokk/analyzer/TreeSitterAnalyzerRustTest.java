@@ -368,6 +368,14 @@ public class TreeSitterAnalyzerRustTest {
         assertEquals(3, idFqNames.size());
     }
 
+    @Test
+    void testSearchDefinitionsMatchAllWithLimit_Rust() {
+        var all = rsAnalyzer.searchDefinitions(".*");
+        assertTrue(all.size() > 3, "'.*' should match every declaration, got " + all);
+        assertEquals(all.subList(0, 3), rsAnalyzer.searchDefinitions(".*", 3));
+        assertEquals(all, rsAnalyzer.searchDefinitions(".*", Integer.MAX_VALUE));
+    }
+
     @Test
     void testGetClassSource_Rust() {
         // Source for struct Point
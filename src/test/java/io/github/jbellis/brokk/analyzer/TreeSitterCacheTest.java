@@ -0,0 +1,103 @@
+package io.github.jbellis.brokk.analyzer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TreeSitterCacheTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRoundTrip() throws IOException {
+        var file = writeSource();
+        var cacheFile = tempDir.resolve("java.tscache");
+        save(cacheFile, file);
+
+        var cached = TreeSitterCache.load(cacheFile, Language.JAVA, "").get(file, "");
+        assertTrue(cached.isPresent());
+        assertEquals(List.of(CodeUnit.cls(file, "", "Foo")), cached.get().topLevelCUs());
+    }
+
+    @Test
+    void testEntryFromAnotherContextIsAMiss() throws IOException {
+        var file = writeSource();
+        var cacheFile = tempDir.resolve("java.tscache");
+        save(cacheFile, file);
+
+        assertTrue(TreeSitterCache.load(cacheFile, Language.JAVA, "").get(file, "pkg").isEmpty());
+    }
+
+    @Test
+    void testCacheFromAnotherConfigurationIsDiscarded() throws IOException {
+        var file = writeSource();
+        var cacheFile = tempDir.resolve("java.tscache");
+        save(cacheFile, file);
+
+        var excluded = TreeSitterCache.configKey(List.of(tempDir.resolve("Bar.java").toString()));
+        assertTrue(TreeSitterCache.load(cacheFile, Language.JAVA, excluded).get(file, "").isEmpty());
+    }
+
+    @Test
+    void testStampIsOfTheParsedBytes() throws IOException {
+        var file = writeSource();
+        long mtime = Files.getLastModifiedTime(file.absPath()).toMillis();
+        var stamp = TreeSitterCache.FileStamp.of("class Bar {}\n".getBytes(StandardCharsets.UTF_8), mtime);
+
+        // same size and a different mtime: the bytes on disk are not the ones that were parsed
+        Files.setLastModifiedTime(file.absPath(), FileTime.fromMillis(mtime + 1000));
+        assertTrue(TreeSitterCache.validate(file, stamp).isEmpty());
+    }
+
+    @Test
+    void testCorruptEntryIsAMiss() throws IOException {
+        var file = writeSource();
+        var cacheFile = tempDir.resolve("java.tscache");
+        save(cacheFile, file);
+
+        // the CodeUnit table entry is: kind byte, empty package (length 0), then the name "Foo" (length 3)
+        var bytes = Files.readAllBytes(cacheFile);
+        int name = indexOf(bytes, "Foo".getBytes(StandardCharsets.UTF_8));
+        assertTrue(name > 0);
+        bytes[name - 9] = 0x7f; // no such CodeUnitType
+        Files.write(cacheFile, bytes);
+
+        assertTrue(TreeSitterCache.load(cacheFile, Language.JAVA, "").get(file, "").isEmpty());
+    }
+
+    private ProjectFile writeSource() throws IOException {
+        var file = new ProjectFile(tempDir, "Foo.java");
+        Files.writeString(file.absPath(), "class Foo {}\n");
+        return file;
+    }
+
+    private static void save(Path cacheFile, ProjectFile file) {
+        var foo = CodeUnit.cls(file, "", "Foo");
+        var result = new TreeSitterAnalyzer.FileAnalysisResult(List.of(foo), Map.of(), Map.of(), Map.of(), List.of(), Map.of());
+        var cache = TreeSitterCache.load(cacheFile, Language.JAVA, "");
+        cache.put(file, TreeSitterCache.FileStamp.of(file).orElseThrow(), "", result);
+        cache.save();
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = haystack.length - needle.length; i >= 0; i--) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,44 @@
+package io.github.jbellis.brokk.util;
+
+import dev.langchain4j.data.message.AiMessage;
+import dev.langchain4j.data.message.ChatMessage;
+import dev.langchain4j.data.message.UserMessage;
+import dev.langchain4j.model.openai.OpenAiTokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagesTest {
+    private static final OpenAiTokenizer TOKENIZER = new OpenAiTokenizer("gpt-4o");
+
+    @Test
+    void testCachedCountsMatchTheTokenizer() {
+        var text = "public class Foo { int bar(String baz) { return baz.length(); } }\n".repeat(20);
+        int expected = TOKENIZER.encode(text).size();
+        assertEquals(expected, Messages.getApproximateTokens(text));
+        // the second count comes from the cache
+        assertEquals(expected, Messages.getApproximateTokens(new String(text.toCharArray())));
+        assertEquals(0, Messages.getApproximateTokens(""));
+        assertEquals(0, Messages.getApproximateTokens((String) null));
+    }
+
+    @Test
+    void testMessagesAreCountedPerMessage() {
+        List<ChatMessage> messages = List.of(UserMessage.from("What is the capital of France?"), AiMessage.from("Paris."));
+        int joined = TOKENIZER.encode("What is the capital of France?\nParis.").size();
+        // each newline between messages is counted as one token
+        assertEquals(joined, Messages.getApproximateTokens(messages), 1);
+    }
+
+    @Test
+    void testEstimateTokens() {
+        assertEquals(0, Messages.estimateTokens(""));
+        assertEquals(1, Messages.estimateTokens("abc"));
+        assertEquals(2, Messages.estimateTokens("abcdefgh"));
+        // non-ASCII characters count by their UTF-8 length
+        assertEquals(2, Messages.estimateTokens("\u00e9\u00e9\u00e9\u00e9"));
+        assertEquals(1, Messages.estimateTokens("\uD83D\uDE00"));
+    }
+}
@@ -5,8 +5,9 @@ import io.shiftleft.codepropertygraph.generated.language.*
 import io.shiftleft.semanticcpg.language.*
 import org.junit.jupiter.api.Assertions.{assertEquals, assertFalse, assertThrows, assertTrue}
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 
-import java.nio.file.Path
+import java.nio.file.{Files, Path}
 import java.util.Optional
 import scala.jdk.OptionConverters.RichOptional
 import scala.jdk.javaapi.*
@@ -236,6 +237,19 @@ class JavaAnalyzerTest {
     assertTrue(callees.contains("A.method2"), "Should call A.method2")
   }
 
+  @Test
+  def getCallgraphFromStreamingTest(): Unit = {
+    val analyzer = getAnalyzer
+    val streamed = scala.collection.mutable.ListBuffer[(String, String)]()
+    val callgraph = analyzer.getCallgraphFrom("D.methodD1", 5, (method, site) => streamed += ((method, site.target().fqName)))
+
+    // every call site in the result was reported as it was found, and nothing else
+    val returned = asScala(callgraph).toList.flatMap((method, sites) => asScala(sites).map(site => (method, site.target().fqName)))
+    assertTrue(returned.nonEmpty)
+    assertEquals(returned.toSet, streamed.toSet)
+    assertEquals(returned.size, streamed.size)
+  }
+
   @Test
   def getPagerankTest(): Unit = {
     val analyzer = getAnalyzer
@@ -250,6 +264,50 @@ class JavaAnalyzerTest {
     assertEquals(Set("A", "B"), classes)
   }
 
+  @Test
+  def getBidirectionalPagerankTest(): Unit = {
+    val analyzer = getAnalyzer
+    import scala.jdk.javaapi.*
+
+    val seeds = CollectionConverters.asJava(Map("D" -> (1.0: java.lang.Double)))
+    val forward = asScala(analyzer.getPagerank(seeds, 3, false)).map(p => p._1 -> p._2.doubleValue).toMap
+    val reversed = asScala(analyzer.getPagerank(seeds, 3, true)).map(p => p._1 -> p._2.doubleValue).toMap
+    val combined = analyzer.getBidirectionalPagerank(seeds, 3)
+
+    val expected = (forward.keySet ++ reversed.keySet).map(cu => cu -> (forward.getOrElse(cu, 0.0) + reversed.getOrElse(cu, 0.0))).toMap
+    assertEquals(expected.keySet, asScala(combined).map(_._1).toSet)
+    asScala(combined).foreach { case (cu, score) => assertEquals(expected(cu), score.doubleValue, 1e-12) }
+
+    // same workspace, scaled weights: served from the cache
+    val scaled = CollectionConverters.asJava(Map("D" -> (4.0: java.lang.Double)))
+    assert(analyzer.getBidirectionalPagerank(scaled, 3) eq combined)
+  }
+
+  @Test
+  def updateIgnoresNonJavaFilesTest(): Unit = {
+    val analyzer = getAnalyzer
+    val root = Path.of("src/test/resources/testcode-java").toAbsolutePath
+    val changed = java.util.Set.of(ProjectFile(root, Path.of("README.md")))
+    assert(analyzer.update(changed) eq analyzer)
+  }
+
+  @Test
+  def updateRequiresRebuildForJavaChangesTest(@TempDir tempDir: Path): Unit = {
+    val root = tempDir.toRealPath()
+    val file = ProjectFile(root, Path.of("A.java"))
+    Files.writeString(file.absPath(), "public class A { public void before() {} }")
+    val analyzer = JavaAnalyzer(root)
+    assertTrue(analyzer.getDefinition("A.before").isPresent)
+
+    Files.writeString(file.absPath(), "public class A { public void after() {} }")
+    assertThrows(classOf[UnsupportedOperationException], () => analyzer.update(java.util.Set.of(file)))
+
+    // the rebuild the caller falls back to sees the change
+    val rebuilt = JavaAnalyzer(root)
+    assertTrue(rebuilt.getDefinition("A.after").isPresent)
+    assertTrue(rebuilt.getDefinition("A.before").isEmpty)
+  }
+
   @Test
   def getPagerankEmptyClassTest(): Unit = {
     val analyzer = getAnalyzer
@@ -365,6 +423,20 @@ class JavaAnalyzerTest {
     assertEquals(foundRefs, functionRefs ++ fieldRefs ++ classRefs)
   }
 
+  @Test
+  def getUsesFromPersistedIndexTest(): Unit = {
+    val analyzer = getAnalyzer
+    val cpgFile = java.nio.file.Files.createTempDirectory("brokk-uses").resolve("cpg.bin")
+    analyzer.writeCpg(cpgFile)
+    val usages = asScala(analyzer.getUses("A")).toSet
+
+    // the index built for the first lookup is saved next to the CPG, and answers for an analyzer loading it
+    assertTrue(java.nio.file.Files.exists(cpgFile.resolveSibling("cpg.bin.uses")))
+    val reloaded = JavaAnalyzer(Path.of("src/test/resources/testcode-java"), cpgFile)
+    assertEquals(usages, asScala(reloaded.getUses("A")).toSet)
+    assertEquals(asScala(analyzer.getUses("D.field1")).toSet, asScala(reloaded.getUses("D.field1")).toSet)
+  }
+
   @Test
   def getUsesClassNonexistentTest(): Unit = {
     val analyzer = getAnalyzer
@@ -398,6 +470,19 @@ class JavaAnalyzerTest {
     assertEquals(Set("D.field1", "D.field2", "E.iField", "E.sField"), fieldRefs)
   }
 
+  @Test
+  def searchCamelHumpsTest(): Unit = {
+    val analyzer = getAnalyzer
+    val humpMatches = asScala(analyzer.searchCamelHumps("AnUs", 10)).map(_.fqName).toSet
+    assertEquals(Set("AnonymousUsage"), humpMatches)
+    assertTrue(asScala(analyzer.searchCamelHumps("UE", 10)).exists(_.fqName == "UseE"))
+    assertTrue(analyzer.searchCamelHumps("EU", 10).isEmpty)
+    // limited results are the first in fqName order
+    val firstTwo = asScala(analyzer.searchDefinitions(".*", 2)).map(_.fqName).toList
+    assertEquals(2, firstTwo.size)
+    assertEquals("A", firstTwo.head)
+  }
+
   @Test
   def getDefinitionTest(): Unit = {
     val analyzer = getAnalyzer